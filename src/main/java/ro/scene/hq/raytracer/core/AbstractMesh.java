@@ -0,0 +1,285 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static ro.scene.hq.raytracer.core.BoundingBox.bounding_box;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+/**
+ * What Mesh, FloatMesh and OffHeapMesh have in common: the walk of the Bvh over the faces and the test of
+ * each face. Subclasses only say where the vertices, the faces and the nodes are kept, through the
+ * accessors below; a node is six bounds, and either the faces it holds or, for an inner node, the axis it
+ * was split along and its second child.
+ */
+public abstract class AbstractMesh extends Shape {
+
+    // number of Bvh nodes, 0 for a mesh without faces
+    abstract int nodeCount();
+
+    // bound i of the box of node: min x, y, z then max x, y, z
+    abstract double bound(int node, int i);
+
+    // leaves: the first of their faces; inner nodes: their second child, the first one comes right after them
+    abstract int link(int node);
+
+    // leaves: how many faces they hold; inner nodes: -axis - 1 for the axis they were split along
+    abstract int count(int node);
+
+    // the faces in the order of the leaves
+    abstract int face(int i);
+
+    // three vertex indices for each face
+    abstract int index(int i);
+
+    // x, y, z for each vertex
+    abstract double coordinate(int i);
+
+    @Override
+    protected List<Intersection> localIntersect(Ray r) {
+        if (nodeCount() == 0) {
+            return Collections.emptyList();
+        }
+        double ox = r.origin.x;
+        double oy = r.origin.y;
+        double oz = r.origin.z;
+        double dx = r.direction.x;
+        double dy = r.direction.y;
+        double dz = r.direction.z;
+        double invX = 1.0 / dx;
+        double invY = 1.0 / dy;
+        double invZ = 1.0 / dz;
+
+        List<Intersection> xs = null;
+        HitRecord record = new HitRecord();
+        Bvh.TraversalStack stack = Bvh.stacks.get();
+        int base = stack.top;
+        int node = 0;
+        while (true) {
+            if (hitsBox(node, ox, oy, oz, invX, invY, invZ, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY)) {
+                int count = count(node);
+                if (count > 0) {
+                    int first = link(node);
+                    for (int i = first; i < first + count; i++) {
+                        int face = face(i);
+                        if (intersectFace(face, ox, oy, oz, dx, dy, dz, record)) {
+                            if (xs == null) {
+                                xs = new ArrayList<>(2);
+                            }
+                            xs.add(new Intersection(record.t, this, null, face));
+                        }
+                    }
+                } else {
+                    stack.push(link(node));
+                    node = node + 1;
+                    continue;
+                }
+            }
+            if (stack.top == base) {
+                break;
+            }
+            node = stack.entries[--stack.top];
+        }
+        return xs != null ? xs : Collections.<Intersection>emptyList();
+    }
+
+    // The hit closest to the origin of a ray in object space, in front of it, written to `record` without
+    // allocating anything. Subtrees behind the closest hit found so far are skipped.
+    public boolean closestHit(Ray localRay, HitRecord record) {
+        return closestHit(localRay, Double.POSITIVE_INFINITY, record);
+    }
+
+    // the same, for hits before tMax only; the record is left alone when there is none
+    public boolean closestHit(Ray localRay, double tMax, HitRecord record) {
+        return search(localRay, 0.0, tMax, record, false);
+    }
+
+    // any face between tMin and tMax will do for anyHit, which stops at the first one found
+    public boolean anyHit(Ray localRay, double tMin, double tMax) {
+        return search(localRay, tMin, tMax, null, true);
+    }
+
+    // without a record for anyHit, which only asks whether there is a face in the way
+    private boolean search(Ray localRay, double tMin, double tMax, HitRecord record, boolean anyHit) {
+        if (nodeCount() == 0) {
+            return false;
+        }
+        double ox = localRay.origin.x;
+        double oy = localRay.origin.y;
+        double oz = localRay.origin.z;
+        double dx = localRay.direction.x;
+        double dy = localRay.direction.y;
+        double dz = localRay.direction.z;
+        double invX = 1.0 / dx;
+        double invY = 1.0 / dy;
+        double invZ = 1.0 / dz;
+
+        double bestT = tMax;
+        double bestU = 0.0;
+        double bestV = 0.0;
+        int bestFace = -1;
+        // the faces are tested into the record, which gets its values back when none is kept
+        double savedT = anyHit ? 0.0 : record.t;
+        double savedU = anyHit ? 0.0 : record.u;
+        double savedV = anyHit ? 0.0 : record.v;
+        Bvh.TraversalStack stack = Bvh.stacks.get();
+        int base = stack.top;
+        int node = 0;
+        while (true) {
+            if (hitsBox(node, ox, oy, oz, invX, invY, invZ, 0.0, bestT)) {
+                int count = count(node);
+                if (count > 0) {
+                    int first = link(node);
+                    for (int i = first; i < first + count; i++) {
+                        int face = face(i);
+                        if (anyHit) {
+                            if (hitsFace(face, ox, oy, oz, dx, dy, dz, tMin, tMax)) {
+                                stack.top = base;
+                                return true;
+                            }
+                        } else if (intersectFace(face, ox, oy, oz, dx, dy, dz, record)
+                                && record.t > tMin && record.t < bestT) {
+                            bestT = record.t;
+                            bestU = record.u;
+                            bestV = record.v;
+                            bestFace = face;
+                        }
+                    }
+                } else {
+                    // the child on the side the ray comes from first, its hits may let us skip the other
+                    int axis = -count - 1;
+                    boolean negative = axis == 0 ? invX < 0 : axis == 1 ? invY < 0 : invZ < 0;
+                    int right = link(node);
+                    stack.push(negative ? node + 1 : right);
+                    node = negative ? right : node + 1;
+                    continue;
+                }
+            }
+            if (stack.top == base) {
+                break;
+            }
+            node = stack.entries[--stack.top];
+        }
+        if (anyHit) {
+            return false;
+        }
+        if (bestFace < 0) {
+            record.t = savedT;
+            record.u = savedU;
+            record.v = savedV;
+            return false;
+        }
+        record.t = bestT;
+        record.u = bestU;
+        record.v = bestV;
+        record.object = this;
+        record.instance = null;
+        record.inner = null;
+        record.face = bestFace;
+        return true;
+    }
+
+    @Override
+    protected boolean localClosestHit(Ray localRay, double tMax, HitRecord record) {
+        return closestHit(localRay, tMax, record);
+    }
+
+    @Override
+    protected boolean localAnyHit(Ray localRay, double tMin, double tMax) {
+        return anyHit(localRay, tMin, tMax);
+    }
+
+    // Bvh.hitsBox on the box of node, limited to [tNear, tFar]
+    private boolean hitsBox(int node, double ox, double oy, double oz, double invX, double invY, double invZ,
+                            double tNear, double tFar) {
+        double tmin = tNear;
+        double tmax = tFar;
+
+        double t0 = (bound(node, 0) - ox) * invX;
+        double t1 = (bound(node, 3) - ox) * invX;
+        if (invX < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (bound(node, 1) - oy) * invY;
+        t1 = (bound(node, 4) - oy) * invY;
+        if (invY < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (bound(node, 2) - oz) * invZ;
+        t1 = (bound(node, 5) - oz) * invZ;
+        if (invZ < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        return tmin <= tmax;
+    }
+
+    // Triangle.intersect on face `face`, with its corner and edges read from the vertices of the mesh.
+    // It writes t, u and v only; the callers set the object and the face of the hits they keep.
+    public boolean intersectFace(int face, double ox, double oy, double oz, double dx, double dy, double dz,
+                                 HitRecord record) {
+        int a = index(face * 3) * 3;
+        int b = index(face * 3 + 1) * 3;
+        int c = index(face * 3 + 2) * 3;
+        double p1x = coordinate(a), p1y = coordinate(a + 1), p1z = coordinate(a + 2);
+        double e1x = coordinate(b) - p1x, e1y = coordinate(b + 1) - p1y, e1z = coordinate(b + 2) - p1z;
+        double e2x = coordinate(c) - p1x, e2y = coordinate(c + 1) - p1y, e2z = coordinate(c + 2) - p1z;
+        return Triangle.intersect(p1x, p1y, p1z, e1x, e1y, e1z, e2x, e2y, e2z, ox, oy, oz, dx, dy, dz, record);
+    }
+
+    // Triangle.hits on face `face`
+    private boolean hitsFace(int face, double ox, double oy, double oz, double dx, double dy, double dz,
+                             double tMin, double tMax) {
+        int a = index(face * 3) * 3;
+        int b = index(face * 3 + 1) * 3;
+        int c = index(face * 3 + 2) * 3;
+        double p1x = coordinate(a), p1y = coordinate(a + 1), p1z = coordinate(a + 2);
+        double e1x = coordinate(b) - p1x, e1y = coordinate(b + 1) - p1y, e1z = coordinate(b + 2) - p1z;
+        double e2x = coordinate(c) - p1x, e2y = coordinate(c + 1) - p1y, e2z = coordinate(c + 2) - p1z;
+        return Triangle.hits(p1x, p1y, p1z, e1x, e1y, e1z, e2x, e2y, e2z, ox, oy, oz, dx, dy, dz, tMin, tMax);
+    }
+
+    @Override
+    protected Tuple localNormalAt(Tuple localPoint) {
+        throw new UnsupportedOperationException("The normal of a mesh depends on the face that was hit!");
+    }
+
+    @Override
+    protected Tuple localNormalAt(Tuple localPoint, Intersection hit) {
+        return faceNormal(hit.face);
+    }
+
+    public Tuple faceNormal(int face) {
+        Tuple p1 = vertex(index(face * 3));
+        Tuple e1 = vertex(index(face * 3 + 1)).sub(p1);
+        Tuple e2 = vertex(index(face * 3 + 2)).sub(p1);
+        return normalize(cross(e2, e1));
+    }
+
+    public Tuple vertex(int index) {
+        return point(coordinate(index * 3), coordinate(index * 3 + 1), coordinate(index * 3 + 2));
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        if (nodeCount() == 0) {
+            return bounding_box();
+        }
+        return bounding_box(point(bound(0, 0), bound(0, 1), bound(0, 2)), point(bound(0, 3), bound(0, 4), bound(0, 5)));
+    }
+}
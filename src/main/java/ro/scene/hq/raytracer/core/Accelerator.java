@@ -0,0 +1,20 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.List;
+
+// spatial index over the children of a group, used by Group.localIntersect instead of testing them all
+public interface Accelerator {
+    BoundingBox bounds();
+
+    // adds every intersection of the line the ray lies on with the indexed shapes, negative t included
+    void intersect(Ray r, List<Intersection> xs);
+
+    // the nearest intersection with t in (0, tMax), as Shape.closest_hit
+    boolean closestHit(Ray r, double tMax, HitRecord record);
+
+    // the first indexed shape found with an intersection with t in (tMin, tMax), as Shape.any_hit, or null
+    Shape anyHit(Ray r, double tMin, double tMax);
+
+    // brings the index up to date after the shapes moved, returning a new one if it had to be rebuilt
+    Accelerator refitOrRebuild(List<Shape> shapes);
+}
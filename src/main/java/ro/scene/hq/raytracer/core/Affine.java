@@ -0,0 +1,154 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.Objects;
+
+import static ro.scene.hq.raytracer.core.Tuple.point;
+import static ro.scene.hq.raytracer.core.Tuple.vector;
+
+/**
+ * 4x4 matrix whose last row is 0 0 0 1, which is what every transform of a scene is, kept as the twelve
+ * numbers of the other three rows. Inverting one is a closed form 3x3 inverse instead of the cofactor
+ * expansion of Matrix, and transforming a tuple never allocates more than the result.
+ */
+public final class Affine {
+    public static final Affine IDENTITY = new Affine(
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0);
+
+    public final double m00, m01, m02, m03;
+    public final double m10, m11, m12, m13;
+    public final double m20, m21, m22, m23;
+
+    public Affine(double m00, double m01, double m02, double m03,
+                  double m10, double m11, double m12, double m13,
+                  double m20, double m21, double m22, double m23) {
+        this.m00 = m00;
+        this.m01 = m01;
+        this.m02 = m02;
+        this.m03 = m03;
+        this.m10 = m10;
+        this.m11 = m11;
+        this.m12 = m12;
+        this.m13 = m13;
+        this.m20 = m20;
+        this.m21 = m21;
+        this.m22 = m22;
+        this.m23 = m23;
+    }
+
+    public static Affine affine(Matrix m) {
+        double[][] d = m.data;
+        if (m.size != 4 || d[3][0] != 0.0 || d[3][1] != 0.0 || d[3][2] != 0.0 || d[3][3] != 1.0) {
+            throw new IllegalArgumentException("Not an affine transform: " + m);
+        }
+        return new Affine(
+                d[0][0], d[0][1], d[0][2], d[0][3],
+                d[1][0], d[1][1], d[1][2], d[1][3],
+                d[2][0], d[2][1], d[2][2], d[2][3]);
+    }
+
+    public Matrix toMatrix() {
+        return new Matrix(new double[][]{
+                {m00, m01, m02, m03},
+                {m10, m11, m12, m13},
+                {m20, m21, m22, m23},
+                {0, 0, 0, 1}
+        });
+    }
+
+    // this * other, the transform applying other first
+    public Affine mul(Affine o) {
+        return new Affine(
+                m00 * o.m00 + m01 * o.m10 + m02 * o.m20,
+                m00 * o.m01 + m01 * o.m11 + m02 * o.m21,
+                m00 * o.m02 + m01 * o.m12 + m02 * o.m22,
+                m00 * o.m03 + m01 * o.m13 + m02 * o.m23 + m03,
+                m10 * o.m00 + m11 * o.m10 + m12 * o.m20,
+                m10 * o.m01 + m11 * o.m11 + m12 * o.m21,
+                m10 * o.m02 + m11 * o.m12 + m12 * o.m22,
+                m10 * o.m03 + m11 * o.m13 + m12 * o.m23 + m13,
+                m20 * o.m00 + m21 * o.m10 + m22 * o.m20,
+                m20 * o.m01 + m21 * o.m11 + m22 * o.m21,
+                m20 * o.m02 + m21 * o.m12 + m22 * o.m22,
+                m20 * o.m03 + m21 * o.m13 + m22 * o.m23 + m23);
+    }
+
+    // inverse of the 3x3 part through its adjugate, then the translation undone by it; like
+    // Matrix.inverse, a singular transform gives infinities and NaNs
+    public Affine inverse() {
+        double c00 = m11 * m22 - m12 * m21;
+        double c01 = m12 * m20 - m10 * m22;
+        double c02 = m10 * m21 - m11 * m20;
+        double f = 1.0 / (m00 * c00 + m01 * c01 + m02 * c02);
+
+        double i00 = c00 * f;
+        double i01 = (m02 * m21 - m01 * m22) * f;
+        double i02 = (m01 * m12 - m02 * m11) * f;
+        double i10 = c01 * f;
+        double i11 = (m00 * m22 - m02 * m20) * f;
+        double i12 = (m02 * m10 - m00 * m12) * f;
+        double i20 = c02 * f;
+        double i21 = (m01 * m20 - m00 * m21) * f;
+        double i22 = (m00 * m11 - m01 * m10) * f;
+        return new Affine(
+                i00, i01, i02, -(i00 * m03 + i01 * m13 + i02 * m23),
+                i10, i11, i12, -(i10 * m03 + i11 * m13 + i12 * m23),
+                i20, i21, i22, -(i20 * m03 + i21 * m13 + i22 * m23));
+    }
+
+    // the 3x3 part transposed, without translation: what transforms normals once applied to an inverse
+    public Affine transposeLinear() {
+        return new Affine(
+                m00, m10, m20, 0,
+                m01, m11, m21, 0,
+                m02, m12, m22, 0);
+    }
+
+    // the whole 4x4 product, for points and vectors alike
+    public Tuple mul(Tuple t) {
+        return new Tuple(
+                m00 * t.x + m01 * t.y + m02 * t.z + m03 * t.w,
+                m10 * t.x + m11 * t.y + m12 * t.z + m13 * t.w,
+                m20 * t.x + m21 * t.y + m22 * t.z + m23 * t.w,
+                t.w);
+    }
+
+    public Tuple transformPoint(Tuple p) {
+        return point(
+                m00 * p.x + m01 * p.y + m02 * p.z + m03,
+                m10 * p.x + m11 * p.y + m12 * p.z + m13,
+                m20 * p.x + m21 * p.y + m22 * p.z + m23);
+    }
+
+    public Tuple transformVector(Tuple v) {
+        return vector(
+                m00 * v.x + m01 * v.y + m02 * v.z,
+                m10 * v.x + m11 * v.y + m12 * v.z,
+                m20 * v.x + m21 * v.y + m22 * v.z);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Affine)) return false;
+        Affine a = (Affine) o;
+        return m00 == a.m00 && m01 == a.m01 && m02 == a.m02 && m03 == a.m03 &&
+                m10 == a.m10 && m11 == a.m11 && m12 == a.m12 && m13 == a.m13 &&
+                m20 == a.m20 && m21 == a.m21 && m22 == a.m22 && m23 == a.m23;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(m00, m01, m02, m03, m10, m11, m12, m13, m20, m21, m22, m23);
+    }
+
+    @Override
+    public String toString() {
+        return "Affine{" +
+                "[" + m00 + ", " + m01 + ", " + m02 + ", " + m03 + "], " +
+                "[" + m10 + ", " + m11 + ", " + m12 + ", " + m13 + "], " +
+                "[" + m20 + ", " + m21 + ", " + m22 + ", " + m23 + "]" +
+                '}';
+    }
+}
@@ -0,0 +1,157 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.Objects;
+
+import static ro.scene.hq.raytracer.core.Tuple.point;
+
+public class BoundingBox {
+    public Tuple min;
+    public Tuple max;
+
+    public BoundingBox(Tuple min, Tuple max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    public static BoundingBox bounding_box() {
+        return new BoundingBox(
+                point(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY),
+                point(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY));
+    }
+
+    public static BoundingBox bounding_box(Tuple min, Tuple max) {
+        return new BoundingBox(min, max);
+    }
+
+    public static BoundingBox infinite_box() {
+        return new BoundingBox(
+                point(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY),
+                point(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY));
+    }
+
+    // the shapes use Tuple.INFINITY as a stand-in for unbounded extents; boxes use real infinities so that
+    // such shapes get recognized as unbounded instead of producing huge boxes
+    static double extent(double value) {
+        if (value <= -Tuple.INFINITY) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        if (value >= Tuple.INFINITY) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return value;
+    }
+
+    public void add(Tuple p) {
+        min = point(Math.min(min.x, p.x), Math.min(min.y, p.y), Math.min(min.z, p.z));
+        max = point(Math.max(max.x, p.x), Math.max(max.y, p.y), Math.max(max.z, p.z));
+    }
+
+    public void add(BoundingBox other) {
+        add(other.min);
+        add(other.max);
+    }
+
+    public boolean isEmpty() {
+        return min.x > max.x || min.y > max.y || min.z > max.z;
+    }
+
+    public boolean isFinite() {
+        return !Double.isInfinite(min.x) && !Double.isInfinite(min.y) && !Double.isInfinite(min.z) &&
+                !Double.isInfinite(max.x) && !Double.isInfinite(max.y) && !Double.isInfinite(max.z);
+    }
+
+    public Tuple centroid() {
+        return point((min.x + max.x) / 2.0, (min.y + max.y) / 2.0, (min.z + max.z) / 2.0);
+    }
+
+    public boolean contains(Tuple p) {
+        return min.x <= p.x && p.x <= max.x &&
+                min.y <= p.y && p.y <= max.y &&
+                min.z <= p.z && p.z <= max.z;
+    }
+
+    public BoundingBox transform(Matrix m) {
+        if (isEmpty()) {
+            return bounding_box();
+        }
+        // an infinite extent would turn into NaNs once multiplied by the zero entries of the matrix
+        if (!isFinite()) {
+            return infinite_box();
+        }
+
+        BoundingBox result = bounding_box();
+        for (int i = 0; i < 8; i++) {
+            Tuple corner = point(
+                    (i & 1) == 0 ? min.x : max.x,
+                    (i & 2) == 0 ? min.y : max.y,
+                    (i & 4) == 0 ? min.z : max.z);
+            result.add(m.mul(corner));
+        }
+        return result;
+    }
+
+    // slab test against the whole line the ray lies on; negative t values are kept on purpose since
+    // the refraction bookkeeping in prepare_computations needs the intersections behind the origin too.
+    public static boolean intersects(BoundingBox box, Ray r) {
+        double tmin = Double.NEGATIVE_INFINITY;
+        double tmax = Double.POSITIVE_INFINITY;
+
+        double invX = 1.0 / r.direction.x;
+        double t0 = (box.min.x - r.origin.x) * invX;
+        double t1 = (box.max.x - r.origin.x) * invX;
+        // comparisons instead of Math.min/max so that a NaN (0 * infinity) leaves the range untouched
+        if (invX < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        double invY = 1.0 / r.direction.y;
+        t0 = (box.min.y - r.origin.y) * invY;
+        t1 = (box.max.y - r.origin.y) * invY;
+        if (invY < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        double invZ = 1.0 / r.direction.z;
+        t0 = (box.min.z - r.origin.z) * invZ;
+        t1 = (box.max.z - r.origin.z) * invZ;
+        if (invZ < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        return tmin <= tmax;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        BoundingBox that = (BoundingBox) o;
+        return min.equals(that.min) &&
+                max.equals(that.max);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(min, max);
+    }
+
+    @Override
+    public String toString() {
+        return "BoundingBox{" +
+                "min=" + min +
+                ", max=" + max +
+                '}';
+    }
+}
@@ -0,0 +1,601 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static ro.scene.hq.raytracer.core.BoundingBox.bounding_box;
+import static ro.scene.hq.raytracer.core.Tuple.point;
+
+/**
+ * Bounding volume hierarchy over a list of shapes, all living in the same (parent) space.
+ * Shapes without finite bounds (e.g. planes) are kept aside and tested on every ray.
+ */
+public class Bvh implements Accelerator {
+    // Layout of one node in `nodes`, in depth first order so that the left child of node i is node i + 1.
+    // A positive count marks a leaf covering primitives[offset, offset + count); interior nodes store
+    // the index of their right child in offset and -(split axis + 1) in count.
+    static final int NODE_SIZE = 8;
+    static final int OFFSET = 6;
+    static final int COUNT = 7;
+
+    // built by BvhBuilder and flattened into `nodes` right away
+    static class Node {
+        final BoundingBox bounds;
+        Node left;
+        Node right;
+        // leaves cover primitives[start, start + count)
+        int start;
+        int count;
+        int axis;
+
+        Node(BoundingBox bounds) {
+            this.bounds = bounds;
+        }
+
+        boolean isLeaf() {
+            return left == null;
+        }
+    }
+
+    // one traversal stack per thread, shared by nested hierarchies: every traversal works above the
+    // entries of the one that called it and gives them back when it's done
+    static class TraversalStack {
+        int[] entries = new int[64];
+        int top;
+
+        void push(int node) {
+            if (top == entries.length) {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+            entries[top++] = node;
+        }
+    }
+
+    static final ThreadLocal<TraversalStack> stacks = ThreadLocal.withInitial(TraversalStack::new);
+
+    // remembers which primitives a ray was already tested against, for trees where a primitive can
+    // sit in several leaves
+    static class Mailbox {
+        final int[] stamps;
+        int ray;
+
+        Mailbox(int primitives) {
+            stamps = new int[primitives];
+        }
+
+        void nextRay() {
+            if (++ray == 0) {
+                Arrays.fill(stamps, 0);
+                ray = 1;
+            }
+        }
+
+        boolean firstVisit(int primitive) {
+            if (stamps[primitive] == ray) {
+                return false;
+            }
+            stamps[primitive] = ray;
+            return true;
+        }
+    }
+
+    public final BvhSettings settings;
+    public final BvhStats stats;
+    final double[] nodes;
+    // used instead of `nodes` for widths above 2
+    final WideNodes wide;
+    final Shape[] primitives;
+    // only with spatial splits: index of the primitive in every slot of `primitives`, which has repeats
+    final int[] primitiveIds;
+    private final ThreadLocal<Mailbox> mailboxes;
+    final List<Shape> unbounded = new ArrayList<>();
+
+    private Bvh(List<Shape> shapes, BvhSettings settings) {
+        this.settings = settings;
+
+        // transforming the bounds of every shape is as expensive as a sequential build, so spread it too
+        Shape[] all = shapes.toArray(new Shape[0]);
+        BoundingBox[] allBoxes = new BoundingBox[all.length];
+        BvhBuilder.parallelFor(settings, all.length, i -> allBoxes[i] = all[i].parentSpaceBounds());
+
+        List<Shape> bounded = new ArrayList<>(all.length);
+        List<BoundingBox> boxes = new ArrayList<>(all.length);
+        for (int i = 0; i < all.length; i++) {
+            if (allBoxes[i].isFinite()) {
+                bounded.add(all[i]);
+                boxes.add(allBoxes[i]);
+            } else {
+                unbounded.add(all[i]);
+            }
+        }
+
+        double[] flatBoxes = new double[boxes.size() * 6];
+        for (int i = 0; i < boxes.size(); i++) {
+            BoundingBox box = boxes.get(i);
+            flatBoxes[i * 6] = box.min.x;
+            flatBoxes[i * 6 + 1] = box.min.y;
+            flatBoxes[i * 6 + 2] = box.min.z;
+            flatBoxes[i * 6 + 3] = box.max.x;
+            flatBoxes[i * 6 + 4] = box.max.y;
+            flatBoxes[i * 6 + 5] = box.max.z;
+        }
+
+        BvhBuilder builder = new BvhBuilder(flatBoxes, settings.spatialSplits ? corners(bounded) : null, settings);
+        Node root = builder.build();
+        primitives = new Shape[builder.order.length];
+        for (int i = 0; i < primitives.length; i++) {
+            primitives[i] = bounded.get(builder.order[i]);
+        }
+        if (primitives.length > bounded.size()) {
+            primitiveIds = builder.order;
+            mailboxes = ThreadLocal.withInitial(() -> new Mailbox(bounded.size()));
+        } else {
+            primitiveIds = null;
+            mailboxes = null;
+        }
+        stats = computeStats(root);
+        stats.primitives = bounded.size();
+        if (settings.width > 2) {
+            wide = WideNodes.collapse(root, settings.width, stats.nodeCount);
+            nodes = new double[0];
+            stats.nodeCount = wide.nodeCount;
+            stats.leafCount = wide.leafCount;
+            stats.maxDepth = wide.maxDepth;
+        } else {
+            wide = null;
+            nodes = new double[stats.nodeCount * NODE_SIZE];
+            if (root != null) {
+                flatten(root, nodes, 0);
+            }
+        }
+        stats.estimatedCost = cost();
+    }
+
+    // brings back a tree stored by BvhCache, without building it again
+    Bvh(BvhSettings settings, BvhStats stats, double[] nodes, WideNodes wide, Shape[] primitives,
+        int[] primitiveIds, List<Shape> unbounded) {
+        this.settings = settings;
+        this.stats = stats;
+        this.nodes = nodes;
+        this.wide = wide;
+        this.primitives = primitives;
+        this.primitiveIds = primitiveIds;
+        this.mailboxes = primitiveIds != null ? ThreadLocal.withInitial(() -> new Mailbox(stats.primitives)) : null;
+        this.unbounded.addAll(unbounded);
+    }
+
+    // parent space corners of the triangles, so that spatial splits can clip them; NaN for other shapes
+    private static double[] corners(List<Shape> shapes) {
+        double[] result = new double[shapes.size() * 9];
+        for (int i = 0; i < shapes.size(); i++) {
+            Shape s = shapes.get(i);
+            if (!(s instanceof Triangle)) {
+                result[i * 9] = Double.NaN;
+                continue;
+            }
+            Triangle t = (Triangle) s;
+            Tuple[] points = {s.transform.mul(t.p1), s.transform.mul(t.p2), s.transform.mul(t.p3)};
+            for (int v = 0; v < 3; v++) {
+                result[i * 9 + v * 3] = points[v].x;
+                result[i * 9 + v * 3 + 1] = points[v].y;
+                result[i * 9 + v * 3 + 2] = points[v].z;
+            }
+        }
+        return result;
+    }
+
+    public static Bvh bvh(List<Shape> shapes) {
+        return new Bvh(shapes, BvhSettings.bvh_settings());
+    }
+
+    public static Bvh bvh(List<Shape> shapes, BvhSettings settings) {
+        return new Bvh(shapes, settings);
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        if (!unbounded.isEmpty()) {
+            return BoundingBox.infinite_box();
+        }
+        if (wide != null) {
+            if (wide.nodeCount == 0) {
+                return bounding_box();
+            }
+            double[] box = wide.nodeBounds(0);
+            return bounding_box(point(box[0], box[1], box[2]), point(box[3], box[4], box[5]));
+        }
+        if (nodes.length == 0) {
+            return bounding_box();
+        }
+        return bounding_box(point(nodes[0], nodes[1], nodes[2]), point(nodes[3], nodes[4], nodes[5]));
+    }
+
+    @Override
+    public void intersect(Ray r, List<Intersection> xs) {
+        for (Shape s : unbounded) {
+            xs.addAll(Shape.intersect(s, r));
+        }
+        Mailbox mailbox = null;
+        if (mailboxes != null) {
+            mailbox = mailboxes.get();
+            mailbox.nextRay();
+        }
+        if (wide != null) {
+            wide.intersect(r, this, mailbox, xs);
+            return;
+        }
+        if (nodes.length == 0) {
+            return;
+        }
+
+        double ox = r.origin.x;
+        double oy = r.origin.y;
+        double oz = r.origin.z;
+        double invX = 1.0 / r.direction.x;
+        double invY = 1.0 / r.direction.y;
+        double invZ = 1.0 / r.direction.z;
+
+        TraversalStack stack = stacks.get();
+        int base = stack.top;
+        int node = 0;
+        while (true) {
+            int offset = node * NODE_SIZE;
+            if (hitsBox(nodes, offset, ox, oy, oz, invX, invY, invZ)) {
+                int count = (int) nodes[offset + COUNT];
+                if (count > 0) {
+                    intersectLeaf((int) nodes[offset + OFFSET], count, r, mailbox, xs);
+                } else {
+                    // visit the child on the side the ray comes from first
+                    int axis = -count - 1;
+                    boolean negative = axis == 0 ? invX < 0 : axis == 1 ? invY < 0 : invZ < 0;
+                    int right = (int) nodes[offset + OFFSET];
+                    if (negative) {
+                        stack.push(node + 1);
+                        node = right;
+                    } else {
+                        stack.push(right);
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+            if (stack.top == base) {
+                break;
+            }
+            node = stack.entries[--stack.top];
+        }
+    }
+
+    // Like intersect, but keeping the nearest hit only: boxes beyond the nearest hit found so far are
+    // skipped, and nothing gets allocated. No mailbox is needed, testing a shape twice can't change the result.
+    @Override
+    public boolean closestHit(Ray r, double tMax, HitRecord record) {
+        boolean found = false;
+        for (Shape s : unbounded) {
+            if (Shape.closest_hit(s, r, tMax, record)) {
+                tMax = record.t;
+                found = true;
+            }
+        }
+        if (wide != null) {
+            return wide.closestHit(r, this, tMax, record) || found;
+        }
+        if (nodes.length == 0) {
+            return found;
+        }
+
+        double ox = r.origin.x;
+        double oy = r.origin.y;
+        double oz = r.origin.z;
+        double invX = 1.0 / r.direction.x;
+        double invY = 1.0 / r.direction.y;
+        double invZ = 1.0 / r.direction.z;
+
+        TraversalStack stack = stacks.get();
+        int base = stack.top;
+        int node = 0;
+        while (true) {
+            int offset = node * NODE_SIZE;
+            if (hitsBox(nodes, offset, ox, oy, oz, invX, invY, invZ, tMax)) {
+                int count = (int) nodes[offset + COUNT];
+                if (count > 0) {
+                    if (closestHitLeaf((int) nodes[offset + OFFSET], count, r, tMax, record)) {
+                        tMax = record.t;
+                        found = true;
+                    }
+                } else {
+                    int axis = -count - 1;
+                    boolean negative = axis == 0 ? invX < 0 : axis == 1 ? invY < 0 : invZ < 0;
+                    int right = (int) nodes[offset + OFFSET];
+                    if (negative) {
+                        stack.push(node + 1);
+                        node = right;
+                    } else {
+                        stack.push(right);
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+            if (stack.top == base) {
+                break;
+            }
+            node = stack.entries[--stack.top];
+        }
+        return found;
+    }
+
+    // closestHit without the bookkeeping: the first hit found between tMin and tMax ends the search
+    @Override
+    public Shape anyHit(Ray r, double tMin, double tMax) {
+        for (Shape s : unbounded) {
+            if (Shape.any_hit(s, r, tMin, tMax)) {
+                return s;
+            }
+        }
+        if (wide != null) {
+            return wide.anyHit(r, this, tMin, tMax);
+        }
+        if (nodes.length == 0) {
+            return null;
+        }
+
+        double ox = r.origin.x;
+        double oy = r.origin.y;
+        double oz = r.origin.z;
+        double invX = 1.0 / r.direction.x;
+        double invY = 1.0 / r.direction.y;
+        double invZ = 1.0 / r.direction.z;
+
+        TraversalStack stack = stacks.get();
+        int base = stack.top;
+        int node = 0;
+        while (true) {
+            int offset = node * NODE_SIZE;
+            if (hitsBox(nodes, offset, ox, oy, oz, invX, invY, invZ, tMax)) {
+                int count = (int) nodes[offset + COUNT];
+                if (count > 0) {
+                    Shape occluder = anyHitLeaf((int) nodes[offset + OFFSET], count, r, tMin, tMax);
+                    if (occluder != null) {
+                        stack.top = base;
+                        return occluder;
+                    }
+                } else {
+                    stack.push((int) nodes[offset + OFFSET]);
+                    node = node + 1;
+                    continue;
+                }
+            }
+            if (stack.top == base) {
+                return null;
+            }
+            node = stack.entries[--stack.top];
+        }
+    }
+
+    Shape anyHitLeaf(int first, int count, Ray r, double tMin, double tMax) {
+        for (int i = first; i < first + count; i++) {
+            if (Shape.any_hit(primitives[i], r, tMin, tMax)) {
+                return primitives[i];
+            }
+        }
+        return null;
+    }
+
+    boolean closestHitLeaf(int first, int count, Ray r, double tMax, HitRecord record) {
+        boolean found = false;
+        for (int i = first; i < first + count; i++) {
+            if (Shape.closest_hit(primitives[i], r, tMax, record)) {
+                tMax = record.t;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    void intersectLeaf(int first, int count, Ray r, Mailbox mailbox, List<Intersection> xs) {
+        for (int i = first; i < first + count; i++) {
+            // a primitive split over several leaves must not report its intersections more than once
+            if (mailbox != null && !mailbox.firstVisit(primitiveIds[i])) {
+                continue;
+            }
+            xs.addAll(Shape.intersect(primitives[i], r));
+        }
+    }
+
+    // same slab test as BoundingBox.intersects, on a box stored in a flat array
+    static boolean hitsBox(double[] boxes, int offset, double ox, double oy, double oz,
+                           double invX, double invY, double invZ) {
+        double tmin = Double.NEGATIVE_INFINITY;
+        double tmax = Double.POSITIVE_INFINITY;
+
+        double t0 = (boxes[offset] - ox) * invX;
+        double t1 = (boxes[offset + 3] - ox) * invX;
+        if (invX < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (boxes[offset + 1] - oy) * invY;
+        t1 = (boxes[offset + 4] - oy) * invY;
+        if (invY < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (boxes[offset + 2] - oz) * invZ;
+        t1 = (boxes[offset + 5] - oz) * invZ;
+        if (invZ < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        return tmin <= tmax;
+    }
+
+    // hitsBox for rays that only care about the part of the line between 0 and tFar
+    static boolean hitsBox(double[] boxes, int offset, double ox, double oy, double oz,
+                           double invX, double invY, double invZ, double tFar) {
+        double tmin = 0.0;
+        double tmax = tFar;
+
+        double t0 = (boxes[offset] - ox) * invX;
+        double t1 = (boxes[offset + 3] - ox) * invX;
+        if (invX < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (boxes[offset + 1] - oy) * invY;
+        t1 = (boxes[offset + 4] - oy) * invY;
+        if (invY < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        t0 = (boxes[offset + 2] - oz) * invZ;
+        t1 = (boxes[offset + 5] - oz) * invZ;
+        if (invZ < 0.0) {
+            double tmp = t0;
+            t0 = t1;
+            t1 = tmp;
+        }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+
+        return tmin <= tmax;
+    }
+
+    // writes the subtree in depth first order starting at `index` and returns the next free index
+    static int flatten(Node node, double[] nodes, int index) {
+        int offset = index * NODE_SIZE;
+        nodes[offset] = node.bounds.min.x;
+        nodes[offset + 1] = node.bounds.min.y;
+        nodes[offset + 2] = node.bounds.min.z;
+        nodes[offset + 3] = node.bounds.max.x;
+        nodes[offset + 4] = node.bounds.max.y;
+        nodes[offset + 5] = node.bounds.max.z;
+        if (node.isLeaf()) {
+            nodes[offset + OFFSET] = node.start;
+            nodes[offset + COUNT] = node.count;
+            return index + 1;
+        }
+        int right = flatten(node.left, nodes, index + 1);
+        nodes[offset + OFFSET] = right;
+        nodes[offset + COUNT] = -(node.axis + 1);
+        return flatten(node.right, nodes, right);
+    }
+
+    // Recomputes the node bounds bottom up from the current bounds of the primitives, keeping the tree
+    // as it is. Meant for shapes that only moved since the build; not safe while rays are being traced.
+    // Primitives clipped by spatial splits get their whole box back, so such trees degrade faster.
+    public void refit() {
+        double[] boxes = new double[primitives.length * 6];
+        BvhBuilder.parallelFor(settings, primitives.length, i -> {
+            BoundingBox box = primitives[i].parentSpaceBounds();
+            boxes[i * 6] = box.min.x;
+            boxes[i * 6 + 1] = box.min.y;
+            boxes[i * 6 + 2] = box.min.z;
+            boxes[i * 6 + 3] = box.max.x;
+            boxes[i * 6 + 4] = box.max.y;
+            boxes[i * 6 + 5] = box.max.z;
+        });
+
+        if (wide != null) {
+            wide.refit(boxes);
+            return;
+        }
+
+        // children always come after their parent, so walking backwards visits them first
+        for (int offset = nodes.length - NODE_SIZE; offset >= 0; offset -= NODE_SIZE) {
+            BvhBuilder.resetBounds(nodes, offset);
+            int count = (int) nodes[offset + COUNT];
+            if (count > 0) {
+                int first = (int) nodes[offset + OFFSET];
+                for (int i = first; i < first + count; i++) {
+                    BvhBuilder.growBounds(nodes, offset, boxes, i * 6);
+                }
+            } else {
+                BvhBuilder.growBounds(nodes, offset, nodes, offset + NODE_SIZE);
+                BvhBuilder.growBounds(nodes, offset, nodes, (int) nodes[offset + OFFSET] * NODE_SIZE);
+            }
+        }
+    }
+
+    // surface area heuristic estimate of the cost of tracing a ray through the tree as it is now
+    public double cost() {
+        if (wide != null) {
+            return wide.cost(settings);
+        }
+        if (nodes.length == 0) {
+            return 0.0;
+        }
+        double rootArea = BvhBuilder.surfaceArea(nodes, 0);
+        if (rootArea <= 0.0) {
+            rootArea = 1.0;
+        }
+        double result = 0.0;
+        for (int offset = 0; offset < nodes.length; offset += NODE_SIZE) {
+            double probability = BvhBuilder.surfaceArea(nodes, offset) / rootArea;
+            int count = (int) nodes[offset + COUNT];
+            if (count > 0) {
+                result += probability * count * settings.intersectionCost;
+            } else {
+                result += probability * settings.traversalCost;
+            }
+        }
+        return result;
+    }
+
+    // how much worse the tree got through refits compared to when it was built; 1.0 means no worse
+    public double degradation() {
+        return stats.estimatedCost > 0.0 ? cost() / stats.estimatedCost : 1.0;
+    }
+
+    // refits the tree, and throws it away for a new build once it has degraded past the settings' threshold
+    @Override
+    public Bvh refitOrRebuild(List<Shape> shapes) {
+        refit();
+        if (degradation() > settings.rebuildThreshold) {
+            return bvh(shapes, settings);
+        }
+        return this;
+    }
+
+    private BvhStats computeStats(Node root) {
+        BvhStats result = new BvhStats();
+        result.primitives = primitives.length;
+        result.references = primitives.length;
+        if (root != null) {
+            collectStats(root, 1, result);
+        }
+        return result;
+    }
+
+    static void collectStats(Node node, int depth, BvhStats result) {
+        result.nodeCount++;
+        result.maxDepth = Math.max(result.maxDepth, depth);
+        if (node.isLeaf()) {
+            result.leafCount++;
+        } else {
+            collectStats(node.left, depth + 1, result);
+            collectStats(node.right, depth + 1, result);
+        }
+    }
+}
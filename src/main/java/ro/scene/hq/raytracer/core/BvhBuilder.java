@@ -0,0 +1,435 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+import static ro.scene.hq.raytracer.core.BoundingBox.bounding_box;
+import static ro.scene.hq.raytracer.core.Tuple.point;
+
+// Builds the node tree of a Bvh over primitive bounds given as flat arrays. The primitives are
+// never moved, only `order` is permuted so that every node covers a contiguous range of it.
+class BvhBuilder {
+    final BvhSettings settings;
+    final double[] boxes;     // minX, minY, minZ, maxX, maxY, maxZ for each primitive
+    final double[] centroids; // x, y, z for each primitive
+    // corners of the primitives that are triangles, used to clip them for spatial splits; may be null
+    final double[] triangles;
+    // covers every primitive once, or several times after spatial splits
+    int[] order;
+
+    BvhBuilder(double[] boxes, BvhSettings settings) {
+        this(boxes, null, settings);
+    }
+
+    BvhBuilder(double[] boxes, double[] triangles, BvhSettings settings) {
+        this.settings = settings;
+        this.boxes = boxes;
+        this.triangles = triangles;
+        int n = boxes.length / 6;
+        this.centroids = new double[n * 3];
+        this.order = new int[n];
+        parallelFor(settings, n, i -> {
+            order[i] = i;
+            centroids[i * 3] = (boxes[i * 6] + boxes[i * 6 + 3]) / 2.0;
+            centroids[i * 3 + 1] = (boxes[i * 6 + 1] + boxes[i * 6 + 4]) / 2.0;
+            centroids[i * 3 + 2] = (boxes[i * 6 + 2] + boxes[i * 6 + 5]) / 2.0;
+        });
+    }
+
+    long[] mortonCodes;
+
+    Bvh.Node build() {
+        if (order.length == 0) {
+            return null;
+        }
+        if (settings.spatialSplits && settings.split == BvhSettings.Split.SAH) {
+            SpatialSplitBuilder builder = new SpatialSplitBuilder(boxes, triangles, settings);
+            Bvh.Node root = builder.build();
+            order = builder.order;
+            return root;
+        }
+        boolean linear = settings.split == BvhSettings.Split.LBVH;
+        if (linear) {
+            sortByMortonCode();
+        }
+        if (order.length < settings.parallelThreshold) {
+            return linear ? buildLinear(0, order.length) : build(0, order.length);
+        }
+        return settings.pool.invoke(new BuildTask(0, order.length, linear));
+    }
+
+    // the two halves of a split cover disjoint ranges of `order`, so they can be built concurrently
+    private class BuildTask extends RecursiveTask<Bvh.Node> {
+        private final int start;
+        private final int end;
+        private final boolean linear;
+
+        BuildTask(int start, int end, boolean linear) {
+            this.start = start;
+            this.end = end;
+            this.linear = linear;
+        }
+
+        @Override
+        protected Bvh.Node compute() {
+            return linear ? buildLinear(start, end) : build(start, end);
+        }
+    }
+
+    Bvh.Node build(int start, int end) {
+        double[] bounds = emptyBounds();
+        double[] centroidBounds = emptyBounds();
+        for (int i = start; i < end; i++) {
+            int p = order[i];
+            growBounds(bounds, boxes, p * 6, p * 6 + 3);
+            growBounds(centroidBounds, centroids, p * 3, p * 3);
+        }
+
+        Bvh.Node node = new Bvh.Node(toBox(bounds));
+        node.start = start;
+        node.count = end - start;
+
+        int mid = settings.split == BvhSettings.Split.SAH
+                ? sahSplit(node, start, end, bounds, centroidBounds)
+                : medianSplit(node, start, end, centroidBounds);
+        if (mid < 0) {
+            return node;
+        }
+
+        if (end - start >= settings.parallelThreshold && ForkJoinTask.inForkJoinPool()) {
+            BuildTask left = new BuildTask(start, mid, false);
+            left.fork();
+            node.right = build(mid, end);
+            node.left = left.join();
+        } else {
+            node.left = build(start, mid);
+            node.right = build(mid, end);
+        }
+        node.count = 0;
+        return node;
+    }
+
+    void sortByMortonCode() {
+        int n = order.length;
+        double[] centroidBounds = emptyBounds();
+        for (int i = 0; i < n; i++) {
+            growBounds(centroidBounds, centroids, i * 3, i * 3);
+        }
+
+        int bitsPerAxis = settings.mortonBits / 3;
+        double cells = (double) ((1L << bitsPerAxis) - 1);
+        long[] codes = new long[n];
+        parallelFor(settings, n, i -> {
+            long x = quantize(centroids[i * 3], centroidBounds[0], centroidBounds[3], cells);
+            long y = quantize(centroids[i * 3 + 1], centroidBounds[1], centroidBounds[4], cells);
+            long z = quantize(centroids[i * 3 + 2], centroidBounds[2], centroidBounds[5], cells);
+            codes[i] = (spreadBits(x) << 2) | (spreadBits(y) << 1) | spreadBits(z);
+        });
+        RadixSort.sort(codes, order, bitsPerAxis * 3, settings);
+        mortonCodes = codes;
+    }
+
+    private static long quantize(double value, double min, double max, double cells) {
+        double extent = max - min;
+        return extent > 0.0 ? (long) ((value - min) / extent * cells) : 0L;
+    }
+
+    // inserts two zero bits between each of the lowest 21 bits of v
+    static long spreadBits(long v) {
+        v &= 0x1fffffL;
+        v = (v | v << 32) & 0x1f00000000ffffL;
+        v = (v | v << 16) & 0x1f0000ff0000ffL;
+        v = (v | v << 8) & 0x100f00f00f00f00fL;
+        v = (v | v << 4) & 0x10c30c30c30c30c3L;
+        v = (v | v << 2) & 0x1249249249249249L;
+        return v;
+    }
+
+    // Emits the hierarchy over primitives already sorted by morton code: every node splits where the
+    // highest bit that differs between its first and last code flips, so no bounds need to be looked at.
+    Bvh.Node buildLinear(int start, int end) {
+        int count = end - start;
+        long first = mortonCodes[start];
+        long last = mortonCodes[end - 1];
+
+        int mid;
+        int axis = 0;
+        if (count <= settings.maxLeafSize) {
+            mid = -1;
+        } else if (first == last) {
+            mid = (start + end) >>> 1;
+        } else {
+            int bit = 63 - Long.numberOfLeadingZeros(first ^ last);
+            // bits are interleaved as x, y, z from the most significant one down
+            axis = 2 - bit % 3;
+            int lo = start;
+            int hi = end - 1;
+            while (lo < hi) {
+                int m = (lo + hi) >>> 1;
+                if (((mortonCodes[m] >>> bit) & 1L) != 0) {
+                    hi = m;
+                } else {
+                    lo = m + 1;
+                }
+            }
+            mid = lo;
+        }
+
+        if (mid < 0) {
+            double[] bounds = emptyBounds();
+            for (int i = start; i < end; i++) {
+                growBounds(bounds, 0, boxes, order[i] * 6);
+            }
+            Bvh.Node leaf = new Bvh.Node(toBox(bounds));
+            leaf.start = start;
+            leaf.count = count;
+            return leaf;
+        }
+
+        Bvh.Node left;
+        Bvh.Node right;
+        if (count >= settings.parallelThreshold && ForkJoinTask.inForkJoinPool()) {
+            BuildTask leftTask = new BuildTask(start, mid, true);
+            leftTask.fork();
+            right = buildLinear(mid, end);
+            left = leftTask.join();
+        } else {
+            left = buildLinear(start, mid);
+            right = buildLinear(mid, end);
+        }
+
+        BoundingBox bounds = bounding_box();
+        bounds.add(left.bounds);
+        bounds.add(right.bounds);
+        Bvh.Node node = new Bvh.Node(bounds);
+        node.left = left;
+        node.right = right;
+        node.start = start;
+        node.axis = axis;
+        return node;
+    }
+
+    static BoundingBox toBox(double[] bounds) {
+        return bounding_box(point(bounds[0], bounds[1], bounds[2]), point(bounds[3], bounds[4], bounds[5]));
+    }
+
+    // returns the index where the range gets split, or -1 if the node should stay a leaf
+    int medianSplit(Bvh.Node node, int start, int end, double[] centroidBounds) {
+        if (end - start <= settings.maxLeafSize) {
+            return -1;
+        }
+        node.axis = widestAxis(centroidBounds);
+        int mid = (start + end) >>> 1;
+        select(start, end, mid, node.axis);
+        return mid;
+    }
+
+    int sahSplit(Bvh.Node node, int start, int end, double[] bounds, double[] centroidBounds) {
+        int count = end - start;
+        if (count == 1) {
+            return -1;
+        }
+
+        int binCount = settings.binCount;
+        int[] binCounts = new int[binCount];
+        double[] binBounds = new double[binCount * 6];
+        double[] rightAreas = new double[binCount];
+        double nodeArea = surfaceArea(bounds, 0);
+
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestBin = -1;
+        for (int axis = 0; axis < 3; axis++) {
+            double cmin = centroidBounds[axis];
+            double extent = centroidBounds[axis + 3] - cmin;
+            if (extent <= 0.0) {
+                continue;
+            }
+
+            Arrays.fill(binCounts, 0);
+            for (int b = 0; b < binCount; b++) {
+                resetBounds(binBounds, b * 6);
+            }
+            for (int i = start; i < end; i++) {
+                int p = order[i];
+                int b = binIndex(centroids[p * 3 + axis], cmin, extent);
+                binCounts[b]++;
+                growBounds(binBounds, b * 6, boxes, p * 6);
+            }
+
+            // sweep from the right to get the area of every right hand side
+            double[] acc = emptyBounds();
+            for (int b = binCount - 1; b > 0; b--) {
+                growBounds(acc, 0, binBounds, b * 6);
+                rightAreas[b] = surfaceArea(acc, 0);
+            }
+
+            // and from the left to evaluate every split plane between bin b and b + 1
+            acc = emptyBounds();
+            int leftCount = 0;
+            for (int b = 0; b < binCount - 1; b++) {
+                growBounds(acc, 0, binBounds, b * 6);
+                leftCount += binCounts[b];
+                int rightCount = count - leftCount;
+                if (leftCount == 0 || rightCount == 0) {
+                    continue;
+                }
+                double cost = settings.traversalCost + settings.intersectionCost *
+                        (surfaceArea(acc, 0) * leftCount + rightAreas[b + 1] * rightCount) / nodeArea;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = b;
+                }
+            }
+        }
+
+        double leafCost = settings.intersectionCost * count;
+        if (bestAxis < 0 || (bestCost >= leafCost && count <= settings.maxLeafSize)) {
+            // all centroids in the same spot can't be binned, so fall back to splitting in the middle
+            return bestAxis < 0 ? medianSplit(node, start, end, centroidBounds) : -1;
+        }
+
+        node.axis = bestAxis;
+        double cmin = centroidBounds[bestAxis];
+        double extent = centroidBounds[bestAxis + 3] - cmin;
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (binIndex(centroids[order[i] * 3 + bestAxis], cmin, extent) <= bestBin) {
+                i++;
+            } else {
+                swap(i, j);
+                j--;
+            }
+        }
+        return i;
+    }
+
+    private int binIndex(double centroid, double cmin, double extent) {
+        int b = (int) (settings.binCount * ((centroid - cmin) / extent));
+        return Math.min(b, settings.binCount - 1);
+    }
+
+    // quickselect: moves the primitive with the nth smallest centroid on `axis` to position nth,
+    // with smaller ones before it and bigger ones after it
+    void select(int start, int end, int nth, int axis) {
+        int lo = start;
+        int hi = end - 1;
+        while (lo < hi) {
+            double pivot = centroids[order[(lo + hi) >>> 1] * 3 + axis];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (centroids[order[i] * 3 + axis] < pivot) i++;
+                while (centroids[order[j] * 3 + axis] > pivot) j--;
+                if (i <= j) {
+                    swap(i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j) {
+                hi = j;
+            } else if (nth >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+    }
+
+    // runs body for every index in [0, n), spread over the settings' pool when n is big enough
+    static void parallelFor(BvhSettings settings, int n, IntConsumer body) {
+        if (n < settings.parallelThreshold) {
+            for (int i = 0; i < n; i++) {
+                body.accept(i);
+            }
+        } else {
+            settings.pool.invoke(new ForAction(0, n, Math.max(settings.parallelThreshold / 4, 256), body));
+        }
+    }
+
+    static class ForAction extends RecursiveAction {
+        private final int start;
+        private final int end;
+        private final int grain;
+        private final IntConsumer body;
+
+        ForAction(int start, int end, int grain, IntConsumer body) {
+            this.start = start;
+            this.end = end;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start <= grain) {
+                for (int i = start; i < end; i++) {
+                    body.accept(i);
+                }
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new ForAction(start, mid, grain, body), new ForAction(mid, end, grain, body));
+            }
+        }
+    }
+
+    static int widestAxis(double[] bounds) {
+        double dx = bounds[3] - bounds[0];
+        double dy = bounds[4] - bounds[1];
+        double dz = bounds[5] - bounds[2];
+        if (dx >= dy && dx >= dz) {
+            return 0;
+        }
+        return dy >= dz ? 1 : 2;
+    }
+
+    static double[] emptyBounds() {
+        double[] bounds = new double[6];
+        resetBounds(bounds, 0);
+        return bounds;
+    }
+
+    static void resetBounds(double[] bounds, int offset) {
+        bounds[offset] = bounds[offset + 1] = bounds[offset + 2] = Double.POSITIVE_INFINITY;
+        bounds[offset + 3] = bounds[offset + 4] = bounds[offset + 5] = Double.NEGATIVE_INFINITY;
+    }
+
+    // grows bounds by the box starting at `offset` in `source`
+    static void growBounds(double[] bounds, int boundsOffset, double[] source, int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[boundsOffset + axis] = Math.min(bounds[boundsOffset + axis], source[offset + axis]);
+            bounds[boundsOffset + axis + 3] = Math.max(bounds[boundsOffset + axis + 3], source[offset + axis + 3]);
+        }
+    }
+
+    // grows bounds by the min point at `minOffset` and the max point at `maxOffset` in `source`
+    static void growBounds(double[] bounds, double[] source, int minOffset, int maxOffset) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[axis] = Math.min(bounds[axis], source[minOffset + axis]);
+            bounds[axis + 3] = Math.max(bounds[axis + 3], source[maxOffset + axis]);
+        }
+    }
+
+    static double surfaceArea(double[] bounds, int offset) {
+        double dx = bounds[offset + 3] - bounds[offset];
+        double dy = bounds[offset + 4] - bounds[offset + 1];
+        double dz = bounds[offset + 5] - bounds[offset + 2];
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0.0;
+        }
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+}
@@ -0,0 +1,328 @@
+package ro.scene.hq.raytracer.core;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ro.scene.hq.raytracer.core.Group.group;
+import static ro.scene.hq.raytracer.core.Tuple.point;
+
+/**
+ * Keeps the groups parsed from OBJ files, together with their Bvh, in binary files so that loading the same
+ * file again skips both parsing and building. Cache files are named after a hash of the OBJ file's content
+ * and of the build settings, and are read back through a memory mapped buffer.
+ */
+public class BvhCache {
+    private static final int MAGIC = 0x52544256; // "RTBV"
+    private static final int VERSION = 1;
+    private static final byte TRIANGLE = 0;
+    private static final byte GROUP = 1;
+
+    public final Path directory;
+    public int hits;
+    public int misses;
+
+    public BvhCache(Path directory) {
+        this.directory = directory;
+    }
+
+    public static BvhCache bvh_cache(String directory) {
+        return new BvhCache(Paths.get(directory));
+    }
+
+    public Group load(String filename) throws IOException {
+        return load(filename, BvhSettings.bvh_settings());
+    }
+
+    // the group of the OBJ file with its Bvh built, from the cache if it has been loaded with the same
+    // settings before; the cache file gets (re)written otherwise
+    public Group load(String filename, BvhSettings settings) throws IOException {
+        String key = contentHash(Paths.get(filename)) + " " + settingsKey(settings);
+        Path file = directory.resolve(hash(key.getBytes(StandardCharsets.UTF_8)) + ".bvh");
+        if (Files.exists(file)) {
+            Group cached = read(file, key, settings);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+        }
+
+        misses++;
+        Group g = ObjParser.parse(filename).toGroup();
+        g.buildBvh(settings);
+        Files.createDirectories(directory);
+        // written next to its final place first, so that no other reader ever sees half of it
+        Path temporary = Files.createTempFile(directory, "bvh", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            write(g, key, out);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        return g;
+    }
+
+    static String settingsKey(BvhSettings settings) {
+        return settings.split + "/" + settings.binCount + "/" + settings.maxLeafSize + "/" + settings.width +
+                "/" + settings.traversalCost + "/" + settings.intersectionCost + "/" + settings.mortonBits +
+                "/" + settings.spatialSplits + "/" + settings.maxReferenceGrowth;
+    }
+
+    private static String contentHash(Path path) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[1 << 16];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hash(byte[] bytes) {
+        return hex(sha256().digest(bytes));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform has to support it
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder result = new StringBuilder();
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b));
+        }
+        return result.toString();
+    }
+
+    // Layout: magic, version, key, then the groups in depth first order (the root first). A group has its
+    // name, its children (triangles as 9 coordinates, subgroups as their index) and its Bvh, which refers
+    // to the children by their position in the group.
+    static void write(Group root, String key, OutputStream stream) throws IOException {
+        List<Group> groups = new ArrayList<>();
+        collectGroups(root, groups);
+        Map<Group, Integer> indices = new IdentityHashMap<>();
+        for (int i = 0; i < groups.size(); i++) {
+            indices.put(groups.get(i), i);
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(out, key);
+        out.writeInt(groups.size());
+        for (Group g : groups) {
+            writeString(out, g.name);
+            Map<Shape, Integer> positions = new IdentityHashMap<>();
+            out.writeInt(g.shapes.size());
+            for (Shape s : g.shapes) {
+                positions.put(s, positions.size());
+                if (s instanceof Triangle) {
+                    Triangle t = (Triangle) s;
+                    out.writeByte(TRIANGLE);
+                    for (Tuple p : new Tuple[]{t.p1, t.p2, t.p3}) {
+                        out.writeDouble(p.x);
+                        out.writeDouble(p.y);
+                        out.writeDouble(p.z);
+                    }
+                } else if (s instanceof Group) {
+                    out.writeByte(GROUP);
+                    out.writeInt(indices.get(s));
+                } else {
+                    throw new IllegalArgumentException("Only triangles and groups can be cached, not " + s);
+                }
+            }
+
+            Bvh bvh = (Bvh) g.accelerator;
+            BvhStats stats = bvh.stats;
+            out.writeInt(stats.primitives);
+            out.writeInt(stats.references);
+            out.writeInt(stats.nodeCount);
+            out.writeInt(stats.leafCount);
+            out.writeInt(stats.maxDepth);
+            out.writeDouble(stats.estimatedCost);
+            out.writeInt(bvh.primitives.length);
+            for (Shape s : bvh.primitives) {
+                out.writeInt(positions.get(s));
+            }
+            writeInts(out, bvh.primitiveIds);
+            out.writeInt(bvh.unbounded.size());
+            for (Shape s : bvh.unbounded) {
+                out.writeInt(positions.get(s));
+            }
+            if (bvh.wide == null) {
+                out.writeInt(2);
+                writeDoubles(out, bvh.nodes);
+            } else {
+                WideNodes wide = bvh.wide;
+                out.writeInt(wide.width);
+                out.writeInt(wide.nodeCount);
+                out.writeInt(wide.leafCount);
+                out.writeInt(wide.maxDepth);
+                writeDoubles(out, wide.bounds);
+                writeInts(out, wide.children);
+                writeInts(out, wide.counts);
+            }
+        }
+        out.flush();
+    }
+
+    private static void collectGroups(Group g, List<Group> groups) {
+        groups.add(g);
+        for (Shape s : g.shapes) {
+            if (s instanceof Group) {
+                collectGroups((Group) s, groups);
+            }
+        }
+    }
+
+    // returns null when the file isn't a cache for `key`, so that it gets rebuilt
+    static Group read(Path file, String key, BvhSettings settings) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || !key.equals(readString(in))) {
+                return null;
+            }
+
+            int groupCount = in.getInt();
+            Group[] groups = new Group[groupCount];
+            for (int i = 0; i < groupCount; i++) {
+                groups[i] = group();
+            }
+            double[] corners = new double[9];
+            for (Group g : groups) {
+                g.name = readString(in);
+                int childCount = in.getInt();
+                Shape[] children = new Shape[childCount];
+                for (int c = 0; c < childCount; c++) {
+                    if (in.get() == TRIANGLE) {
+                        in.asDoubleBuffer().get(corners);
+                        in.position(in.position() + corners.length * 8);
+                        children[c] = new Triangle(
+                                point(corners[0], corners[1], corners[2]),
+                                point(corners[3], corners[4], corners[5]),
+                                point(corners[6], corners[7], corners[8]));
+                    } else {
+                        children[c] = groups[in.getInt()];
+                    }
+                    g.add(children[c]);
+                }
+
+                BvhStats stats = new BvhStats();
+                stats.primitives = in.getInt();
+                stats.references = in.getInt();
+                stats.nodeCount = in.getInt();
+                stats.leafCount = in.getInt();
+                stats.maxDepth = in.getInt();
+                stats.estimatedCost = in.getDouble();
+                Shape[] primitives = new Shape[in.getInt()];
+                for (int p = 0; p < primitives.length; p++) {
+                    primitives[p] = children[in.getInt()];
+                }
+                int[] primitiveIds = readInts(in);
+                List<Shape> unbounded = new ArrayList<>();
+                int unboundedCount = in.getInt();
+                for (int u = 0; u < unboundedCount; u++) {
+                    unbounded.add(children[in.getInt()]);
+                }
+                int width = in.getInt();
+                if (width == 2) {
+                    double[] nodes = readDoubles(in);
+                    g.accelerator = new Bvh(settings, stats, nodes, null, primitives, primitiveIds, unbounded);
+                } else {
+                    int nodeCount = in.getInt();
+                    int leafCount = in.getInt();
+                    int maxDepth = in.getInt();
+                    WideNodes wide = new WideNodes(width, readDoubles(in), readInts(in), readInts(in),
+                            nodeCount, leafCount, maxDepth);
+                    g.accelerator = new Bvh(settings, stats, new double[0], wide, primitives, primitiveIds, unbounded);
+                }
+            }
+            return groups[0];
+        } catch (RuntimeException e) {
+            // a truncated or otherwise damaged file
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double v : values) {
+            out.writeDouble(v);
+        }
+    }
+
+    private static double[] readDoubles(ByteBuffer in) {
+        double[] result = new double[in.getInt()];
+        in.asDoubleBuffer().get(result);
+        in.position(in.position() + result.length * 8);
+        return result;
+    }
+
+    // null arrays are written with a length of -1
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (int v : values) {
+            out.writeInt(v);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        int[] result = new int[length];
+        in.asIntBuffer().get(result);
+        in.position(in.position() + length * 4);
+        return result;
+    }
+}
@@ -0,0 +1,87 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class BvhSettings {
+    public enum Split {
+        MEDIAN,
+        SAH,
+        // linear bvh: primitives sorted along a morton curve, much faster to build than SAH
+        LBVH
+    }
+
+    public Split split = Split.SAH;
+    public int binCount = 12;
+    public int maxLeafSize = 4;
+    // children per node in the traversed tree: 2, or 4 / 8 for a wide layout testing all children at once
+    public int width = 2;
+    // SAH builds only: also consider splitting space itself, letting a primitive straddling the plane
+    // be referenced from both sides. Helps with long thin triangles, at the price of more references
+    // (at most maxReferenceGrowth times the primitive count) and of a sequential build.
+    public boolean spatialSplits = false;
+    public double maxReferenceGrowth = 1.3;
+    // relative costs used by the surface area heuristic and by the estimated cost in BvhStats
+    public double traversalCost = 1.0;
+    public double intersectionCost = 1.0;
+    // length of the morton codes used by LBVH builds: 30 (10 bits per axis) or 63 (21 bits per axis)
+    public int mortonBits = 30;
+    // a refitted tree whose estimated cost grew by more than this factor gets rebuilt from scratch
+    public double rebuildThreshold = 1.5;
+    // subtrees with fewer primitives than this are built sequentially on the current thread
+    public int parallelThreshold = 4096;
+    public ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public static BvhSettings bvh_settings() {
+        return new BvhSettings();
+    }
+
+    public static BvhSettings sequential() {
+        BvhSettings settings = new BvhSettings();
+        settings.parallelThreshold = Integer.MAX_VALUE;
+        return settings;
+    }
+
+    public static BvhSettings median_split() {
+        BvhSettings settings = new BvhSettings();
+        settings.split = Split.MEDIAN;
+        return settings;
+    }
+
+    public static BvhSettings lbvh() {
+        BvhSettings settings = new BvhSettings();
+        settings.split = Split.LBVH;
+        return settings;
+    }
+
+    public static BvhSettings lbvh(int mortonBits) {
+        BvhSettings settings = lbvh();
+        settings.mortonBits = mortonBits;
+        return settings;
+    }
+
+    public static BvhSettings wide(int width) {
+        BvhSettings settings = new BvhSettings();
+        settings.width = width;
+        return settings;
+    }
+
+    public static BvhSettings sbvh() {
+        BvhSettings settings = new BvhSettings();
+        settings.spatialSplits = true;
+        return settings;
+    }
+
+    public static BvhSettings sbvh(double maxReferenceGrowth) {
+        BvhSettings settings = sbvh();
+        settings.maxReferenceGrowth = maxReferenceGrowth;
+        return settings;
+    }
+
+    public static BvhSettings sah(int binCount, int maxLeafSize) {
+        BvhSettings settings = new BvhSettings();
+        settings.split = Split.SAH;
+        settings.binCount = binCount;
+        settings.maxLeafSize = maxLeafSize;
+        return settings;
+    }
+}
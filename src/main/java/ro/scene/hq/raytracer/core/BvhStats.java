@@ -0,0 +1,24 @@
+package ro.scene.hq.raytracer.core;
+
+public class BvhStats {
+    public int primitives;
+    // primitives referenced from the leaves, more than `primitives` when spatial splits were used
+    public int references;
+    public int nodeCount;
+    public int leafCount;
+    public int maxDepth;
+    // expected cost of tracing a ray through the tree, relative to the cost of one primitive test
+    public double estimatedCost;
+
+    @Override
+    public String toString() {
+        return "BvhStats{" +
+                "primitives=" + primitives +
+                ", references=" + references +
+                ", nodeCount=" + nodeCount +
+                ", leafCount=" + leafCount +
+                ", maxDepth=" + maxDepth +
+                ", estimatedCost=" + estimatedCost +
+                '}';
+    }
+}
@@ -4,7 +4,6 @@ import java.util.Random;
 import java.util.stream.IntStream;
 
 import static ro.scene.hq.raytracer.core.Canvas.canvas;
-import static ro.scene.hq.raytracer.core.Matrix.inverse;
 import static ro.scene.hq.raytracer.core.Ray.ray;
 import static ro.scene.hq.raytracer.core.Tuple.*;
 import static ro.scene.hq.raytracer.core.World.color_at;
@@ -15,6 +14,8 @@ public class Camera {
     public final int vsize;
     public final double fov;
     public Matrix transform;
+    // computed again whenever `transform` is given another matrix
+    private Inverses inverses;
     public double pixelSize;
     public double halfWidth;
     public double halfHeight;
@@ -41,6 +42,12 @@ public class Camera {
         return new Camera(hsize, vsize, fov);
     }
 
+    public Affine inverseTransform() {
+        Inverses current = Inverses.of(transform, inverses);
+        inverses = current;
+        return current.inverse;
+    }
+
     public static Ray ray_for_pixel(Camera c, int px, int py) {
         return ray_for_pixel(c, px, py, 0, 0);
     }
@@ -58,56 +65,96 @@ public class Camera {
         // using the camera matrix, transform the canvas point and the origin,
         // and then compute the ray's direction vector.
         // (remember that the canvas is at z=-1)
-        Tuple pixel = inverse(c.transform).mul(point(world_x, world_y, -1));
-        Tuple origin = inverse(c.transform).mul(point(0, 0, 0));
+        Affine inverse = c.inverseTransform();
+        Tuple pixel = inverse.transformPoint(point(world_x, world_y, -1));
+        Tuple origin = inverse.transformPoint(point(0, 0, 0));
         Tuple direction = normalize(pixel.sub(origin));
         return ray(origin, direction);
     }
 
+    // ray_for_pixel for the centers of a whole row of pixels, transformed and normalized in batches
+    public static Ray[] rays_for_row(Camera c, int py) {
+        int count = c.hsize;
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        double[] zs = new double[count];
+        double world_y = c.halfHeight - (py + 0.5) * c.pixelSize;
+        for (int px = 0; px < count; px++) {
+            xs[px] = c.halfWidth - (px + 0.5) * c.pixelSize;
+            ys[px] = world_y;
+            zs[px] = -1;
+        }
+
+        Affine inverse = c.inverseTransform();
+        Tuple origin = inverse.transformPoint(point(0, 0, 0));
+        VectorKernels kernels = VectorKernels.kernels();
+        kernels.transformPoints(inverse, xs, ys, zs, count);
+        kernels.directionsFrom(origin.x, origin.y, origin.z, xs, ys, zs, count);
+
+        Ray[] rays = new Ray[count];
+        for (int px = 0; px < count; px++) {
+            rays[px] = ray(origin, vector(xs[px], ys[px], zs[px]));
+        }
+        return rays;
+    }
+
     private static final int RAYS_PER_PIXEL = 1;
 
     public static Canvas render(Camera c, World w) {
         Random rnd = new Random();
         Canvas image = canvas(c.hsize, c.vsize);
-        for (int y = 0; y < c.vsize; y++) {
-            final int yy = y;
-            IntStream.range(0, c.hsize).parallel().forEach(x -> {
-
-                Tuple finalColor = color(0, 0, 0);
-                for (int i = 0; i < RAYS_PER_PIXEL; i++) {
-                    if (RAYS_PER_PIXEL == 1) {
-                        Ray ray = ray_for_pixel(c, x, yy);
-                        finalColor = finalColor.add(color_at(w, ray, 5));
-                    } else {
-                        Ray ray = ray_for_pixel(c, x, yy, rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5);
-                        finalColor = finalColor.add(color_at(w, ray, 5));
+        // a world the caller froze stays frozen; otherwise it is frozen for the frame only, so that the
+        // scene can be changed again afterwards
+        boolean freezing = !w.isFrozen();
+        if (freezing) {
+            w.freeze();
+        }
+        w.shadowCache.clear();
+        try {
+            for (int y = 0; y < c.vsize; y++) {
+                final int yy = y;
+                final Ray[] rays = RAYS_PER_PIXEL == 1 ? rays_for_row(c, y) : null;
+                IntStream.range(0, c.hsize).parallel().forEach(x -> {
+
+                    Tuple finalColor = color(0, 0, 0);
+                    for (int i = 0; i < RAYS_PER_PIXEL; i++) {
+                        if (RAYS_PER_PIXEL == 1) {
+                            finalColor.addInto(color_at(w, rays[x], 5), finalColor);
+                        } else {
+                            Ray ray = ray_for_pixel(c, x, yy, rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5);
+                            finalColor.addInto(color_at(w, ray, 5), finalColor);
+                        }
                     }
-                }
 
-//                ray = ray_for_pixel(c, x, yy, -0.5, -0.5);
-//                finalColor = finalColor.add(color_at(w, ray, 5));
+//                    ray = ray_for_pixel(c, x, yy, -0.5, -0.5);
+//                    finalColor = finalColor.add(color_at(w, ray, 5));
 //
-//                ray = ray_for_pixel(c, x, yy, 0.5, -0.5);
-//                finalColor = finalColor.add(color_at(w, ray, 5));
+//                    ray = ray_for_pixel(c, x, yy, 0.5, -0.5);
+//                    finalColor = finalColor.add(color_at(w, ray, 5));
 //
-//                ray = ray_for_pixel(c, x, yy, -0.5, 0.5);
-//                finalColor = finalColor.add(color_at(w, ray, 5));
+//                    ray = ray_for_pixel(c, x, yy, -0.5, 0.5);
+//                    finalColor = finalColor.add(color_at(w, ray, 5));
 //
-//                ray = ray_for_pixel(c, x, yy, 0.5, 0.5);
-//                finalColor = finalColor.add(color_at(w, ray, 5));
+//                    ray = ray_for_pixel(c, x, yy, 0.5, 0.5);
+//                    finalColor = finalColor.add(color_at(w, ray, 5));
 //
-//                ray = ray_for_pixel(c, x, yy, 0, 0);
-//                finalColor = finalColor.add(color_at(w, ray, 5));
-
-                finalColor = finalColor.div(RAYS_PER_PIXEL);
-
-                image.writePixel(x, yy, finalColor);
-            });
-//            for (int x = 0; x < c.hsize; x++) {
-//                Ray ray = ray_for_pixel(c, x, y);
-//                Tuple color = color_at(w, ray);
-//                image.writePixel(x, y, color);
-//            }
+//                    ray = ray_for_pixel(c, x, yy, 0, 0);
+//                    finalColor = finalColor.add(color_at(w, ray, 5));
+
+                    finalColor = finalColor.div(RAYS_PER_PIXEL);
+
+                    image.writePixel(x, yy, finalColor);
+                });
+//                for (int x = 0; x < c.hsize; x++) {
+//                    Ray ray = ray_for_pixel(c, x, y);
+//                    Tuple color = color_at(w, ray);
+//                    image.writePixel(x, y, color);
+//                }
+            }
+        } finally {
+            if (freezing) {
+                w.unfreeze();
+            }
         }
         return image;
     }
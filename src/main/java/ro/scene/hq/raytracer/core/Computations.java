@@ -5,7 +5,7 @@ import java.util.List;
 import java.util.Optional;
 
 import static ro.scene.hq.raytracer.core.Intersection.hit;
-import static ro.scene.hq.raytracer.core.Sphere.normal_at;
+import static ro.scene.hq.raytracer.core.Shape.normal_at;
 import static ro.scene.hq.raytracer.core.Tuple.*;
 
 public class Computations {
@@ -27,18 +27,18 @@ public class Computations {
         comps.object = i.object;
         comps.point = Ray.position(r, i.t);
         comps.eyev = r.direction.neg();
-        comps.normalv = normal_at(comps.object, comps.point);
+        comps.normalv = normal_at(comps.object, comps.point, i);
 
         if (dot(comps.normalv, comps.eyev) < 0) {
             comps.inside = true;
-            comps.normalv = comps.normalv.neg();
+            comps.normalv.negInto(comps.normalv);
         } else {
             comps.inside = false;
         }
 
-        comps.over_point = comps.point.add(comps.normalv.mul(EPSILON));
-        comps.under_point = comps.point.sub(comps.normalv.mul(EPSILON));
-        comps.reflectv = reflect(r.direction, comps.normalv);
+        comps.over_point = comps.point.addScaledInto(comps.normalv, EPSILON, point(0, 0, 0));
+        comps.under_point = comps.point.addScaledInto(comps.normalv, -EPSILON, point(0, 0, 0));
+        comps.reflectv = reflectInto(r.direction, comps.normalv, vector(0, 0, 0));
 
         List<Shape> containers = new ArrayList<>(xs.size());
         for (Intersection intersection : xs) {
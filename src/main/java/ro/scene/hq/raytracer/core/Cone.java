@@ -58,6 +58,15 @@ public class Cone extends Shape {
         return xs;
     }
 
+    @Override
+    public BoundingBox bounds() {
+        double min = BoundingBox.extent(minimum);
+        double max = BoundingBox.extent(maximum);
+        // the radius at any height is the distance from the apex
+        double radius = Math.max(Math.abs(min), Math.abs(max));
+        return BoundingBox.bounding_box(point(-radius, min, -radius), point(radius, max, radius));
+    }
+
     @Override
     protected Tuple localNormalAt(Tuple localPoint) {
         double dist = localPoint.x * localPoint.x + localPoint.z * localPoint.z;
@@ -59,6 +59,11 @@ public class Cube extends Shape {
         }
     }
 
+    @Override
+    public BoundingBox bounds() {
+        return BoundingBox.bounding_box(point(-1, -1, -1), point(1, 1, 1));
+    }
+
     @Override
     protected Tuple localNormalAt(Tuple localPoint) {
         double maxc = Math.max(Math.max(Math.abs(localPoint.x), Math.abs(localPoint.y)), Math.abs(localPoint.z));
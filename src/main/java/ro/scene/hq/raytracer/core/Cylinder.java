@@ -54,6 +54,13 @@ public class Cylinder extends Shape {
         return xs;
     }
 
+    @Override
+    public BoundingBox bounds() {
+        return BoundingBox.bounding_box(
+                point(-1, BoundingBox.extent(minimum), -1),
+                point(1, BoundingBox.extent(maximum), 1));
+    }
+
     @Override
     protected Tuple localNormalAt(Tuple localPoint) {
         double dist = localPoint.x * localPoint.x + localPoint.z * localPoint.z;
@@ -0,0 +1,101 @@
+package ro.scene.hq.raytracer.core;
+
+/**
+ * Copy of a Mesh with its vertices and Bvh bounds stored as floats, for mesh heavy scenes where memory and
+ * memory bandwidth matter more than the last digits of the geometry. The surface is the one described by
+ * the rounded vertices; node bounds are rounded outwards, so they still hold it and no hit gets lost.
+ * The arithmetic stays in double precision.
+ */
+public class FloatMesh extends AbstractMesh {
+    final float[] vertices; // x, y, z for each vertex
+    final int[] indices;    // three vertex indices for each face
+    // Bvh of the mesh: six bounds per node, and the offset and count of Bvh.nodes for each in `links`
+    final float[] bounds;
+    final int[] links;
+    final int[] faces;
+
+    public FloatMesh(Mesh mesh) {
+        vertices = new float[mesh.vertices.length];
+        for (int i = 0; i < vertices.length; i++) {
+            vertices[i] = (float) mesh.vertices[i];
+        }
+        indices = mesh.indices;
+        faces = mesh.faces;
+
+        int nodeCount = mesh.nodes.length / Bvh.NODE_SIZE;
+        bounds = new float[nodeCount * 6];
+        links = new int[nodeCount * 2];
+        for (int node = 0; node < nodeCount; node++) {
+            int offset = node * Bvh.NODE_SIZE;
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[node * 6 + axis] = roundDown(mesh.nodes[offset + axis]);
+                bounds[node * 6 + axis + 3] = roundUp(mesh.nodes[offset + axis + 3]);
+            }
+            links[node * 2] = (int) mesh.nodes[offset + Bvh.OFFSET];
+            links[node * 2 + 1] = (int) mesh.nodes[offset + Bvh.COUNT];
+        }
+    }
+
+    public static FloatMesh float_mesh(Mesh mesh) {
+        return new FloatMesh(mesh);
+    }
+
+    // the largest float not above value: rounding a vertex that is not below value can't go below it
+    static float roundDown(double value) {
+        float result = (float) value;
+        return result > value ? Math.nextDown(result) : result;
+    }
+
+    static float roundUp(double value) {
+        float result = (float) value;
+        return result < value ? Math.nextUp(result) : result;
+    }
+
+    public int vertexCount() {
+        return vertices.length / 3;
+    }
+
+    public int faceCount() {
+        return indices.length / 3;
+    }
+
+    // bytes taken by the vertices, the faces and the Bvh
+    public long sizeInBytes() {
+        return vertices.length * 4L + indices.length * 4L + bounds.length * 4L + links.length * 4L + faces.length * 4L;
+    }
+
+    @Override
+    int nodeCount() {
+        return links.length / 2;
+    }
+
+    @Override
+    double bound(int node, int i) {
+        return bounds[node * 6 + i];
+    }
+
+    @Override
+    int link(int node) {
+        return links[node * 2];
+    }
+
+    @Override
+    int count(int node) {
+        return links[node * 2 + 1];
+    }
+
+    @Override
+    int face(int i) {
+        return faces[i];
+    }
+
+    @Override
+    int index(int i) {
+        return indices[i];
+    }
+
+    @Override
+    double coordinate(int i) {
+        return vertices[i];
+    }
+}
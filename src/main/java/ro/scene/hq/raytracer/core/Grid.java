@@ -0,0 +1,436 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import static ro.scene.hq.raytracer.core.BoundingBox.bounding_box;
+import static ro.scene.hq.raytracer.core.Tuple.point;
+
+/**
+ * Uniform grid over a list of shapes living in the same (parent) space, walked cell by cell with a 3D-DDA.
+ * Works best for lots of objects of about the same size spread over the scene, like particles, where it
+ * is quicker to build and to walk than a tree. With two level grids, crowded cells get a finer grid of
+ * their own. Shapes without finite bounds are kept aside and tested on every ray.
+ */
+public class Grid implements Accelerator {
+    // one level of the grid: the objects overlapping each cell, and the finer grids of crowded cells
+    static class Level {
+        final double[] bounds;
+        final int[] resolution;
+        final double[] cellSize = new double[3];
+        int[] cellStart; // objects of cell c are items[cellStart[c], cellStart[c + 1])
+        int[] items;
+        Level[] subgrids;
+
+        Level(double[] bounds, int[] resolution) {
+            this.bounds = bounds;
+            this.resolution = resolution;
+            for (int axis = 0; axis < 3; axis++) {
+                cellSize[axis] = (bounds[axis + 3] - bounds[axis]) / resolution[axis];
+            }
+        }
+
+        int cellCount() {
+            return resolution[0] * resolution[1] * resolution[2];
+        }
+
+        int cell(int axis, double position) {
+            if (cellSize[axis] <= 0.0) {
+                return 0;
+            }
+            int c = (int) Math.floor((position - bounds[axis]) / cellSize[axis]);
+            return Math.max(0, Math.min(c, resolution[axis] - 1));
+        }
+
+        // bounds of cell (x, y, z)
+        double[] cellBounds(int x, int y, int z) {
+            int[] c = {x, y, z};
+            double[] result = new double[6];
+            for (int axis = 0; axis < 3; axis++) {
+                result[axis] = bounds[axis] + c[axis] * cellSize[axis];
+                result[axis + 3] = c[axis] == resolution[axis] - 1
+                        ? bounds[axis + 3]
+                        : bounds[axis] + (c[axis] + 1) * cellSize[axis];
+            }
+            return result;
+        }
+    }
+
+    public final GridSettings settings;
+    final Level root;
+    final Shape[] primitives;
+    final List<Shape> unbounded = new ArrayList<>();
+    private final ThreadLocal<Bvh.Mailbox> mailboxes;
+    // a two level grid nests one level in another
+    private final ThreadLocal<Dda[]> ddas = ThreadLocal.withInitial(() -> new Dda[]{new Dda(), new Dda()});
+
+    private Grid(List<Shape> shapes, GridSettings settings) {
+        this.settings = settings;
+        List<Shape> bounded = new ArrayList<>(shapes.size());
+        List<BoundingBox> boxes = new ArrayList<>(shapes.size());
+        for (Shape s : shapes) {
+            BoundingBox box = s.parentSpaceBounds();
+            if (box.isFinite()) {
+                bounded.add(s);
+                boxes.add(box);
+            } else {
+                unbounded.add(s);
+            }
+        }
+        primitives = bounded.toArray(new Shape[0]);
+        mailboxes = ThreadLocal.withInitial(() -> new Bvh.Mailbox(primitives.length));
+
+        int n = primitives.length;
+        double[] flatBoxes = new double[n * 6];
+        double[] bounds = BvhBuilder.emptyBounds();
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            BoundingBox box = boxes.get(i);
+            flatBoxes[i * 6] = box.min.x;
+            flatBoxes[i * 6 + 1] = box.min.y;
+            flatBoxes[i * 6 + 2] = box.min.z;
+            flatBoxes[i * 6 + 3] = box.max.x;
+            flatBoxes[i * 6 + 4] = box.max.y;
+            flatBoxes[i * 6 + 5] = box.max.z;
+            BvhBuilder.growBounds(bounds, 0, flatBoxes, i * 6);
+            all[i] = i;
+        }
+        root = n > 0 ? build(flatBoxes, all, n, bounds, settings.twoLevel) : null;
+    }
+
+    public static Grid grid(List<Shape> shapes) {
+        return new Grid(shapes, GridSettings.grid_settings());
+    }
+
+    public static Grid grid(List<Shape> shapes, GridSettings settings) {
+        return new Grid(shapes, settings);
+    }
+
+    // cells along each axis for `count` objects within `bounds`: about density * count cells in total,
+    // as close to cubes as the bounds allow
+    static int[] resolution(double[] bounds, int count, GridSettings settings) {
+        double[] extent = new double[3];
+        double longest = 0.0;
+        for (int axis = 0; axis < 3; axis++) {
+            extent[axis] = bounds[axis + 3] - bounds[axis];
+            longest = Math.max(longest, extent[axis]);
+        }
+        int[] result = {1, 1, 1};
+        if (longest <= 0.0) {
+            return result;
+        }
+        // flat bounds still get a thin volume, so they end up with one cell across
+        double volume = 1.0;
+        for (int axis = 0; axis < 3; axis++) {
+            volume *= Math.max(extent[axis], longest * 1e-3);
+        }
+        double cellsPerUnit = Math.cbrt(settings.density * count / volume);
+        for (int axis = 0; axis < 3; axis++) {
+            int cells = (int) Math.round(extent[axis] * cellsPerUnit);
+            result[axis] = Math.max(1, Math.min(cells, settings.maxResolution));
+        }
+        return result;
+    }
+
+    private Level build(double[] boxes, int[] objects, int count, double[] bounds, boolean allowSubgrids) {
+        Level level = new Level(bounds, resolution(bounds, count, settings));
+        int cells = level.cellCount();
+
+        // count the objects of every cell first, so that they can all go into one array
+        int[] start = new int[cells + 1];
+        for (int i = 0; i < count; i++) {
+            forEachCell(level, boxes, objects[i], c -> start[c + 1]++);
+        }
+        for (int c = 0; c < cells; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] items = new int[start[cells]];
+        int[] fill = new int[cells];
+        for (int i = 0; i < count; i++) {
+            int object = objects[i];
+            forEachCell(level, boxes, object, c -> items[start[c] + fill[c]++] = object);
+        }
+        level.cellStart = start;
+        level.items = items;
+
+        if (allowSubgrids) {
+            for (int z = 0; z < level.resolution[2]; z++) {
+                for (int y = 0; y < level.resolution[1]; y++) {
+                    for (int x = 0; x < level.resolution[0]; x++) {
+                        int c = x + level.resolution[0] * (y + level.resolution[1] * z);
+                        int size = start[c + 1] - start[c];
+                        // a cell that can't be refined any further is left as it is
+                        if (size <= settings.denseCellThreshold || size == count) {
+                            continue;
+                        }
+                        if (level.subgrids == null) {
+                            level.subgrids = new Level[cells];
+                        }
+                        int[] cellObjects = new int[size];
+                        System.arraycopy(items, start[c], cellObjects, 0, size);
+                        level.subgrids[c] = build(boxes, cellObjects, size, level.cellBounds(x, y, z), false);
+                    }
+                }
+            }
+        }
+        return level;
+    }
+
+    // calls consumer for every cell of level that the box of the object overlaps
+    private static void forEachCell(Level level, double[] boxes, int object, IntConsumer consumer) {
+        int x0 = level.cell(0, boxes[object * 6]);
+        int y0 = level.cell(1, boxes[object * 6 + 1]);
+        int z0 = level.cell(2, boxes[object * 6 + 2]);
+        int x1 = level.cell(0, boxes[object * 6 + 3]);
+        int y1 = level.cell(1, boxes[object * 6 + 4]);
+        int z1 = level.cell(2, boxes[object * 6 + 5]);
+        for (int z = z0; z <= z1; z++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    consumer.accept(x + level.resolution[0] * (y + level.resolution[1] * z));
+                }
+            }
+        }
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        if (!unbounded.isEmpty()) {
+            return BoundingBox.infinite_box();
+        }
+        if (root == null) {
+            return bounding_box();
+        }
+        double[] b = root.bounds;
+        return bounding_box(point(b[0], b[1], b[2]), point(b[3], b[4], b[5]));
+    }
+
+    @Override
+    public void intersect(Ray r, List<Intersection> xs) {
+        for (Shape s : unbounded) {
+            xs.addAll(Shape.intersect(s, r));
+        }
+        if (root == null) {
+            return;
+        }
+        Bvh.Mailbox mailbox = mailboxes.get();
+        mailbox.nextRay();
+        walk(root, 0, r, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, mailbox, s -> {
+            xs.addAll(Shape.intersect(s, r));
+            return false;
+        });
+    }
+
+    // stops at the first object found in the way, wherever along the ray it is
+    @Override
+    public Shape anyHit(Ray r, double tMin, double tMax) {
+        for (int i = 0; i < unbounded.size(); i++) {
+            Shape s = unbounded.get(i);
+            if (Shape.any_hit(s, r, tMin, tMax)) {
+                return s;
+            }
+        }
+        if (root == null) {
+            return null;
+        }
+        Bvh.Mailbox mailbox = mailboxes.get();
+        mailbox.nextRay();
+        return anyHit(root, 0, r, tMin, tMax, mailbox);
+    }
+
+    // walk without a visitor, for shadow rays
+    private Shape anyHit(Level level, int depth, Ray r, double tMin, double tMax, Bvh.Mailbox mailbox) {
+        Dda dda = ddas.get()[depth];
+        if (!dda.enter(level, r, tMin, tMax)) {
+            return null;
+        }
+        do {
+            int c = dda.cell(level);
+            if (level.subgrids != null && level.subgrids[c] != null) {
+                Shape s = anyHit(level.subgrids[c], depth + 1, r, tMin, tMax, mailbox);
+                if (s != null) {
+                    return s;
+                }
+            } else {
+                for (int i = level.cellStart[c]; i < level.cellStart[c + 1]; i++) {
+                    int object = level.items[i];
+                    if (mailbox.firstVisit(object) && Shape.any_hit(primitives[object], r, tMin, tMax)) {
+                        return primitives[object];
+                    }
+                }
+            }
+        } while (dda.step(level));
+        return null;
+    }
+
+    // An object spans several cells, so its hit may lie in a later cell than the one it was found in: the
+    // walk goes on until the nearest hit so far is no further than the end of the current cell.
+    @Override
+    public boolean closestHit(Ray r, double tMax, HitRecord record) {
+        boolean found = false;
+        for (Shape s : unbounded) {
+            if (Shape.closest_hit(s, r, tMax, record)) {
+                tMax = record.t;
+                found = true;
+            }
+        }
+        if (root == null) {
+            return found;
+        }
+        Bvh.Mailbox mailbox = mailboxes.get();
+        mailbox.nextRay();
+        Nearest nearest = new Nearest(r, tMax, record);
+        walk(root, 0, r, 0.0, tMax, mailbox, nearest);
+        return found || nearest.found;
+    }
+
+    // what walk does with the objects along the ray: visit returns true to end the walk there, and so does
+    // stopAfter, asked with the t at which the ray leaves each cell once the cell's objects were visited
+    private interface Visitor {
+        boolean visit(Shape s);
+
+        default boolean stopAfter(double exit) {
+            return false;
+        }
+    }
+
+    private static final class Nearest implements Visitor {
+        final Ray r;
+        final HitRecord record;
+        double tMax;
+        boolean found;
+
+        Nearest(Ray r, double tMax, HitRecord record) {
+            this.r = r;
+            this.tMax = tMax;
+            this.record = record;
+        }
+
+        @Override
+        public boolean visit(Shape s) {
+            if (Shape.closest_hit(s, r, tMax, record)) {
+                tMax = record.t;
+                found = true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean stopAfter(double exit) {
+            return tMax <= exit;
+        }
+    }
+
+    // Every object in the cells the ray crosses over [tMin, tMax] is given to `visit` once; returns whether
+    // the visitor ended the walk.
+    private boolean walk(Level level, int depth, Ray r, double tMin, double tMax, Bvh.Mailbox mailbox,
+                         Visitor visit) {
+        Dda dda = ddas.get()[depth];
+        if (!dda.enter(level, r, tMin, tMax)) {
+            return false;
+        }
+        do {
+            int c = dda.cell(level);
+            if (level.subgrids != null && level.subgrids[c] != null) {
+                if (walk(level.subgrids[c], depth + 1, r, tMin, tMax, mailbox, visit)) {
+                    return true;
+                }
+            } else {
+                for (int i = level.cellStart[c]; i < level.cellStart[c + 1]; i++) {
+                    int object = level.items[i];
+                    if (mailbox.firstVisit(object) && visit.visit(primitives[object])) {
+                        return true;
+                    }
+                }
+            }
+            if (visit.stopAfter(dda.exit())) {
+                return true;
+            }
+        } while (dda.step(level));
+        return false;
+    }
+
+    // 3D-DDA over one level: steps from cell to cell along the part of the line inside the level, always
+    // crossing the nearest cell wall next. Kept per thread and per level of nesting, so that walking the
+    // cells allocates nothing.
+    private static final class Dda {
+        final int[] cell = new int[3];
+        final int[] step = new int[3];
+        final double[] next = new double[3];
+        final double[] delta = new double[3];
+        double tmax;
+
+        // false when the ray misses the level over [tMin, tMax]
+        boolean enter(Level level, Ray r, double tMin, double tMax) {
+            double ox = r.origin.x, oy = r.origin.y, oz = r.origin.z;
+            double dx = r.direction.x, dy = r.direction.y, dz = r.direction.z;
+            double tmin = tMin;
+            tmax = tMax;
+            for (int axis = 0; axis < 3; axis++) {
+                double o = axis == 0 ? ox : axis == 1 ? oy : oz;
+                double d = axis == 0 ? dx : axis == 1 ? dy : dz;
+                if (d == 0.0) {
+                    if (o < level.bounds[axis] || o > level.bounds[axis + 3]) {
+                        return false;
+                    }
+                    continue;
+                }
+                double t0 = (level.bounds[axis] - o) / d;
+                double t1 = (level.bounds[axis + 3] - o) / d;
+                tmin = Math.max(tmin, Math.min(t0, t1));
+                tmax = Math.min(tmax, Math.max(t0, t1));
+            }
+            if (tmin > tmax) {
+                return false;
+            }
+
+            for (int axis = 0; axis < 3; axis++) {
+                double o = axis == 0 ? ox : axis == 1 ? oy : oz;
+                double d = axis == 0 ? dx : axis == 1 ? dy : dz;
+                cell[axis] = level.cell(axis, o + d * tmin);
+                if (d == 0.0 || level.cellSize[axis] <= 0.0) {
+                    step[axis] = 0;
+                    next[axis] = Double.POSITIVE_INFINITY;
+                    continue;
+                }
+                step[axis] = d > 0.0 ? 1 : -1;
+                double wall = level.bounds[axis] + (cell[axis] + (d > 0.0 ? 1 : 0)) * level.cellSize[axis];
+                next[axis] = (wall - o) / d;
+                delta[axis] = level.cellSize[axis] / Math.abs(d);
+            }
+            return true;
+        }
+
+        int cell(Level level) {
+            return cell[0] + level.resolution[0] * (cell[1] + level.resolution[1] * cell[2]);
+        }
+
+        // the t at which the ray leaves the current cell
+        double exit() {
+            return Math.min(Math.min(Math.min(next[0], next[1]), next[2]), tmax);
+        }
+
+        // on to the next cell; false once the ray left the level or went past tMax
+        boolean step(Level level) {
+            int axis = next[0] < next[1]
+                    ? (next[0] < next[2] ? 0 : 2)
+                    : (next[1] < next[2] ? 1 : 2);
+            if (next[axis] > tmax) {
+                return false;
+            }
+            cell[axis] += step[axis];
+            if (cell[axis] < 0 || cell[axis] >= level.resolution[axis]) {
+                return false;
+            }
+            next[axis] += delta[axis];
+            return true;
+        }
+    }
+
+    // a grid has nothing worth keeping once the objects moved, so it always gets rebuilt
+    @Override
+    public Grid refitOrRebuild(List<Shape> shapes) {
+        return grid(shapes, settings);
+    }
+}
@@ -0,0 +1,21 @@
+package ro.scene.hq.raytracer.core;
+
+public class GridSettings {
+    // cells per object: the resolution along each axis is picked so that the grid has about
+    // density * objects cells, shaped like the bounds of the objects
+    public double density = 2.0;
+    public int maxResolution = 256;
+    // two level grids: cells holding more than denseCellThreshold objects get a grid of their own
+    public boolean twoLevel = false;
+    public int denseCellThreshold = 8;
+
+    public static GridSettings grid_settings() {
+        return new GridSettings();
+    }
+
+    public static GridSettings two_level() {
+        GridSettings settings = new GridSettings();
+        settings.twoLevel = true;
+        return settings;
+    }
+}
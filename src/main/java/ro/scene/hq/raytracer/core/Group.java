@@ -4,28 +4,115 @@ import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 
-import static ro.scene.hq.raytracer.core.Matrix.inverse;
-import static ro.scene.hq.raytracer.core.Ray.transform;
+import static ro.scene.hq.raytracer.core.Bvh.bvh;
+import static ro.scene.hq.raytracer.core.KdTree.kd_tree;
 
 public class Group extends Shape {
     public List<Shape> shapes = new LinkedList<>();
     public String name;
+    // Bvh or KdTree over the children, tested instead of all of them one by one when set
+    public Accelerator accelerator;
+    // bounds of the children, taken by freeze() and dropped by unfreeze() and add(); a group without an
+    // accelerator skips its children on rays that miss them
+    private BoundingBox frozenBounds;
 
     @Override
     protected List<Intersection> localIntersect(Ray r) {
         List<Intersection> allIntersections = new LinkedList<>();
-        for (Shape s : shapes) {
-            allIntersections.addAll(s.localIntersect(transform(r, inverse(transform.mul(s.transform)))));
+        if (accelerator != null) {
+            // the root node of the hierarchy already is the group's box
+            accelerator.intersect(r, allIntersections);
+        } else {
+            if (!missesBounds(r)) {
+                for (Shape s : shapes) {
+                    allIntersections.addAll(intersect(s, r));
+                }
+            }
         }
         allIntersections.sort(Comparator.comparingDouble(a -> a.t));
         return allIntersections;
     }
 
+    @Override
+    protected boolean localClosestHit(Ray r, double tMax, HitRecord record) {
+        if (accelerator != null) {
+            return accelerator.closestHit(r, tMax, record);
+        }
+        if (missesBounds(r)) {
+            return false;
+        }
+        boolean found = false;
+        for (Shape s : shapes) {
+            if (closest_hit(s, r, tMax, record)) {
+                tMax = record.t;
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    @Override
+    protected boolean localAnyHit(Ray r, double tMin, double tMax) {
+        Shape blocking = null;
+        if (accelerator != null) {
+            blocking = accelerator.anyHit(r, tMin, tMax);
+        } else if (!missesBounds(r)) {
+            for (Shape s : shapes) {
+                if (any_hit(s, r, tMin, tMax)) {
+                    blocking = s;
+                    break;
+                }
+            }
+        }
+        if (blocking == null) {
+            return false;
+        }
+        // see ShadowCache
+        ShadowCache.blocker().passUp(blocking);
+        return true;
+    }
+
+    private boolean missesBounds(Ray r) {
+        BoundingBox box = frozenBounds;
+        return box != null && box.isFinite() && !BoundingBox.intersects(box, r);
+    }
+
     @Override
     protected Tuple localNormalAt(Tuple localPoint) {
         throw new UnsupportedOperationException("This should not be used! Normals should be computed by using the hit shape's instance!");
     }
 
+    @Override
+    public BoundingBox bounds() {
+        if (accelerator != null) {
+            return accelerator.bounds();
+        }
+        BoundingBox box = BoundingBox.bounding_box();
+        for (Shape s : shapes) {
+            box.add(s.parentSpaceBounds());
+        }
+        return box;
+    }
+
+    // the children must not be added, removed or moved either until the next freeze
+    @Override
+    public void freeze() {
+        super.freeze();
+        for (Shape s : shapes) {
+            s.freeze();
+        }
+        frozenBounds = bounds();
+    }
+
+    @Override
+    public void unfreeze() {
+        super.unfreeze();
+        for (Shape s : shapes) {
+            s.unfreeze();
+        }
+        frozenBounds = null;
+    }
+
     public static Group group() {
         return new Group();
     }
@@ -33,5 +120,55 @@ public class Group extends Shape {
     public void add(Shape s) {
         s.parent = this;
         shapes.add(s);
+        accelerator = null;
+        frozenBounds = null;
+    }
+
+    // builds the hierarchy for this group and all its subgroups; needs to be called again
+    // whenever the children or their transforms change
+    public void buildBvh() {
+        buildBvh(BvhSettings.bvh_settings());
+    }
+
+    public void buildBvh(BvhSettings settings) {
+        for (Shape s : shapes) {
+            if (s instanceof Group) {
+                ((Group) s).buildBvh(settings);
+            }
+        }
+        accelerator = bvh(shapes, settings);
+    }
+
+    // same as buildBvh, with k-d trees for this group and all its subgroups
+    public void buildKdTree() {
+        buildKdTree(KdTreeSettings.kd_tree_settings());
+    }
+
+    public void buildKdTree(KdTreeSettings settings) {
+        for (Shape s : shapes) {
+            if (s instanceof Group) {
+                ((Group) s).buildKdTree(settings);
+            }
+        }
+        accelerator = kd_tree(shapes, settings);
+    }
+
+    // updates the hierarchies after children were only moved around, not added or removed;
+    // returns true if any of them had degraded enough to be rebuilt instead (k-d trees always are)
+    public boolean refitBvh() {
+        boolean rebuilt = false;
+        for (Shape s : shapes) {
+            if (s instanceof Group) {
+                rebuilt |= ((Group) s).refitBvh();
+            }
+        }
+        if (accelerator == null) {
+            accelerator = bvh(shapes);
+            return true;
+        }
+        Accelerator refitted = accelerator.refitOrRebuild(shapes);
+        rebuilt |= refitted != accelerator;
+        accelerator = refitted;
+        return rebuilt;
     }
 }
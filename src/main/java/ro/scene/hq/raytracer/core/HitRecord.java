@@ -0,0 +1,62 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.List;
+
+// Where the allocation free intersection tests write their result. Meant to be created once and reused
+// for every test, so it holds the last hit only.
+public class HitRecord {
+    public double t;
+    // barycentric coordinates of the hit on a triangle, relative to p2 and p3
+    public double u;
+    public double v;
+    public Shape object;
+    // set when the object was hit through an instance of the shape it belongs to
+    public Instance instance;
+    // as Intersection.inner
+    public Instance[] inner;
+    // the face hit on a mesh, -1 for other shapes
+    public int face = -1;
+
+    public static HitRecord hit_record() {
+        return new HitRecord();
+    }
+
+    public Intersection toIntersection() {
+        return new Intersection(t, object, instance, face, inner);
+    }
+
+    // a hit on a shape without faces or barycentric coordinates
+    void set(double t, Shape object) {
+        this.t = t;
+        this.u = 0.0;
+        this.v = 0.0;
+        this.object = object;
+        this.instance = null;
+        this.inner = null;
+        this.face = -1;
+    }
+
+    void set(Intersection i) {
+        set(i.t, i.object);
+        instance = i.instance;
+        inner = i.inner;
+        face = i.face;
+    }
+
+    // keeps the nearest of xs with t in (0, tMax), for shapes that only know how to list them all; returns
+    // false, leaving the record alone, when there is none
+    boolean keepNearest(List<Intersection> xs, double tMax) {
+        Intersection best = null;
+        for (Intersection x : xs) {
+            if (x.t > 0.0 && x.t < tMax) {
+                best = x;
+                tMax = x.t;
+            }
+        }
+        if (best == null) {
+            return false;
+        }
+        set(best);
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Places a shared prototype (typically a mesh group from ObjParser, with its Bvh built once) somewhere
+ * else in the scene without copying it. The prototype must not be added to a group itself, since its
+ * parent chain has to end at the prototype; the instance transform is applied on top of it.
+ */
+public class Instance extends Shape {
+    public final Shape prototype;
+
+    public Instance(Shape prototype) {
+        this.prototype = prototype;
+    }
+
+    public static Instance instance(Shape prototype) {
+        return new Instance(prototype);
+    }
+
+    @Override
+    protected List<Intersection> localIntersect(Ray r) {
+        List<Intersection> xs = intersect(prototype, r);
+        List<Intersection> result = new ArrayList<>(xs.size());
+        for (Intersection x : xs) {
+            result.add(new Intersection(x.t, x.object, this, x.face, nest(x.instance, x.inner)));
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean localClosestHit(Ray r, double tMax, HitRecord record) {
+        if (!closest_hit(prototype, r, tMax, record)) {
+            return false;
+        }
+        record.inner = nest(record.instance, record.inner);
+        record.instance = this;
+        return true;
+    }
+
+    // the instances inside this one for a hit that went through `instance` (and its own inner ones) in
+    // the prototype; null when the hit went through no other instance
+    private static Instance[] nest(Instance instance, Instance[] inner) {
+        if (instance == null) {
+            return null;
+        }
+        if (inner == null) {
+            return new Instance[]{instance};
+        }
+        Instance[] result = new Instance[inner.length + 1];
+        result[0] = instance;
+        System.arraycopy(inner, 0, result, 1, inner.length);
+        return result;
+    }
+
+    @Override
+    protected boolean localAnyHit(Ray r, double tMin, double tMax) {
+        // the prototype is shared, so a shape skipped elsewhere may still be in the way through this instance
+        if (r.skipped != null) {
+            r = new Ray(r.origin, r.direction);
+        }
+        if (!any_hit(prototype, r, tMin, tMax)) {
+            return false;
+        }
+        ShadowCache.blocker().passUp(prototype);
+        return true;
+    }
+
+    @Override
+    protected Tuple localNormalAt(Tuple localPoint) {
+        throw new UnsupportedOperationException("Normals are computed by the hit shape, through the instance's transform!");
+    }
+
+    // the prototype's chain stops at the prototype, so it is frozen on its own
+    @Override
+    public void freeze() {
+        super.freeze();
+        prototype.freeze();
+    }
+
+    @Override
+    public void unfreeze() {
+        super.unfreeze();
+        prototype.unfreeze();
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        return prototype.parentSpaceBounds();
+    }
+}
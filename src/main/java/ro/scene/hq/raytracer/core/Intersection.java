@@ -5,10 +5,31 @@ import java.util.*;
 public class Intersection {
     public final double t;
     public final Shape object;
+    // set when the object was hit through an instance of the shape it belongs to
+    public final Instance instance;
+    // the instances inside `instance` that the hit went through as well, outermost first; null for none
+    public final Instance[] inner;
+    // which face of a mesh was hit, -1 for every other shape
+    public final int face;
 
     public Intersection(double t, Shape object) {
+        this(t, object, null);
+    }
+
+    public Intersection(double t, Shape object, Instance instance) {
+        this(t, object, instance, -1);
+    }
+
+    public Intersection(double t, Shape object, Instance instance, int face) {
+        this(t, object, instance, face, null);
+    }
+
+    public Intersection(double t, Shape object, Instance instance, int face, Instance[] inner) {
         this.t = t;
         this.object = object;
+        this.instance = instance;
+        this.face = face;
+        this.inner = inner;
     }
 
     public static Intersection intersection(double t, Shape object) {
@@ -35,11 +56,14 @@ public class Intersection {
         if (o == null || getClass() != o.getClass()) return false;
         Intersection that = (Intersection) o;
         return Double.compare(that.t, t) == 0 &&
-                object.equals(that.object);
+                face == that.face &&
+                object.equals(that.object) &&
+                Objects.equals(instance, that.instance) &&
+                Arrays.equals(inner, that.inner);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(t, object);
+        return Objects.hash(t, object, instance, face, Arrays.hashCode(inner));
     }
 }
@@ -0,0 +1,21 @@
+package ro.scene.hq.raytracer.core;
+
+// The inverse of one transform matrix, and the inverse transpose that carries normals, kept by shapes,
+// patterns and cameras next to their `transform` field. Transforms get replaced rather than modified in
+// place, so comparing references tells whether these are still the right ones.
+final class Inverses {
+    final Matrix transform;
+    final Affine inverse;
+    final Affine inverseTranspose;
+
+    private Inverses(Matrix transform) {
+        this.transform = transform;
+        this.inverse = Affine.affine(transform).inverse();
+        this.inverseTranspose = inverse.transposeLinear();
+    }
+
+    // `cached` if it still belongs to transform, new ones otherwise
+    static Inverses of(Matrix transform, Inverses cached) {
+        return cached != null && cached.transform == transform ? cached : new Inverses(transform);
+    }
+}
@@ -0,0 +1,392 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static ro.scene.hq.raytracer.core.BoundingBox.bounding_box;
+import static ro.scene.hq.raytracer.core.Tuple.point;
+
+/**
+ * k-d tree over a list of shapes living in the same (parent) space, with split planes picked by the
+ * surface area heuristic. Unlike a Bvh the cells don't overlap, so they can be walked front to back and
+ * a closest hit search can stop in the first cell holding a confirmed hit. A shape straddling a plane is
+ * referenced from both sides; shapes without finite bounds are kept aside and tested on every ray.
+ */
+public class KdTree implements Accelerator {
+    static final int LEAF = 3;
+
+    // stack of cells still to visit together with the part of the ray inside them, shared by nested trees
+    // the same way as Bvh.TraversalStack
+    static class TraversalStack {
+        int[] nodes = new int[64];
+        double[] tmins = new double[64];
+        double[] tmaxs = new double[64];
+        int top;
+
+        void push(int node, double tmin, double tmax) {
+            if (top == nodes.length) {
+                nodes = Arrays.copyOf(nodes, top * 2);
+                tmins = Arrays.copyOf(tmins, top * 2);
+                tmaxs = Arrays.copyOf(tmaxs, top * 2);
+            }
+            nodes[top] = node;
+            tmins[top] = tmin;
+            tmaxs[top] = tmax;
+            top++;
+        }
+    }
+
+    static final ThreadLocal<TraversalStack> stacks = ThreadLocal.withInitial(TraversalStack::new);
+
+    public final KdTreeSettings settings;
+    // per node: split axis or LEAF; the right child (the left one is the next node) or the first entry
+    // of the leaf in `references`; the number of shapes in a leaf; the position of the split plane
+    int[] axes = new int[16];
+    int[] children = new int[16];
+    int[] counts = new int[16];
+    double[] splits = new double[16];
+    int nodeCount;
+    int[] references = new int[16];
+    int referenceCount;
+
+    final Shape[] primitives;
+    final List<Shape> unbounded = new ArrayList<>();
+    private final double[] rootBounds = BvhBuilder.emptyBounds();
+    private final ThreadLocal<Bvh.Mailbox> mailboxes;
+
+    private KdTree(List<Shape> shapes, KdTreeSettings settings) {
+        this.settings = settings;
+        List<Shape> bounded = new ArrayList<>(shapes.size());
+        List<BoundingBox> boxes = new ArrayList<>(shapes.size());
+        for (Shape s : shapes) {
+            BoundingBox box = s.parentSpaceBounds();
+            if (box.isFinite()) {
+                bounded.add(s);
+                boxes.add(box);
+            } else {
+                unbounded.add(s);
+            }
+        }
+        primitives = bounded.toArray(new Shape[0]);
+        mailboxes = ThreadLocal.withInitial(() -> new Bvh.Mailbox(primitives.length));
+
+        int n = primitives.length;
+        double[] flatBoxes = new double[n * 6];
+        int[] all = new int[n];
+        for (int i = 0; i < n; i++) {
+            BoundingBox box = boxes.get(i);
+            flatBoxes[i * 6] = box.min.x;
+            flatBoxes[i * 6 + 1] = box.min.y;
+            flatBoxes[i * 6 + 2] = box.min.z;
+            flatBoxes[i * 6 + 3] = box.max.x;
+            flatBoxes[i * 6 + 4] = box.max.y;
+            flatBoxes[i * 6 + 5] = box.max.z;
+            BvhBuilder.growBounds(rootBounds, 0, flatBoxes, i * 6);
+            all[i] = i;
+        }
+        if (n > 0) {
+            int maxDepth = settings.maxDepth > 0
+                    ? settings.maxDepth
+                    : (int) Math.round(8 + 1.3 * Math.log(n) / Math.log(2));
+            build(flatBoxes, all, n, rootBounds.clone(), maxDepth);
+        }
+    }
+
+    public static KdTree kd_tree(List<Shape> shapes) {
+        return new KdTree(shapes, KdTreeSettings.kd_tree_settings());
+    }
+
+    public static KdTree kd_tree(List<Shape> shapes, KdTreeSettings settings) {
+        return new KdTree(shapes, settings);
+    }
+
+    private void build(double[] boxes, int[] prims, int count, double[] bounds, int depthLeft) {
+        int node = nodeCount++;
+        if (node == axes.length) {
+            axes = Arrays.copyOf(axes, node * 2);
+            children = Arrays.copyOf(children, node * 2);
+            counts = Arrays.copyOf(counts, node * 2);
+            splits = Arrays.copyOf(splits, node * 2);
+        }
+
+        int bestAxis = -1;
+        double bestSplit = 0.0;
+        double bestCost = settings.intersectionCost * count;
+        if (depthLeft > 0 && count > 1) {
+            double area = BvhBuilder.surfaceArea(bounds, 0);
+            for (int axis = 0; axis < 3 && area > 0.0; axis++) {
+                double lo = bounds[axis];
+                double hi = bounds[axis + 3];
+                if (hi <= lo) {
+                    continue;
+                }
+                // a plane at position p has everything starting before it on the left, everything ending
+                // after it on the right, and flat shapes lying in it on the left too
+                double[] starts = new double[count];
+                double[] ends = new double[count];
+                double[] planars = new double[count];
+                int startCount = 0;
+                int planarCount = 0;
+                for (int i = 0; i < count; i++) {
+                    double min = Math.max(boxes[prims[i] * 6 + axis], lo);
+                    double max = Math.min(boxes[prims[i] * 6 + axis + 3], hi);
+                    if (min == max) {
+                        planars[planarCount++] = min;
+                    } else {
+                        starts[startCount] = min;
+                        ends[startCount++] = max;
+                    }
+                }
+                Arrays.sort(starts, 0, startCount);
+                Arrays.sort(ends, 0, startCount);
+                Arrays.sort(planars, 0, planarCount);
+
+                int s = 0;
+                int e = 0;
+                int p = 0;
+                int leftCount = 0;
+                int rightCount = count;
+                while (s < startCount || e < startCount || p < planarCount) {
+                    double position = Double.POSITIVE_INFINITY;
+                    if (s < startCount) position = Math.min(position, starts[s]);
+                    if (e < startCount) position = Math.min(position, ends[e]);
+                    if (p < planarCount) position = Math.min(position, planars[p]);
+                    int ending = 0;
+                    int lying = 0;
+                    int starting = 0;
+                    while (e < startCount && ends[e] == position) {
+                        e++;
+                        ending++;
+                    }
+                    while (p < planarCount && planars[p] == position) {
+                        p++;
+                        lying++;
+                    }
+                    while (s < startCount && starts[s] == position) {
+                        s++;
+                        starting++;
+                    }
+                    rightCount -= lying + ending;
+                    if (position > lo && position < hi) {
+                        double cost = splitCost(bounds, area, axis, position, leftCount + lying, rightCount);
+                        if (cost < bestCost) {
+                            bestCost = cost;
+                            bestAxis = axis;
+                            bestSplit = position;
+                        }
+                    }
+                    leftCount += starting + lying;
+                }
+            }
+        }
+
+        if (bestAxis < 0) {
+            axes[node] = LEAF;
+            children[node] = referenceCount;
+            counts[node] = count;
+            if (referenceCount + count > references.length) {
+                references = Arrays.copyOf(references, Math.max(references.length * 2, referenceCount + count));
+            }
+            System.arraycopy(prims, 0, references, referenceCount, count);
+            referenceCount += count;
+            return;
+        }
+
+        int[] left = new int[count];
+        int[] right = new int[count];
+        int leftCount = 0;
+        int rightCount = 0;
+        for (int i = 0; i < count; i++) {
+            double min = Math.max(boxes[prims[i] * 6 + bestAxis], bounds[bestAxis]);
+            double max = Math.min(boxes[prims[i] * 6 + bestAxis + 3], bounds[bestAxis + 3]);
+            if (min == max && min == bestSplit) {
+                left[leftCount++] = prims[i];
+                continue;
+            }
+            if (min < bestSplit) {
+                left[leftCount++] = prims[i];
+            }
+            if (max > bestSplit) {
+                right[rightCount++] = prims[i];
+            }
+        }
+
+        axes[node] = bestAxis;
+        splits[node] = bestSplit;
+        double[] leftBounds = bounds.clone();
+        leftBounds[bestAxis + 3] = bestSplit;
+        build(boxes, left, leftCount, leftBounds, depthLeft - 1);
+        children[node] = nodeCount;
+        double[] rightBounds = bounds.clone();
+        rightBounds[bestAxis] = bestSplit;
+        build(boxes, right, rightCount, rightBounds, depthLeft - 1);
+    }
+
+    private double splitCost(double[] bounds, double area, int axis, double position, int leftCount, int rightCount) {
+        double[] extent = {bounds[3] - bounds[0], bounds[4] - bounds[1], bounds[5] - bounds[2]};
+        // the sides share the two extents across the split axis and only differ along it
+        double across = extent[(axis + 1) % 3] * extent[(axis + 2) % 3];
+        double around = extent[(axis + 1) % 3] + extent[(axis + 2) % 3];
+        double leftArea = 2.0 * (across + (position - bounds[axis]) * around);
+        double rightArea = 2.0 * (across + (bounds[axis + 3] - position) * around);
+        double cost = settings.traversalCost + settings.intersectionCost *
+                (leftArea * leftCount + rightArea * rightCount) / area;
+        if (leftCount == 0 || rightCount == 0) {
+            cost *= 1.0 - settings.emptyBonus;
+        }
+        return cost;
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        if (!unbounded.isEmpty()) {
+            return BoundingBox.infinite_box();
+        }
+        if (primitives.length == 0) {
+            return bounding_box();
+        }
+        return bounding_box(point(rootBounds[0], rootBounds[1], rootBounds[2]),
+                point(rootBounds[3], rootBounds[4], rootBounds[5]));
+    }
+
+    @Override
+    public void intersect(Ray r, List<Intersection> xs) {
+        search(r, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, null, xs, false);
+    }
+
+    // the cells are walked front to back, so the search ends in the first one holding the nearest hit
+    @Override
+    public boolean closestHit(Ray r, double tMax, HitRecord record) {
+        return search(r, 0.0, tMax, record, null, false) != null;
+    }
+
+    @Override
+    public Shape anyHit(Ray r, double tMin, double tMax) {
+        return search(r, tMin, tMax, null, null, true);
+    }
+
+    // Walks the cells the ray crosses between tMin and tMax front to back. Given xs, every intersection of
+    // every shape along the way is added to it. With anyHit the first shape in the way ends the walk and is
+    // returned; otherwise the nearest hit goes to the record, tMax shrinking as hits are found, and the
+    // shape it was found on is returned. Null when nothing was hit.
+    private Shape search(Ray r, double tMin, double tMax, HitRecord record, List<Intersection> xs,
+                         boolean anyHit) {
+        Shape found = null;
+        for (Shape s : unbounded) {
+            if (xs != null) {
+                xs.addAll(Shape.intersect(s, r));
+            } else if (anyHit) {
+                if (Shape.any_hit(s, r, tMin, tMax)) {
+                    return s;
+                }
+            } else if (Shape.closest_hit(s, r, tMax, record)) {
+                tMax = record.t;
+                found = s;
+            }
+        }
+        if (nodeCount == 0) {
+            return found;
+        }
+        double[] o = {r.origin.x, r.origin.y, r.origin.z};
+        double[] d = {r.direction.x, r.direction.y, r.direction.z};
+
+        double tmin = tMin;
+        double tmax = tMax;
+        for (int axis = 0; axis < 3; axis++) {
+            if (d[axis] == 0.0) {
+                if (o[axis] < rootBounds[axis] || o[axis] > rootBounds[axis + 3]) {
+                    return found;
+                }
+                continue;
+            }
+            double t0 = (rootBounds[axis] - o[axis]) / d[axis];
+            double t1 = (rootBounds[axis + 3] - o[axis]) / d[axis];
+            tmin = Math.max(tmin, Math.min(t0, t1));
+            tmax = Math.min(tmax, Math.max(t0, t1));
+        }
+        if (tmin > tmax) {
+            return found;
+        }
+
+        Bvh.Mailbox mailbox = mailboxes.get();
+        mailbox.nextRay();
+        TraversalStack stack = stacks.get();
+        int base = stack.top;
+        int node = 0;
+        while (true) {
+            int axis = axes[node];
+            if (axis != LEAF) {
+                double split = splits[node];
+                int right = children[node];
+                if (d[axis] == 0.0) {
+                    if (o[axis] < split) {
+                        node = node + 1;
+                    } else if (o[axis] > split) {
+                        node = right;
+                    } else {
+                        stack.push(right, tmin, tmax);
+                        node = node + 1;
+                    }
+                    continue;
+                }
+                int near = d[axis] > 0.0 ? node + 1 : right;
+                int far = d[axis] > 0.0 ? right : node + 1;
+                double t = (split - o[axis]) / d[axis];
+                if (t > tmax) {
+                    node = near;
+                } else if (t < tmin) {
+                    node = far;
+                } else {
+                    stack.push(far, t, tmax);
+                    node = near;
+                    tmax = t;
+                }
+                continue;
+            }
+
+            int offset = children[node];
+            for (int i = offset; i < offset + counts[node]; i++) {
+                int primitive = references[i];
+                if (!mailbox.firstVisit(primitive)) {
+                    continue;
+                }
+                Shape s = primitives[primitive];
+                if (xs != null) {
+                    xs.addAll(Shape.intersect(s, r));
+                } else if (anyHit) {
+                    if (Shape.any_hit(s, r, tMin, tMax)) {
+                        stack.top = base;
+                        return s;
+                    }
+                } else if (Shape.closest_hit(s, r, tMax, record)) {
+                    tMax = record.t;
+                    found = s;
+                }
+            }
+            // the cells still to visit all lie behind this one
+            if (tMax <= tmax) {
+                stack.top = base;
+                return found;
+            }
+
+            if (stack.top == base) {
+                return found;
+            }
+            stack.top--;
+            if (stack.tmins[stack.top] > tMax) {
+                stack.top = base;
+                return found;
+            }
+            node = stack.nodes[stack.top];
+            tmin = stack.tmins[stack.top];
+            tmax = Math.min(stack.tmaxs[stack.top], tMax);
+        }
+    }
+
+    // the planes of a k-d tree can't follow moving shapes, so it always gets rebuilt
+    @Override
+    public KdTree refitOrRebuild(List<Shape> shapes) {
+        return kd_tree(shapes, settings);
+    }
+}
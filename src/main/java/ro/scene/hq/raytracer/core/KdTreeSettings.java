@@ -0,0 +1,16 @@
+package ro.scene.hq.raytracer.core;
+
+public class KdTreeSettings {
+    // relative costs used by the surface area heuristic; primitive tests weigh more than for a Bvh since
+    // cutting the space around them is what lets a k-d tree skip them
+    public double traversalCost = 1.0;
+    public double intersectionCost = 10.0;
+    // splits cutting off empty space get their cost lowered by this fraction
+    public double emptyBonus = 0.2;
+    // 0 picks 8 + 1.3 * log2(primitives), which keeps the tree from blowing up on overlapping primitives
+    public int maxDepth = 0;
+
+    public static KdTreeSettings kd_tree_settings() {
+        return new KdTreeSettings();
+    }
+}
@@ -18,36 +18,30 @@ public class Light {
     }
 
     public static Tuple lighting(Material m, Shape object, Light light, Tuple position, Tuple eyev, Tuple normalv, boolean inShadow) {
+        // called for every hit, so only the returned color gets allocated
+        Tuple[] scratch = scratch();
         Tuple color = m.pattern == null ? m.color : m.pattern.colorAtObject(object, position);
-        Tuple effectiveColor = color.mul(light.intensity);
-        Tuple lightv = normalize(light.position.sub(position));
-        Tuple ambient = effectiveColor.mul(m.ambient);
+        Tuple effectiveColor = color.mulInto(light.intensity, scratch[0]);
+        Tuple lightv = light.position.subInto(position, scratch[1]).normalizeInto(scratch[1]);
+        Tuple result = effectiveColor.scaleInto(m.ambient, color(0, 0, 0));
         if (inShadow) {
-            return ambient;
+            return result;
         }
 
-        Tuple diffuse;
-        Tuple specular;
-
-
         double lightDotNormal = dot(lightv, normalv);
-        if (lightDotNormal < 0) {
-            diffuse = color(0, 0, 0);
-            specular = color(0, 0, 0);
-        } else {
-            diffuse = effectiveColor.mul(m.diffuse).mul(lightDotNormal);
-            Tuple reflectv = reflect(lightv.neg(), normalv);
+        if (lightDotNormal >= 0) {
+            Tuple diffuse = effectiveColor.scaleInto(m.diffuse, scratch[2]).scaleInto(lightDotNormal, scratch[2]);
+            result.addInto(diffuse, result);
+            Tuple reflectv = reflectInto(lightv.negInto(scratch[3]), normalv, scratch[3]);
             double reflectDotEye = dot(reflectv, eyev);
 
-            if (reflectDotEye <= 0) {
-                specular = color(0, 0, 0);
-            } else {
+            if (reflectDotEye > 0) {
                 double factor = Math.pow(reflectDotEye, m.shininess);
-                specular = light.intensity.mul(m.specular).mul(factor);
+                Tuple specular = light.intensity.scaleInto(m.specular, scratch[2]).scaleInto(factor, scratch[2]);
+                result.addInto(specular, result);
             }
         }
-
-        return ambient.add(diffuse).add(specular);
+        return result;
     }
 
     @Override
@@ -41,6 +41,10 @@ public class Matrix {
 
     public Matrix mul(Matrix other) {
         Matrix result = new Matrix(size);
+        if (size == 4 && other.size == 4) {
+            VectorKernels.kernels().mul4x4(data, other.data, result.data);
+            return result;
+        }
         for (int row = 0; row < size; row++) {
             for (int col = 0; col < size; col++) {
                 double value = 0;
@@ -0,0 +1,98 @@
+package ro.scene.hq.raytracer.core;
+
+/**
+ * Triangle mesh kept in flat arrays: vertex positions are shared by all the faces that use them and every
+ * face is three indices into them, so a face costs 12 bytes plus its share of the vertices instead of a
+ * Triangle with its six tuples. Rays go through a Bvh over the faces that reads the same arrays.
+ */
+public class Mesh extends AbstractMesh {
+    public final double[] vertices; // x, y, z for each vertex
+    public final int[] indices;     // three vertex indices for each face
+    // Bvh over the faces, in the layout of Bvh.nodes; leaves cover faces[offset, offset + count)
+    final double[] nodes;
+    final int[] faces;
+
+    public Mesh(double[] vertices, int[] indices) {
+        if (vertices.length % 3 != 0 || indices.length % 3 != 0) {
+            throw new IllegalArgumentException("Vertices and faces need three values each!");
+        }
+        this.vertices = vertices;
+        this.indices = indices;
+
+        int n = faceCount();
+        double[] boxes = new double[n * 6];
+        for (int f = 0; f < n; f++) {
+            BvhBuilder.resetBounds(boxes, f * 6);
+            for (int corner = 0; corner < 3; corner++) {
+                int v = indices[f * 3 + corner] * 3;
+                for (int axis = 0; axis < 3; axis++) {
+                    boxes[f * 6 + axis] = Math.min(boxes[f * 6 + axis], vertices[v + axis]);
+                    boxes[f * 6 + axis + 3] = Math.max(boxes[f * 6 + axis + 3], vertices[v + axis]);
+                }
+            }
+        }
+        BvhBuilder builder = new BvhBuilder(boxes, BvhSettings.bvh_settings());
+        Bvh.Node root = builder.build();
+        faces = builder.order;
+        BvhStats stats = new BvhStats();
+        if (root != null) {
+            Bvh.collectStats(root, 1, stats);
+        }
+        nodes = new double[stats.nodeCount * Bvh.NODE_SIZE];
+        if (root != null) {
+            Bvh.flatten(root, nodes, 0);
+        }
+    }
+
+    public static Mesh mesh(double[] vertices, int[] indices) {
+        return new Mesh(vertices, indices);
+    }
+
+    public int vertexCount() {
+        return vertices.length / 3;
+    }
+
+    public int faceCount() {
+        return indices.length / 3;
+    }
+
+    // bytes taken by the vertices, the faces and the Bvh
+    public long sizeInBytes() {
+        return vertices.length * 8L + indices.length * 4L + nodes.length * 8L + faces.length * 4L;
+    }
+
+    @Override
+    int nodeCount() {
+        return nodes.length / Bvh.NODE_SIZE;
+    }
+
+    @Override
+    double bound(int node, int i) {
+        return nodes[node * Bvh.NODE_SIZE + i];
+    }
+
+    @Override
+    int link(int node) {
+        return (int) nodes[node * Bvh.NODE_SIZE + Bvh.OFFSET];
+    }
+
+    @Override
+    int count(int node) {
+        return (int) nodes[node * Bvh.NODE_SIZE + Bvh.COUNT];
+    }
+
+    @Override
+    int face(int i) {
+        return faces[i];
+    }
+
+    @Override
+    int index(int i) {
+        return indices[i];
+    }
+
+    @Override
+    double coordinate(int i) {
+        return vertices[i];
+    }
+}
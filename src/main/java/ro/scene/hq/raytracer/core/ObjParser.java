@@ -3,7 +3,8 @@ package ro.scene.hq.raytracer.core;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static ro.scene.hq.raytracer.core.Group.group;
@@ -12,55 +13,109 @@ import static ro.scene.hq.raytracer.core.Tuple.point;
 
 public class ObjParser {
     public int ignoredLines = 0;
-    public List<Tuple> vertices = new LinkedList<>();
+    // faces look their vertices up by index
+    public List<Tuple> vertices = new ArrayList<>();
     public Group defaultGroup = group();
     public Group currentGroup = defaultGroup;
+    // Parsers made by parse_mesh keep the vertices and the vertex indices of every face, three by three, in
+    // these arrays instead, and build neither tuples, triangles nor groups.
+    private final boolean meshOnly;
+    private double[] coordinates;
+    private int coordinateCount;
+    private int[] faceIndices;
+    private int faceIndexCount;
+
+    public ObjParser() {
+        this(false);
+    }
+
+    private ObjParser(boolean meshOnly) {
+        this.meshOnly = meshOnly;
+        this.coordinates = meshOnly ? new double[48] : null;
+        this.faceIndices = meshOnly ? new int[48] : null;
+    }
 
     public void parseLine(String line) {
         String[] pieces = line.trim().split(" ");
         if (line.startsWith("g ")) {
-            currentGroup = group();
-            currentGroup.name = line.trim().substring(2);
-            defaultGroup.add(currentGroup);
+            if (!meshOnly) {
+                currentGroup = group();
+                currentGroup.name = line.trim().substring(2);
+                defaultGroup.add(currentGroup);
+            }
         } else if (pieces.length == 4 && pieces[0].equals("v")) {
-            vertices.add(point(
-                    Double.parseDouble(pieces[1]),
-                    Double.parseDouble(pieces[2]),
-                    Double.parseDouble(pieces[3])
-            ));
+            double x = Double.parseDouble(pieces[1]);
+            double y = Double.parseDouble(pieces[2]);
+            double z = Double.parseDouble(pieces[3]);
+            if (meshOnly) {
+                if (coordinateCount + 3 > coordinates.length) {
+                    coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+                }
+                coordinates[coordinateCount++] = x;
+                coordinates[coordinateCount++] = y;
+                coordinates[coordinateCount++] = z;
+            } else {
+                vertices.add(point(x, y, z));
+            }
         } else if (pieces.length == 4 && pieces[0].equals("f")) {
-            currentGroup.add(triangle(
-                    vertices.get(Integer.parseInt(pieces[1]) - 1),
-                    vertices.get(Integer.parseInt(pieces[2]) - 1),
-                    vertices.get(Integer.parseInt(pieces[3]) - 1)
-            ));
+            addFace(Integer.parseInt(pieces[1]), Integer.parseInt(pieces[2]), Integer.parseInt(pieces[3]));
         } else if (pieces.length > 4 && pieces[0].equals("f")) {
             int nrOfVerticesInPolygon = pieces.length - 1;
             for (int i = 1; i < (nrOfVerticesInPolygon - 1); i++) {
-                int a = 1;
+                int a = Integer.parseInt(pieces[1]);
                 int b = Integer.parseInt(pieces[i + 1]);
                 int c = Integer.parseInt(pieces[i + 2]);
-                currentGroup.add(triangle(
-                        vertices.get(a - 1),
-                        vertices.get(b - 1),
-                        vertices.get(c - 1)
-                ));
+                addFace(a, b, c);
             }
         } else {
             ignoredLines++;
         }
     }
 
+    // a, b and c are the 1-based vertex numbers of the OBJ file
+    private void addFace(int a, int b, int c) {
+        if (!meshOnly) {
+            currentGroup.add(triangle(
+                    vertices.get(a - 1),
+                    vertices.get(b - 1),
+                    vertices.get(c - 1)
+            ));
+            return;
+        }
+        if (faceIndexCount + 3 > faceIndices.length) {
+            faceIndices = Arrays.copyOf(faceIndices, faceIndices.length * 2);
+        }
+        faceIndices[faceIndexCount++] = a - 1;
+        faceIndices[faceIndexCount++] = b - 1;
+        faceIndices[faceIndexCount++] = c - 1;
+    }
+
     public static ObjParser parse(List<String> lines) {
-        ObjParser parser = new ObjParser();
+        return read(lines, new ObjParser());
+    }
+
+    public static ObjParser parse(String filename) throws IOException {
+        return read(filename, new ObjParser());
+    }
+
+    // The faces of the file straight into a mesh, for models too big to go through a Triangle per face:
+    // only the coordinate and index arrays grow while reading, and groups are ignored.
+    public static Mesh parse_mesh(List<String> lines) {
+        return read(lines, new ObjParser(true)).toMesh();
+    }
+
+    public static Mesh parse_mesh(String filename) throws IOException {
+        return read(filename, new ObjParser(true)).toMesh();
+    }
+
+    private static ObjParser read(List<String> lines, ObjParser parser) {
         for (String line : lines) {
             parser.parseLine(line);
         }
         return parser;
     }
 
-    public static ObjParser parse(String filename) throws IOException {
-        ObjParser parser = new ObjParser();
+    private static ObjParser read(String filename, ObjParser parser) throws IOException {
         try (BufferedReader br = new BufferedReader(new FileReader(filename))) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -82,4 +137,8 @@ public class ObjParser {
     public Group toGroup() {
         return defaultGroup;
     }
+
+    private Mesh toMesh() {
+        return Mesh.mesh(Arrays.copyOf(coordinates, coordinateCount), Arrays.copyOf(faceIndices, faceIndexCount));
+    }
 }
@@ -0,0 +1,165 @@
+package ro.scene.hq.raytracer.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Same as Mesh, but with the vertices, the faces and the Bvh nodes kept outside of the java heap, in direct
+ * or memory mapped buffers, so that huge models cost the heap and the garbage collector next to nothing.
+ * A mesh is converted once with `write` and mapped back with `load`, which reads nothing up front; the
+ * pages come in as rays touch them. Every section of the file can hold up to 2GB, the most one buffer
+ * can address.
+ */
+public class OffHeapMesh extends AbstractMesh {
+    private static final int MAGIC = 0x52544d48; // "RTMH"
+    private static final int VERSION = 1;
+    // magic, version, byte order, vertex count, face count and node count, padded to 8 bytes
+    private static final int HEADER_SIZE = 32;
+
+    public final int vertexCount;
+    public final int faceCount;
+    final DoubleBuffer vertices; // x, y, z for each vertex
+    final IntBuffer indices;     // three vertex indices for each face
+    // Bvh over the faces, in the layout of Bvh.nodes; leaves cover faces[offset, offset + count)
+    final DoubleBuffer nodes;
+    final IntBuffer faces;
+
+    OffHeapMesh(DoubleBuffer vertices, IntBuffer indices, DoubleBuffer nodes, IntBuffer faces) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.nodes = nodes;
+        this.faces = faces;
+        this.vertexCount = vertices.capacity() / 3;
+        this.faceCount = indices.capacity() / 3;
+    }
+
+    // copies a mesh out of the heap, for meshes that were built in this process
+    public static OffHeapMesh off_heap_mesh(Mesh mesh) {
+        DoubleBuffer vertices = direct(mesh.vertices.length * 8).asDoubleBuffer().put(mesh.vertices);
+        IntBuffer indices = direct(mesh.indices.length * 4).asIntBuffer().put(mesh.indices);
+        DoubleBuffer nodes = direct(mesh.nodes.length * 8).asDoubleBuffer().put(mesh.nodes);
+        IntBuffer faces = direct(mesh.faces.length * 4).asIntBuffer().put(mesh.faces);
+        return new OffHeapMesh(vertices, indices, nodes, faces);
+    }
+
+    private static ByteBuffer direct(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    // Layout: the header, then vertices, indices and faces, then the nodes at the next multiple of 8. The
+    // sections are in the byte order of the machine that wrote them, which is recorded in the header.
+    public static void write(Mesh mesh, Path file) throws IOException {
+        ByteOrder order = ByteOrder.nativeOrder();
+        long verticesAt = HEADER_SIZE;
+        long indicesAt = verticesAt + mesh.vertices.length * 8L;
+        long facesAt = indicesAt + mesh.indices.length * 4L;
+        long nodesAt = align(facesAt + mesh.faces.length * 4L);
+        long size = nodesAt + mesh.nodes.length * 8L;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(order == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+            header.putInt(mesh.vertices.length / 3).putInt(mesh.indices.length / 3).putInt(mesh.nodes.length);
+            header.rewind();
+            channel.write(header, 0);
+            channel.map(FileChannel.MapMode.READ_WRITE, verticesAt, mesh.vertices.length * 8L).order(order)
+                    .asDoubleBuffer().put(mesh.vertices);
+            channel.map(FileChannel.MapMode.READ_WRITE, indicesAt, mesh.indices.length * 4L).order(order)
+                    .asIntBuffer().put(mesh.indices);
+            channel.map(FileChannel.MapMode.READ_WRITE, facesAt, mesh.faces.length * 4L).order(order)
+                    .asIntBuffer().put(mesh.faces);
+            channel.map(FileChannel.MapMode.READ_WRITE, nodesAt, mesh.nodes.length * 8L).order(order)
+                    .asDoubleBuffer().put(mesh.nodes);
+            if (channel.size() < size) {
+                // only when the last section is empty
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            channel.force(false);
+        }
+    }
+
+    // OBJ file to mesh file through ObjParser.parse_mesh, so that no Triangle is made along the way: the
+    // heap only has to hold the flat arrays of the mesh and its Bvh for a moment
+    public static void convert(String objFilename, Path file) throws IOException {
+        write(ObjParser.parse_mesh(objFilename), file);
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    public static OffHeapMesh load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a mesh file: " + file);
+            }
+            ByteOrder order = header.getInt() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            int vertexCount = header.getInt();
+            int faceCount = header.getInt();
+            int nodeValues = header.getInt();
+
+            long verticesAt = HEADER_SIZE;
+            long indicesAt = verticesAt + vertexCount * 24L;
+            long facesAt = indicesAt + faceCount * 12L;
+            long nodesAt = align(facesAt + faceCount * 4L);
+            if (channel.size() < nodesAt + nodeValues * 8L) {
+                throw new IOException("Truncated mesh file: " + file);
+            }
+            // the mappings stay valid after the channel is closed
+            return new OffHeapMesh(
+                    channel.map(FileChannel.MapMode.READ_ONLY, verticesAt, vertexCount * 24L).order(order)
+                            .asDoubleBuffer(),
+                    channel.map(FileChannel.MapMode.READ_ONLY, indicesAt, faceCount * 12L).order(order)
+                            .asIntBuffer(),
+                    channel.map(FileChannel.MapMode.READ_ONLY, nodesAt, nodeValues * 8L).order(order)
+                            .asDoubleBuffer(),
+                    channel.map(FileChannel.MapMode.READ_ONLY, facesAt, faceCount * 4L).order(order)
+                            .asIntBuffer());
+        }
+    }
+
+    @Override
+    int nodeCount() {
+        return nodes.capacity() / Bvh.NODE_SIZE;
+    }
+
+    @Override
+    double bound(int node, int i) {
+        return nodes.get(node * Bvh.NODE_SIZE + i);
+    }
+
+    @Override
+    int link(int node) {
+        return (int) nodes.get(node * Bvh.NODE_SIZE + Bvh.OFFSET);
+    }
+
+    @Override
+    int count(int node) {
+        return (int) nodes.get(node * Bvh.NODE_SIZE + Bvh.COUNT);
+    }
+
+    @Override
+    int face(int i) {
+        return faces.get(i);
+    }
+
+    @Override
+    int index(int i) {
+        return indices.get(i);
+    }
+
+    @Override
+    double coordinate(int i) {
+        return vertices.get(i);
+    }
+}
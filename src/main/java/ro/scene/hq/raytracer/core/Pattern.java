@@ -1,16 +1,23 @@
 package ro.scene.hq.raytracer.core;
 
 import static ro.scene.hq.raytracer.core.Matrix.identity;
-import static ro.scene.hq.raytracer.core.Matrix.inverse;
 
 public abstract class Pattern {
     public Matrix transform = identity(4);
+    // computed again whenever `transform` is given another matrix
+    private Inverses inverses;
 
     abstract Tuple colorAt(Tuple point);
 
     public Tuple colorAtObject(Shape object, Tuple point) {
-        Tuple pointInObjectSpace = inverse(object.transform).mul(point);
-        Tuple pointInPatternSpace = inverse(transform).mul(pointInObjectSpace);
+        Tuple pointInObjectSpace = object.inverseTransform().mul(point);
+        Tuple pointInPatternSpace = inverseTransform().mul(pointInObjectSpace);
         return colorAt(pointInPatternSpace);
     }
+
+    public Affine inverseTransform() {
+        Inverses current = Inverses.of(transform, inverses);
+        inverses = current;
+        return current.inverse;
+    }
 }
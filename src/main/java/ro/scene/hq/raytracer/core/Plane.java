@@ -5,6 +5,7 @@ import java.util.List;
 
 import static ro.scene.hq.raytracer.core.Intersection.intersection;
 import static ro.scene.hq.raytracer.core.Tuple.EPSILON;
+import static ro.scene.hq.raytracer.core.Tuple.point;
 import static ro.scene.hq.raytracer.core.Tuple.vector;
 
 public class Plane extends Shape {
@@ -23,6 +24,37 @@ public class Plane extends Shape {
         return Collections.singletonList(intersection(t, this));
     }
 
+    @Override
+    protected boolean localClosestHit(Ray r, double tMax, HitRecord record) {
+        if (Math.abs(r.direction.y) < EPSILON) {
+            return false;
+        }
+
+        double t = -r.origin.y / r.direction.y;
+        if (t <= 0.0 || t >= tMax) {
+            return false;
+        }
+        record.set(t, this);
+        return true;
+    }
+
+    @Override
+    protected boolean localAnyHit(Ray r, double tMin, double tMax) {
+        if (Math.abs(r.direction.y) < EPSILON) {
+            return false;
+        }
+
+        double t = -r.origin.y / r.direction.y;
+        return t > tMin && t < tMax;
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        return BoundingBox.bounding_box(
+                point(Double.NEGATIVE_INFINITY, 0, Double.NEGATIVE_INFINITY),
+                point(Double.POSITIVE_INFINITY, 0, Double.POSITIVE_INFINITY));
+    }
+
     @Override
     protected Tuple localNormalAt(Tuple localPoint) {
         return vector(0, 1, 0);
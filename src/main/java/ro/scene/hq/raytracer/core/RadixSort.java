@@ -0,0 +1,84 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+// Least significant digit radix sort of non-negative long keys that carries an int payload along.
+// Each pass histograms and scatters fixed chunks of the input concurrently; offsets are handed out
+// digit by digit and then chunk by chunk, so the sort stays stable.
+class RadixSort {
+    private static final int RADIX_BITS = 8;
+    private static final int BUCKETS = 1 << RADIX_BITS;
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    static void sort(long[] keys, int[] values, int keyBits, BvhSettings settings) {
+        int n = keys.length;
+        int chunks = n < settings.parallelThreshold
+                ? 1
+                : Math.max(1, Math.min(settings.pool.getParallelism() * 4, n / MIN_CHUNK_SIZE));
+        int chunkSize = (n + chunks - 1) / chunks;
+        int[][] offsets = new int[chunks][BUCKETS];
+
+        long[] sourceKeys = keys;
+        int[] sourceValues = values;
+        long[] targetKeys = new long[n];
+        int[] targetValues = new int[n];
+        for (int shift = 0; shift < keyBits; shift += RADIX_BITS) {
+            final int digitShift = shift;
+            final long[] fromKeys = sourceKeys;
+            final int[] fromValues = sourceValues;
+            final long[] toKeys = targetKeys;
+            final int[] toValues = targetValues;
+
+            forEachChunk(settings, chunks, chunk -> {
+                int[] counts = offsets[chunk];
+                Arrays.fill(counts, 0);
+                int end = Math.min(n, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < end; i++) {
+                    counts[digit(fromKeys[i], digitShift)]++;
+                }
+            });
+
+            int sum = 0;
+            for (int digit = 0; digit < BUCKETS; digit++) {
+                for (int chunk = 0; chunk < chunks; chunk++) {
+                    int count = offsets[chunk][digit];
+                    offsets[chunk][digit] = sum;
+                    sum += count;
+                }
+            }
+
+            forEachChunk(settings, chunks, chunk -> {
+                int[] next = offsets[chunk];
+                int end = Math.min(n, (chunk + 1) * chunkSize);
+                for (int i = chunk * chunkSize; i < end; i++) {
+                    int position = next[digit(fromKeys[i], digitShift)]++;
+                    toKeys[position] = fromKeys[i];
+                    toValues[position] = fromValues[i];
+                }
+            });
+
+            sourceKeys = toKeys;
+            sourceValues = toValues;
+            targetKeys = fromKeys;
+            targetValues = fromValues;
+        }
+
+        if (sourceKeys != keys) {
+            System.arraycopy(sourceKeys, 0, keys, 0, n);
+            System.arraycopy(sourceValues, 0, values, 0, n);
+        }
+    }
+
+    private static int digit(long key, int shift) {
+        return (int) ((key >>> shift) & (BUCKETS - 1));
+    }
+
+    private static void forEachChunk(BvhSettings settings, int chunks, IntConsumer body) {
+        if (chunks == 1) {
+            body.accept(0);
+        } else {
+            settings.pool.invoke(new BvhBuilder.ForAction(0, chunks, 1, body));
+        }
+    }
+}
@@ -3,10 +3,17 @@ package ro.scene.hq.raytracer.core;
 public class Ray {
     public final Tuple origin;
     public final Tuple direction;
+    // a shape Shape.any_hit passes over, as it is known to miss the ray; kept through transforms
+    public final Shape skipped;
 
     public Ray(Tuple origin, Tuple direction) {
+        this(origin, direction, null);
+    }
+
+    public Ray(Tuple origin, Tuple direction, Shape skipped) {
         this.origin = origin;
         this.direction = direction;
+        this.skipped = skipped;
     }
 
     public static Ray ray(Tuple origin, Tuple direction) {
@@ -14,10 +21,14 @@ public class Ray {
     }
 
     public static Tuple position(Ray r, double t) {
-        return r.origin.add(r.direction.mul(t));
+        return r.origin.addScaledInto(r.direction, t, new Tuple(0, 0, 0, 0));
     }
 
     public static Ray transform(Ray r, Matrix m) {
-        return ray(m.mul(r.origin), m.mul(r.direction));
+        return new Ray(m.mul(r.origin), m.mul(r.direction), r.skipped);
+    }
+
+    public static Ray transform(Ray r, Affine m) {
+        return new Ray(m.transformPoint(r.origin), m.transformVector(r.direction), r.skipped);
     }
 }
@@ -0,0 +1,52 @@
+package ro.scene.hq.raytracer.core;
+
+// Plain loops over the arrays, which C2 turns into vector instructions by itself for all but mul4x4.
+class ScalarKernels extends VectorKernels {
+    static final ScalarKernels INSTANCE = new ScalarKernels();
+
+    ScalarKernels() {
+    }
+
+    @Override
+    public String name() {
+        return "scalar";
+    }
+
+    @Override
+    public void transformPoints(Affine m, double[] xs, double[] ys, double[] zs, int count) {
+        for (int i = 0; i < count; i++) {
+            double x = xs[i];
+            double y = ys[i];
+            double z = zs[i];
+            xs[i] = m.m00 * x + m.m01 * y + m.m02 * z + m.m03;
+            ys[i] = m.m10 * x + m.m11 * y + m.m12 * z + m.m13;
+            zs[i] = m.m20 * x + m.m21 * y + m.m22 * z + m.m23;
+        }
+    }
+
+    @Override
+    public void directionsFrom(double ox, double oy, double oz, double[] xs, double[] ys, double[] zs, int count) {
+        for (int i = 0; i < count; i++) {
+            double x = xs[i] - ox;
+            double y = ys[i] - oy;
+            double z = zs[i] - oz;
+            double magnitude = Math.sqrt(x * x + y * y + z * z);
+            xs[i] = x / magnitude;
+            ys[i] = y / magnitude;
+            zs[i] = z / magnitude;
+        }
+    }
+
+    @Override
+    public void mul4x4(double[][] a, double[][] b, double[][] result) {
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                double value = 0;
+                for (int i = 0; i < 4; i++) {
+                    value += a[row][i] * b[i][col];
+                }
+                result[row][col] = value;
+            }
+        }
+    }
+}
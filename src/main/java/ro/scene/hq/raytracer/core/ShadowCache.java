@@ -0,0 +1,125 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The object that blocked the last shadow ray of each thread, which World.is_shadowed tests before
+ * searching the whole world: neighbouring points, traced one after the other by the same thread, are
+ * mostly shadowed by the same object. In a frozen world, where nothing moves (see Shape.freeze), groups and
+ * instances pass the primitive below them that blocked a ray up through `blocker`, and the entry holds that
+ * primitive along with the transform taking world rays to the space it lives in. Otherwise it holds the top
+ * level object, whose own test sees whatever changed below it. Either way an entry is dropped once the
+ * accelerator of the world or, without one, the top level objects no longer hold it, and by World.freeze
+ * and unfreeze. `clear` forgets them all along with the counters, and Camera.render calls it before every
+ * frame. Hits and misses are counted per thread and summed up on request.
+ */
+public class ShadowCache {
+    static final class Entry {
+        Shape occluder;
+        // world rays to the parent space of the occluder; null for a top level object
+        Affine toOccluder;
+        // false when the occluder was reached through an instance, which shares it with other instances
+        boolean skippable;
+        // what the occluder was found in: the accelerator of the world, or the top level object holding it
+        Accelerator accelerator;
+        Shape object;
+        long hits;
+        long misses;
+
+        void forget() {
+            occluder = null;
+            toOccluder = null;
+            accelerator = null;
+            object = null;
+        }
+    }
+
+    // what a group or an instance hands its parent when one of its children blocked a ray: the primitive
+    // that did, and the transform from the child's parent space to the primitive's parent space
+    static final class Blocker {
+        Shape primitive;
+        Affine toPrimitive;
+        boolean throughInstance;
+
+        void passUp(Shape child) {
+            if (child instanceof Group || child instanceof Instance) {
+                Affine inverse = child.inverseTransform();
+                toPrimitive = toPrimitive == null ? inverse : toPrimitive.mul(inverse);
+                throughInstance |= child instanceof Instance;
+            } else {
+                primitive = child;
+                toPrimitive = null;
+                throughInstance = false;
+            }
+        }
+    }
+
+    private static final ThreadLocal<Blocker> blockers = ThreadLocal.withInitial(Blocker::new);
+
+    static Blocker blocker() {
+        return blockers.get();
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final ThreadLocal<Entry> local = ThreadLocal.withInitial(this::register);
+
+    private synchronized Entry register() {
+        Entry e = new Entry();
+        entries.add(e);
+        return e;
+    }
+
+    Entry entry() {
+        return local.get();
+    }
+
+    // between frames only: the counters of the other threads are reset from this one
+    public synchronized void clear() {
+        for (Entry e : entries) {
+            e.forget();
+            e.hits = 0;
+            e.misses = 0;
+        }
+    }
+
+    // the occluders only, keeping the counters; between frames only, as clear
+    synchronized void forget() {
+        for (Entry e : entries) {
+            e.forget();
+        }
+    }
+
+    // shadow rays answered by the remembered primitive
+    public synchronized long hits() {
+        long hits = 0;
+        for (Entry e : entries) {
+            hits += e.hits;
+        }
+        return hits;
+    }
+
+    // shadow rays that needed the full search, unshadowed ones included
+    public synchronized long misses() {
+        long misses = 0;
+        for (Entry e : entries) {
+            misses += e.misses;
+        }
+        return misses;
+    }
+
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0.0 : hits / (double) total;
+    }
+
+    @Override
+    public String toString() {
+        return "ShadowCache{" +
+                "hits=" + hits() +
+                ", misses=" + misses() +
+                ", hitRate=" + hitRate() +
+                '}';
+    }
+}
@@ -3,6 +3,7 @@ package ro.scene.hq.raytracer.core;
 import java.util.List;
 import java.util.Objects;
 
+import static ro.scene.hq.raytracer.core.BoundingBox.infinite_box;
 import static ro.scene.hq.raytracer.core.Matrix.*;
 import static ro.scene.hq.raytracer.core.Ray.transform;
 import static ro.scene.hq.raytracer.core.Tuple.*;
@@ -11,43 +12,189 @@ public abstract class Shape {
     public Matrix transform = identity(4);
     public Material material = Material.material();
     public Shape parent;
+    // shapes that don't cast shadows are skipped by shadow rays, along with all of their children
+    public boolean castsShadow = true;
+    // computed again whenever `transform` is given another matrix
+    private Inverses inverses;
+    // set by freeze: the transforms of the whole parent chain folded into one each way
+    private WorldTransforms frozen;
+
+    private static final class WorldTransforms {
+        final Affine worldToObject;
+        final Affine normalToWorld; // 3x3 part only
+
+        WorldTransforms(Affine worldToObject, Affine normalToWorld) {
+            this.worldToObject = worldToObject;
+            this.normalToWorld = normalToWorld;
+        }
+    }
 
     public static void set_transform(Shape s, Matrix transform) {
         s.transform = transform;
     }
 
+    public Affine inverseTransform() {
+        return inverses().inverse;
+    }
+
+    // only the 3x3 part, which is all that normals need
+    public Affine inverseTransposeTransform() {
+        return inverses().inverseTranspose;
+    }
+
+    private Inverses inverses() {
+        // read once, so that another thread replacing it can't hand us half of each
+        Inverses current = Inverses.of(transform, inverses);
+        inverses = current;
+        return current;
+    }
+
     protected abstract List<Intersection> localIntersect(Ray r);
 
     public static List<Intersection> intersect(Shape s, Ray ray) {
-        Ray localRay = transform(ray, inverse(s.transform));
+        Ray localRay = transform(ray, s.inverseTransform());
         return s.localIntersect(localRay);
     }
 
+    // The nearest intersection with t in (0, tMax), written to `record`; returns false, leaving the record
+    // alone, when there is none. Transforms keep t the same in every space, so tMax carries over as is.
+    public static boolean closest_hit(Shape s, Ray ray, double tMax, HitRecord record) {
+        Ray localRay = transform(ray, s.inverseTransform());
+        return s.localClosestHit(localRay, tMax, record);
+    }
+
+    // overridden by shapes that can find their nearest hit without listing them all
+    protected boolean localClosestHit(Ray localRay, double tMax, HitRecord record) {
+        return record.keepNearest(localIntersect(localRay), tMax);
+    }
+
+    // Whether the shape, if it casts shadows, has any intersection with t in (tMin, tMax). Meant for
+    // shadow rays, which don't care which hit it is, so the search can stop at the first one.
+    public static boolean any_hit(Shape s, Ray ray, double tMin, double tMax) {
+        if (!s.castsShadow || s == ray.skipped) {
+            return false;
+        }
+        Ray localRay = transform(ray, s.inverseTransform());
+        return s.localAnyHit(localRay, tMin, tMax);
+    }
+
+    protected boolean localAnyHit(Ray localRay, double tMin, double tMax) {
+        for (Intersection i : localIntersect(localRay)) {
+            if (i.t > tMin && i.t < tMax) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     protected abstract Tuple localNormalAt(Tuple localPoint);
 
+    // for shapes that need more than the point to know their normal, like the face of a mesh
+    protected Tuple localNormalAt(Tuple localPoint, Intersection hit) {
+        return localNormalAt(localPoint);
+    }
+
     public static Tuple normal_at(Shape s, Tuple point) {
         Tuple localPoint = s.worldToObject(point);
         Tuple localNormal = s.localNormalAt(localPoint);
-        Tuple worldNormal = normalize(s.normalToWorld(localNormal));
+        Tuple worldNormal = s.normalToWorld(localNormal);
+        worldNormal.normalizeInto(worldNormal);
 //        worldNormal.w = 0;
         return worldNormal;
     }
 
-    public Tuple worldToObject(Tuple worldPoint) {
-        Matrix allTransforms = identity(4);
+    public static Tuple normal_at(Shape s, Tuple point, Intersection hit) {
+        if (hit.instance == null) {
+            Tuple localPoint = s.worldToObject(point);
+            Tuple localNormal = s.localNormalAt(localPoint, hit);
+            Tuple worldNormal = s.normalToWorld(localNormal);
+            return worldNormal.normalizeInto(worldNormal);
+        }
+        // go through the instances first, the shape's own parent chain stops at the shared prototype
+        Tuple localPoint = hit.instance.worldToObject(point);
+        if (hit.inner != null) {
+            for (Instance i : hit.inner) {
+                localPoint = i.worldToObject(localPoint);
+            }
+        }
+        localPoint = s.worldToObject(localPoint);
+        Tuple localNormal = s.localNormalAt(localPoint, hit);
+        Tuple worldNormal = s.normalToWorld(localNormal);
+        if (hit.inner != null) {
+            for (int i = hit.inner.length - 1; i >= 0; i--) {
+                worldNormal = hit.inner[i].normalToWorld(worldNormal);
+            }
+        }
+        worldNormal = hit.instance.normalToWorld(worldNormal);
+        return worldNormal.normalizeInto(worldNormal);
+    }
+
+    // object space bounds; shapes that do not override this are treated as unbounded
+    public BoundingBox bounds() {
+        return infinite_box();
+    }
+
+    public BoundingBox parentSpaceBounds() {
+        return bounds().transform(transform);
+    }
+
+    public BoundingBox worldBounds() {
+        Matrix objectToWorld = identity(4);
         Shape currentShape = this;
         while (currentShape != null) {
-            allTransforms = currentShape.transform.mul(allTransforms);
+            objectToWorld = currentShape.transform.mul(objectToWorld);
             currentShape = currentShape.parent;
         }
-        return inverse(allTransforms).mul(worldPoint);
+        return bounds().transform(objectToWorld);
+    }
+
+    // Folds the transforms from the world down to this shape into one matrix for points and one for
+    // normals, so that worldToObject and normalToWorld no longer walk up the parents. Groups freeze their
+    // children too. The transforms of the shape and its parents must not change until the next freeze.
+    public void freeze() {
+        frozen = worldTransforms();
+    }
+
+    // back to following the parent chain on every call, for scenes that are being changed
+    public void unfreeze() {
+        frozen = null;
+    }
+
+    public boolean isFrozen() {
+        return frozen != null;
+    }
+
+    // parents frozen before their children (as groups do) make this a single step
+    private WorldTransforms worldTransforms() {
+        WorldTransforms parentTransforms = parent == null ? null
+                : parent.frozen != null ? parent.frozen : parent.worldTransforms();
+        if (parentTransforms == null) {
+            return new WorldTransforms(inverseTransform(), inverseTransposeTransform());
+        }
+        return new WorldTransforms(inverseTransform().mul(parentTransforms.worldToObject),
+                parentTransforms.normalToWorld.mul(inverseTransposeTransform()));
+    }
+
+    public Tuple worldToObject(Tuple worldPoint) {
+        WorldTransforms current = frozen;
+        if (current != null) {
+            return current.worldToObject.transformPoint(worldPoint);
+        }
+        Tuple parentPoint = parent != null ? parent.worldToObject(worldPoint) : worldPoint;
+        return inverseTransform().transformPoint(parentPoint);
     }
 
     public Tuple normalToWorld(Tuple localNormal) {
+        WorldTransforms current = frozen;
+        if (current != null) {
+            Tuple worldNormal = current.normalToWorld.transformVector(localNormal);
+            return worldNormal.normalizeInto(worldNormal);
+        }
         Tuple currentNormal = normalize(vector(localNormal.x, localNormal.y, localNormal.z));
         Shape currentShape = this;
         while (currentShape != null) {
-            currentNormal = normalize(transpose(inverse(currentShape.transform)).mul(currentNormal));
+            currentNormal = currentShape.inverseTransposeTransform().transformVector(currentNormal);
+            currentNormal.normalizeInto(currentNormal);
             currentShape = currentShape.parent;
         }
         return currentNormal;
@@ -0,0 +1,41 @@
+package ro.scene.hq.raytracer.core;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+// VectorKernels with four double lanes where C2 doesn't get there on its own, which is mul4x4 only. The
+// loops over arrays are left to ScalarKernels: C2 already vectorizes those, and hand written lanes took
+// about 1.0 ns per point against 0.7 for transformPoints and no less for directionsFrom (see
+// VectorKernelsBenchmark). Only ever loaded by VectorKernels.select, which falls back to the scalar
+// backend when this fails.
+final class SimdKernels extends ScalarKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+
+    SimdKernels() {
+        // without hardware for it, the vector API is emulated and far slower than plain loops
+        if (DoubleVector.SPECIES_PREFERRED.vectorBitSize() < SPECIES.vectorBitSize()) {
+            throw new UnsupportedOperationException("No 256 bit vectors on this machine");
+        }
+    }
+
+    @Override
+    public String name() {
+        return "simd";
+    }
+
+    // each row of the result is the rows of b weighted by the row of a, added up in the order of the scalar
+    // loop, starting from zero like it does
+    @Override
+    public void mul4x4(double[][] a, double[][] b, double[][] result) {
+        DoubleVector b0 = DoubleVector.fromArray(SPECIES, b[0], 0);
+        DoubleVector b1 = DoubleVector.fromArray(SPECIES, b[1], 0);
+        DoubleVector b2 = DoubleVector.fromArray(SPECIES, b[2], 0);
+        DoubleVector b3 = DoubleVector.fromArray(SPECIES, b[3], 0);
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        for (int row = 0; row < 4; row++) {
+            double[] r = a[row];
+            zero.add(b0.mul(r[0])).add(b1.mul(r[1])).add(b2.mul(r[2])).add(b3.mul(r[3]))
+                    .intoArray(result[row], 0);
+        }
+    }
+}
@@ -0,0 +1,463 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.Arrays;
+
+import static ro.scene.hq.raytracer.core.BvhBuilder.*;
+
+// Split bvh builder: on top of the binned object splits of BvhBuilder it tries cutting space itself,
+// clipping the primitives that straddle the plane so that each side only gets the part lying on it.
+// A primitive can end up in several leaves this way, which pays off for long thin triangles whose boxes
+// overlap everything around them. The number of references is capped by settings.maxReferenceGrowth.
+// The build runs on the calling thread since leaves are numbered in the order they get emitted.
+class SpatialSplitBuilder {
+    // spatial splits are only tried when the two sides of the best object split overlap by more than
+    // this fraction of the root's surface area
+    static final double OVERLAP_THRESHOLD = 1e-5;
+
+    private final BvhSettings settings;
+    private final double[] boxes;
+    private final double[] triangles; // 9 coordinates per primitive, NaN first for ones that aren't triangles
+    private double rootArea;
+    private int budget;
+    private int[] output;
+    private int outputSize;
+    // primitive index of every slot covered by the leaves, with repeats for split primitives
+    int[] order;
+
+    // the references of a node: primitive index and the box of the part of the primitive inside the node
+    private static class References {
+        int[] primitives;
+        double[] boxes;
+        int size;
+
+        References(int capacity) {
+            primitives = new int[capacity];
+            boxes = new double[capacity * 6];
+        }
+
+        void add(int primitive, double[] source, int offset) {
+            if (size == primitives.length) {
+                primitives = Arrays.copyOf(primitives, size * 2 + 1);
+                boxes = Arrays.copyOf(boxes, (size * 2 + 1) * 6);
+            }
+            primitives[size] = primitive;
+            System.arraycopy(source, offset, boxes, size * 6, 6);
+            size++;
+        }
+    }
+
+    private static class Split {
+        int axis = -1;
+        int bin;
+        double cost = Double.POSITIVE_INFINITY;
+        // spatial splits only
+        double plane;
+        double[] left;
+        double[] right;
+    }
+
+    SpatialSplitBuilder(double[] boxes, double[] triangles, BvhSettings settings) {
+        this.settings = settings;
+        this.boxes = boxes;
+        this.triangles = triangles;
+    }
+
+    Bvh.Node build() {
+        int n = boxes.length / 6;
+        References all = new References(n);
+        double[] bounds = emptyBounds();
+        for (int i = 0; i < n; i++) {
+            all.add(i, boxes, i * 6);
+            growBounds(bounds, 0, boxes, i * 6);
+        }
+        rootArea = surfaceArea(bounds, 0);
+        budget = (int) (n * (settings.maxReferenceGrowth - 1.0));
+        output = new int[n];
+        Bvh.Node root = build(all);
+        order = Arrays.copyOf(output, outputSize);
+        return root;
+    }
+
+    private Bvh.Node build(References refs) {
+        int count = refs.size;
+        double[] bounds = emptyBounds();
+        double[] centroidBounds = emptyBounds();
+        double[] centroid = new double[3];
+        for (int i = 0; i < count; i++) {
+            growBounds(bounds, 0, refs.boxes, i * 6);
+            centroid(refs, i, centroid);
+            growBounds(centroidBounds, centroid, 0, 0);
+        }
+        Bvh.Node node = new Bvh.Node(toBox(bounds));
+        if (count == 1) {
+            return leaf(node, refs);
+        }
+
+        double nodeArea = surfaceArea(bounds, 0);
+        Split object = objectSplit(refs, centroidBounds, nodeArea);
+        Split spatial = null;
+        if (object.axis >= 0 && budget > 0 && rootArea > 0.0) {
+            double[] overlap = new double[6];
+            for (int axis = 0; axis < 3; axis++) {
+                overlap[axis] = Math.max(object.left[axis], object.right[axis]);
+                overlap[axis + 3] = Math.min(object.left[axis + 3], object.right[axis + 3]);
+            }
+            if (surfaceArea(overlap, 0) / rootArea > OVERLAP_THRESHOLD) {
+                spatial = spatialSplit(refs, bounds, nodeArea);
+            }
+        }
+
+        Split best = spatial != null && spatial.cost < object.cost ? spatial : object;
+        double leafCost = settings.intersectionCost * count;
+        if (best.axis < 0 && count <= settings.maxLeafSize) {
+            return leaf(node, refs);
+        }
+        if (best.axis >= 0 && best.cost >= leafCost && count <= settings.maxLeafSize) {
+            return leaf(node, refs);
+        }
+
+        References left = new References(count);
+        References right = new References(count);
+        if (best == spatial) {
+            node.axis = spatial.axis;
+            partitionSpatial(refs, spatial, left, right);
+            if (left.size > 0 && right.size > 0) {
+                return interior(node, left, right);
+            }
+            // rounding left the plane outside of all references, so the object split has to do
+            left.size = 0;
+            right.size = 0;
+        }
+        if (object.axis >= 0) {
+            node.axis = object.axis;
+            double cmin = centroidBounds[object.axis];
+            double extent = centroidBounds[object.axis + 3] - cmin;
+            for (int i = 0; i < count; i++) {
+                centroid(refs, i, centroid);
+                boolean toLeft = binIndex(centroid[object.axis], cmin, extent) <= object.bin;
+                (toLeft ? left : right).add(refs.primitives[i], refs.boxes, i * 6);
+            }
+        } else {
+            // all centroids in the same spot and nothing to gain from cutting them: halve the list
+            node.axis = widestAxis(bounds);
+            for (int i = 0; i < count; i++) {
+                (i < count / 2 ? left : right).add(refs.primitives[i], refs.boxes, i * 6);
+            }
+        }
+        return interior(node, left, right);
+    }
+
+    private Bvh.Node leaf(Bvh.Node node, References refs) {
+        if (outputSize + refs.size > output.length) {
+            output = Arrays.copyOf(output, Math.max(output.length * 2, outputSize + refs.size));
+        }
+        System.arraycopy(refs.primitives, 0, output, outputSize, refs.size);
+        node.start = outputSize;
+        node.count = refs.size;
+        outputSize += refs.size;
+        return node;
+    }
+
+    private Bvh.Node interior(Bvh.Node node, References left, References right) {
+        node.left = build(left);
+        node.right = build(right);
+        return node;
+    }
+
+    // same binned surface area heuristic as BvhBuilder.sahSplit, also keeping the bounds of both sides
+    private Split objectSplit(References refs, double[] centroidBounds, double nodeArea) {
+        int binCount = settings.binCount;
+        int count = refs.size;
+        int[] binCounts = new int[binCount];
+        double[] binBounds = new double[binCount * 6];
+        double[] rightAreas = new double[binCount];
+        double[] centroid = new double[3];
+
+        Split best = new Split();
+        for (int axis = 0; axis < 3; axis++) {
+            double cmin = centroidBounds[axis];
+            double extent = centroidBounds[axis + 3] - cmin;
+            if (extent <= 0.0) {
+                continue;
+            }
+
+            Arrays.fill(binCounts, 0);
+            for (int b = 0; b < binCount; b++) {
+                resetBounds(binBounds, b * 6);
+            }
+            for (int i = 0; i < count; i++) {
+                centroid(refs, i, centroid);
+                int b = binIndex(centroid[axis], cmin, extent);
+                binCounts[b]++;
+                growBounds(binBounds, b * 6, refs.boxes, i * 6);
+            }
+
+            double[] acc = emptyBounds();
+            for (int b = binCount - 1; b > 0; b--) {
+                growBounds(acc, 0, binBounds, b * 6);
+                rightAreas[b] = surfaceArea(acc, 0);
+            }
+            acc = emptyBounds();
+            int leftCount = 0;
+            for (int b = 0; b < binCount - 1; b++) {
+                growBounds(acc, 0, binBounds, b * 6);
+                leftCount += binCounts[b];
+                int rightCount = count - leftCount;
+                if (leftCount == 0 || rightCount == 0) {
+                    continue;
+                }
+                double cost = settings.traversalCost + settings.intersectionCost *
+                        (surfaceArea(acc, 0) * leftCount + rightAreas[b + 1] * rightCount) / nodeArea;
+                if (cost < best.cost) {
+                    best.cost = cost;
+                    best.axis = axis;
+                    best.bin = b;
+                }
+            }
+        }
+
+        if (best.axis >= 0) {
+            best.left = emptyBounds();
+            best.right = emptyBounds();
+            double cmin = centroidBounds[best.axis];
+            double extent = centroidBounds[best.axis + 3] - cmin;
+            for (int i = 0; i < count; i++) {
+                centroid(refs, i, centroid);
+                boolean toLeft = binIndex(centroid[best.axis], cmin, extent) <= best.bin;
+                growBounds(toLeft ? best.left : best.right, 0, refs.boxes, i * 6);
+            }
+        }
+        return best;
+    }
+
+    // Bins the node's box into equally wide slabs along each axis, clipping every reference to the slabs
+    // it spans. A reference counts as entering its first slab and exiting its last one, so sweeping the
+    // entries from the left and the exits from the right gives the reference count of both sides.
+    private Split spatialSplit(References refs, double[] bounds, double nodeArea) {
+        int binCount = settings.binCount;
+        int count = refs.size;
+        int[] entries = new int[binCount];
+        int[] exits = new int[binCount];
+        double[] binBounds = new double[binCount * 6];
+        double[] leftAreas = new double[binCount];
+        double[] piece = new double[6];
+        double[] left = new double[6];
+        double[] right = new double[6];
+
+        Split best = new Split();
+        for (int axis = 0; axis < 3; axis++) {
+            double lo = bounds[axis];
+            double binWidth = (bounds[axis + 3] - lo) / binCount;
+            if (binWidth <= 0.0) {
+                continue;
+            }
+
+            Arrays.fill(entries, 0);
+            Arrays.fill(exits, 0);
+            for (int b = 0; b < binCount; b++) {
+                resetBounds(binBounds, b * 6);
+            }
+            for (int i = 0; i < count; i++) {
+                int first = spatialBin(refs.boxes[i * 6 + axis], lo, binWidth);
+                int last = spatialBin(refs.boxes[i * 6 + axis + 3], lo, binWidth);
+                entries[first]++;
+                exits[last]++;
+                System.arraycopy(refs.boxes, i * 6, piece, 0, 6);
+                for (int b = first; b < last; b++) {
+                    splitReference(refs.primitives[i], piece, axis, lo + (b + 1) * binWidth, left, right);
+                    growBounds(binBounds, b * 6, left, 0);
+                    System.arraycopy(right, 0, piece, 0, 6);
+                }
+                growBounds(binBounds, last * 6, piece, 0);
+            }
+
+            double[] acc = emptyBounds();
+            for (int b = 0; b < binCount - 1; b++) {
+                growBounds(acc, 0, binBounds, b * 6);
+                leftAreas[b] = surfaceArea(acc, 0);
+            }
+            acc = emptyBounds();
+            int rightCount = 0;
+            int leftCount = count;
+            for (int b = binCount - 1; b > 0; b--) {
+                growBounds(acc, 0, binBounds, b * 6);
+                rightCount += exits[b];
+                leftCount -= entries[b];
+                // the side counts include the references straddling the plane, which get duplicated
+                int duplicates = leftCount + rightCount - count;
+                if (leftCount == 0 || rightCount == 0 || duplicates > budget ||
+                        (leftCount == count && rightCount == count)) {
+                    continue;
+                }
+                double cost = settings.traversalCost + settings.intersectionCost *
+                        (leftAreas[b - 1] * leftCount + surfaceArea(acc, 0) * rightCount) / nodeArea;
+                if (cost < best.cost) {
+                    best.cost = cost;
+                    best.axis = axis;
+                    best.bin = b - 1;
+                    best.plane = lo + b * binWidth;
+                }
+            }
+        }
+
+        if (best.axis >= 0) {
+            double lo = bounds[best.axis];
+            double binWidth = (bounds[best.axis + 3] - lo) / binCount;
+            best.left = emptyBounds();
+            best.right = emptyBounds();
+            for (int i = 0; i < count; i++) {
+                int first = spatialBin(refs.boxes[i * 6 + best.axis], lo, binWidth);
+                int last = spatialBin(refs.boxes[i * 6 + best.axis + 3], lo, binWidth);
+                if (last <= best.bin) {
+                    growBounds(best.left, 0, refs.boxes, i * 6);
+                } else if (first > best.bin) {
+                    growBounds(best.right, 0, refs.boxes, i * 6);
+                } else {
+                    System.arraycopy(refs.boxes, i * 6, piece, 0, 6);
+                    splitReference(refs.primitives[i], piece, best.axis, best.plane, left, right);
+                    growBounds(best.left, 0, left, 0);
+                    growBounds(best.right, 0, right, 0);
+                }
+            }
+        }
+        return best;
+    }
+
+    // Sends every reference to the side(s) of the plane it lies on. A straddling reference is kept whole on
+    // one side instead of being split when that turns out cheaper, which saves the duplicate.
+    private void partitionSpatial(References refs, Split split, References left, References right) {
+        double[] piece = new double[6];
+        double[] leftPiece = new double[6];
+        double[] rightPiece = new double[6];
+        double[] grown = new double[6];
+
+        // the side counts and bounds get updated as references are unsplit
+        double[] leftBounds = split.left;
+        double[] rightBounds = split.right;
+        int leftCount = 0;
+        int rightCount = 0;
+        boolean[] straddling = new boolean[refs.size];
+        for (int i = 0; i < refs.size; i++) {
+            double min = refs.boxes[i * 6 + split.axis];
+            double max = refs.boxes[i * 6 + split.axis + 3];
+            if (max <= split.plane) {
+                leftCount++;
+            } else if (min >= split.plane) {
+                rightCount++;
+            } else {
+                straddling[i] = true;
+                leftCount++;
+                rightCount++;
+            }
+        }
+
+        for (int i = 0; i < refs.size; i++) {
+            if (!straddling[i]) {
+                boolean toLeft = refs.boxes[i * 6 + split.axis + 3] <= split.plane;
+                (toLeft ? left : right).add(refs.primitives[i], refs.boxes, i * 6);
+                continue;
+            }
+            System.arraycopy(refs.boxes, i * 6, piece, 0, 6);
+            splitReference(refs.primitives[i], piece, split.axis, split.plane, leftPiece, rightPiece);
+            if (isEmpty(leftPiece)) {
+                right.add(refs.primitives[i], rightPiece, 0);
+                leftCount--;
+                continue;
+            }
+            if (isEmpty(rightPiece)) {
+                left.add(refs.primitives[i], leftPiece, 0);
+                rightCount--;
+                continue;
+            }
+
+            double leftArea = surfaceArea(leftBounds, 0);
+            double rightArea = surfaceArea(rightBounds, 0);
+            double splitCost = leftArea * leftCount + rightArea * rightCount;
+            System.arraycopy(leftBounds, 0, grown, 0, 6);
+            growBounds(grown, 0, piece, 0);
+            double leftOnlyCost = surfaceArea(grown, 0) * leftCount + rightArea * (rightCount - 1);
+            System.arraycopy(rightBounds, 0, grown, 0, 6);
+            growBounds(grown, 0, piece, 0);
+            double rightOnlyCost = leftArea * (leftCount - 1) + surfaceArea(grown, 0) * rightCount;
+
+            if (leftOnlyCost < splitCost && leftOnlyCost <= rightOnlyCost) {
+                left.add(refs.primitives[i], piece, 0);
+                growBounds(leftBounds, 0, piece, 0);
+                rightCount--;
+            } else if (rightOnlyCost < splitCost) {
+                right.add(refs.primitives[i], piece, 0);
+                growBounds(rightBounds, 0, piece, 0);
+                leftCount--;
+            } else {
+                left.add(refs.primitives[i], leftPiece, 0);
+                right.add(refs.primitives[i], rightPiece, 0);
+                budget--;
+            }
+        }
+    }
+
+    // Cuts the part of a primitive inside `box` with the plane at `position` on `axis`, giving the box of
+    // what lies on either side. Triangles are clipped exactly; for anything else only the box is known.
+    private void splitReference(int primitive, double[] box, int axis, double position,
+                                double[] left, double[] right) {
+        if (triangles == null || Double.isNaN(triangles[primitive * 9])) {
+            System.arraycopy(box, 0, left, 0, 6);
+            System.arraycopy(box, 0, right, 0, 6);
+            left[axis + 3] = Math.min(left[axis + 3], position);
+            right[axis] = Math.max(right[axis], position);
+            return;
+        }
+
+        resetBounds(left, 0);
+        resetBounds(right, 0);
+        double[] crossing = new double[3];
+        for (int v = 0; v < 3; v++) {
+            int a = primitive * 9 + v * 3;
+            int b = primitive * 9 + (v + 1) % 3 * 3;
+            double va = triangles[a + axis];
+            double vb = triangles[b + axis];
+            if (va <= position) {
+                growBounds(left, triangles, a, a);
+            }
+            if (va >= position) {
+                growBounds(right, triangles, a, a);
+            }
+            if ((va < position && vb > position) || (va > position && vb < position)) {
+                double s = (position - va) / (vb - va);
+                for (int k = 0; k < 3; k++) {
+                    crossing[k] = triangles[a + k] + s * (triangles[b + k] - triangles[a + k]);
+                }
+                crossing[axis] = position;
+                growBounds(left, crossing, 0, 0);
+                growBounds(right, crossing, 0, 0);
+            }
+        }
+        // the reference only stands for the part of the triangle inside its box
+        for (int k = 0; k < 3; k++) {
+            left[k] = Math.max(left[k], box[k]);
+            left[k + 3] = Math.min(left[k + 3], box[k + 3]);
+            right[k] = Math.max(right[k], box[k]);
+            right[k + 3] = Math.min(right[k + 3], box[k + 3]);
+        }
+    }
+
+    private static boolean isEmpty(double[] box) {
+        return box[0] > box[3] || box[1] > box[4] || box[2] > box[5];
+    }
+
+    private static void centroid(References refs, int i, double[] result) {
+        for (int axis = 0; axis < 3; axis++) {
+            result[axis] = (refs.boxes[i * 6 + axis] + refs.boxes[i * 6 + axis + 3]) / 2.0;
+        }
+    }
+
+    private int binIndex(double centroid, double cmin, double extent) {
+        int b = (int) (settings.binCount * ((centroid - cmin) / extent));
+        return Math.min(b, settings.binCount - 1);
+    }
+
+    private int spatialBin(double value, double lo, double binWidth) {
+        int b = (int) ((value - lo) / binWidth);
+        return Math.max(0, Math.min(b, settings.binCount - 1));
+    }
+}
@@ -41,6 +41,58 @@ public class Sphere extends Shape {
         return Arrays.asList(intersection(t1, this), intersection(t2, this));
     }
 
+    // localIntersect without the list, with the same arithmetic so that both give the same t
+    @Override
+    protected boolean localClosestHit(Ray r, double tMax, HitRecord record) {
+        Tuple d = r.direction;
+        double sx = r.origin.x - origin.x;
+        double sy = r.origin.y - origin.y;
+        double sz = r.origin.z - origin.z;
+        double sw = r.origin.w - origin.w;
+        double a = d.x * d.x + d.y * d.y + d.z * d.z + d.w * d.w;
+        double b = 2.0 * (d.x * sx + d.y * sy + d.z * sz + d.w * sw);
+        double c = (sx * sx + sy * sy + sz * sz + sw * sw) - 1.0;
+
+        double discriminant = b * b - 4.0 * a * c;
+        if (discriminant < 0.0) {
+            return false;
+        }
+
+        double t1 = (-b - Math.sqrt(discriminant)) / (2.0 * a);
+        double t = t1 > 0.0 ? t1 : (-b + Math.sqrt(discriminant)) / (2.0 * a);
+        if (t <= 0.0 || t >= tMax) {
+            return false;
+        }
+        record.set(t, this);
+        return true;
+    }
+
+    @Override
+    protected boolean localAnyHit(Ray r, double tMin, double tMax) {
+        Tuple d = r.direction;
+        double sx = r.origin.x - origin.x;
+        double sy = r.origin.y - origin.y;
+        double sz = r.origin.z - origin.z;
+        double sw = r.origin.w - origin.w;
+        double a = d.x * d.x + d.y * d.y + d.z * d.z + d.w * d.w;
+        double b = 2.0 * (d.x * sx + d.y * sy + d.z * sz + d.w * sw);
+        double c = (sx * sx + sy * sy + sz * sz + sw * sw) - 1.0;
+
+        double discriminant = b * b - 4.0 * a * c;
+        if (discriminant < 0.0) {
+            return false;
+        }
+
+        double t1 = (-b - Math.sqrt(discriminant)) / (2.0 * a);
+        double t2 = (-b + Math.sqrt(discriminant)) / (2.0 * a);
+        return (t1 > tMin && t1 < tMax) || (t2 > tMin && t2 < tMax);
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        return BoundingBox.bounding_box(point(-1, -1, -1), point(1, 1, 1));
+    }
+
     @Override
     protected Tuple localNormalAt(Tuple localPoint) {
         return vector(localPoint.x, localPoint.y, localPoint.z);
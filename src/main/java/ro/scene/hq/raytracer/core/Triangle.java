@@ -12,32 +12,140 @@ public class Triangle extends Shape {
     public Tuple p1, p2, p3;
     public Tuple e1, e2;
     public Tuple normal;
+    // p1, e1 and e2 as plain numbers for the allocation free intersection test
+    final double[] data = new double[9];
 
     @Override
     protected List<Intersection> localIntersect(Ray r) {
-        Tuple dirCrossE2 = cross(r.direction, e2);
-        double det = dot(e1, dirCrossE2);
+        HitRecord record = new HitRecord();
+        if (!intersect(r.origin.x, r.origin.y, r.origin.z, r.direction.x, r.direction.y, r.direction.z, record)) {
+            return Collections.emptyList();
+        }
+        return intersections(record.toIntersection());
+    }
+
+    @Override
+    protected boolean localClosestHit(Ray r, double tMax, HitRecord record) {
+        double t = record.t;
+        double u = record.u;
+        double v = record.v;
+        if (intersect(data[0], data[1], data[2], data[3], data[4], data[5], data[6], data[7], data[8],
+                r.origin.x, r.origin.y, r.origin.z, r.direction.x, r.direction.y, r.direction.z, record)
+                && record.t > 0.0 && record.t < tMax) {
+            record.object = this;
+            record.instance = null;
+            record.inner = null;
+            record.face = -1;
+            return true;
+        }
+        // the kernel wrote its hit anyway
+        record.t = t;
+        record.u = u;
+        record.v = v;
+        return false;
+    }
+
+    @Override
+    protected boolean localAnyHit(Ray r, double tMin, double tMax) {
+        return hits(data[0], data[1], data[2], data[3], data[4], data[5], data[6], data[7], data[8],
+                r.origin.x, r.origin.y, r.origin.z, r.direction.x, r.direction.y, r.direction.z, tMin, tMax);
+    }
+
+    // Same test as localIntersect on a ray in object space given by its components, reading the corner and
+    // edges from `data` and writing any hit to `record`, so that nothing gets allocated.
+    public boolean intersect(double ox, double oy, double oz, double dx, double dy, double dz, HitRecord record) {
+        if (!intersect(data[0], data[1], data[2], data[3], data[4], data[5], data[6], data[7], data[8],
+                ox, oy, oz, dx, dy, dz, record)) {
+            return false;
+        }
+        record.object = this;
+        record.face = -1;
+        return true;
+    }
+
+    // Moller-Trumbore on the triangle with corner p1 and edges e1, e2; sets t, u and v of `record` on a
+    // hit and leaves it alone otherwise. Shared with the meshes, which keep their corners in arrays.
+    static boolean intersect(double p1x, double p1y, double p1z,
+                             double e1x, double e1y, double e1z,
+                             double e2x, double e2y, double e2z,
+                             double ox, double oy, double oz, double dx, double dy, double dz, HitRecord record) {
+        // direction x e2
+        double px = dy * e2z - dz * e2y;
+        double py = dz * e2x - dx * e2z;
+        double pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
         // test for ray parallel to the triangle
         if (Math.abs(det) < EPSILON) {
-            return Collections.emptyList();
+            return false;
         }
 
         double f = 1.0 / det;
-        Tuple p1ToOrigin = r.origin.sub(p1);
-        double u = f * dot(p1ToOrigin, dirCrossE2);
+        double sx = ox - p1x;
+        double sy = oy - p1y;
+        double sz = oz - p1z;
+        double u = f * (sx * px + sy * py + sz * pz);
         if (u < 0 || u > 1) {
-            return Collections.emptyList();
+            return false;
         }
 
-        Tuple originCrossE1 = cross(p1ToOrigin, e1);
-        double v = f * dot(r.direction, originCrossE1);
+        // p1ToOrigin x e1
+        double qx = sy * e1z - sz * e1y;
+        double qy = sz * e1x - sx * e1z;
+        double qz = sx * e1y - sy * e1x;
+        double v = f * (dx * qx + dy * qy + dz * qz);
         if (v < 0 || (u + v) > 1) {
-            return Collections.emptyList();
+            return false;
         }
 
         // finally we have an intersection
-        double t = f * dot(e2, originCrossE1);
-        return intersections(intersection(t, this));
+        record.t = f * (e2x * qx + e2y * qy + e2z * qz);
+        record.u = u;
+        record.v = v;
+        return true;
+    }
+
+    // the same test for shadow rays, which only ask whether the hit lies in (tMin, tMax): nothing is written
+    static boolean hits(double p1x, double p1y, double p1z,
+                        double e1x, double e1y, double e1z,
+                        double e2x, double e2y, double e2z,
+                        double ox, double oy, double oz, double dx, double dy, double dz,
+                        double tMin, double tMax) {
+        double px = dy * e2z - dz * e2y;
+        double py = dz * e2x - dx * e2z;
+        double pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (Math.abs(det) < EPSILON) {
+            return false;
+        }
+
+        double f = 1.0 / det;
+        double sx = ox - p1x;
+        double sy = oy - p1y;
+        double sz = oz - p1z;
+        double u = f * (sx * px + sy * py + sz * pz);
+        if (u < 0 || u > 1) {
+            return false;
+        }
+
+        double qx = sy * e1z - sz * e1y;
+        double qy = sz * e1x - sx * e1z;
+        double qz = sx * e1y - sy * e1x;
+        double v = f * (dx * qx + dy * qy + dz * qz);
+        if (v < 0 || (u + v) > 1) {
+            return false;
+        }
+
+        double t = f * (e2x * qx + e2y * qy + e2z * qz);
+        return t > tMin && t < tMax;
+    }
+
+    @Override
+    public BoundingBox bounds() {
+        BoundingBox box = BoundingBox.bounding_box();
+        box.add(p1);
+        box.add(p2);
+        box.add(p3);
+        return box;
     }
 
     @Override
@@ -52,6 +160,15 @@ public class Triangle extends Shape {
         e1 = p2.sub(p1);
         e2 = p3.sub(p1);
         normal = normalize(cross(e2, e1));
+        data[0] = p1.x;
+        data[1] = p1.y;
+        data[2] = p1.z;
+        data[3] = e1.x;
+        data[4] = e1.y;
+        data[5] = e1.z;
+        data[6] = e2.x;
+        data[7] = e2.y;
+        data[8] = e2.z;
     }
 
     public static Triangle triangle(Tuple p1, Tuple p2, Tuple p3) {
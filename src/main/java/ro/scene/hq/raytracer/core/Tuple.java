@@ -10,6 +10,16 @@ public class Tuple {
     public double z;
     public double w;
 
+    // vectors owned by the calling thread, for leaf computations that would otherwise allocate their
+    // temporaries; whoever takes them must be done with them before calling anything that could too
+    private static final ThreadLocal<Tuple[]> scratchVectors = ThreadLocal.withInitial(() -> {
+        Tuple[] vectors = new Tuple[8];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = new Tuple(0, 0, 0, 0);
+        }
+        return vectors;
+    });
+
     public Tuple(double x, double y, double z, double w) {
         this.x = x;
         this.y = y;
@@ -57,6 +67,55 @@ public class Tuple {
         return new Tuple(x / scalar, y / scalar, z / scalar, w / scalar);
     }
 
+    public static Tuple[] scratch() {
+        return scratchVectors.get();
+    }
+
+    // The *Into methods write what their allocating counterpart would return into `result` and return it.
+    // `result` may be this or one of the arguments, which updates it in place.
+
+    public Tuple set(double x, double y, double z, double w) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.w = w;
+        return this;
+    }
+
+    public Tuple set(Tuple other) {
+        return set(other.x, other.y, other.z, other.w);
+    }
+
+    public Tuple addInto(Tuple other, Tuple result) {
+        return result.set(x + other.x, y + other.y, z + other.z, w + other.w);
+    }
+
+    // this + other * scalar
+    public Tuple addScaledInto(Tuple other, double scalar, Tuple result) {
+        return result.set(x + other.x * scalar, y + other.y * scalar, z + other.z * scalar, w + other.w * scalar);
+    }
+
+    public Tuple subInto(Tuple other, Tuple result) {
+        return result.set(x - other.x, y - other.y, z - other.z, w - other.w);
+    }
+
+    public Tuple negInto(Tuple result) {
+        return result.set(-x, -y, -z, -w);
+    }
+
+    public Tuple scaleInto(double scalar, Tuple result) {
+        return result.set(x * scalar, y * scalar, z * scalar, w * scalar);
+    }
+
+    public Tuple mulInto(Tuple other, Tuple result) {
+        return result.set(x * other.x, y * other.y, z * other.z, w * other.w);
+    }
+
+    public Tuple normalizeInto(Tuple result) {
+        double magnitude = mag(this);
+        return result.set(x / magnitude, y / magnitude, z / magnitude, 0);
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -104,6 +163,14 @@ public class Tuple {
         );
     }
 
+    public static Tuple crossInto(Tuple a, Tuple b, Tuple result) {
+        return result.set(
+                a.y * b.z - a.z * b.y,
+                a.z * b.x - a.x * b.z,
+                a.x * b.y - a.y * b.x,
+                0);
+    }
+
     public static boolean areEqual(double a, double b) {
         return Math.abs(a - b) < EPSILON;
     }
@@ -120,4 +187,13 @@ public class Tuple {
     public static Tuple reflect(Tuple in, Tuple normal) {
         return in.sub(normal.mul(2.0).mul(dot(in, normal)));
     }
+
+    public static Tuple reflectInto(Tuple in, Tuple normal, Tuple result) {
+        double d = dot(in, normal);
+        return result.set(
+                in.x - normal.x * 2.0 * d,
+                in.y - normal.y * 2.0 * d,
+                in.z - normal.z * 2.0 * d,
+                in.w - normal.w * 2.0 * d);
+    }
 }
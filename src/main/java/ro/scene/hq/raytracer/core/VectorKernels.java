@@ -0,0 +1,48 @@
+package ro.scene.hq.raytracer.core;
+
+/**
+ * Batched arithmetic over structure of arrays data (x, y and z of many points in three arrays) that the
+ * renderer hands out in bulk: transforming the points of a row of pixels into rays and multiplying 4x4
+ * matrices. The scalar backend runs everywhere; on Java 16 and later, built with the `simd` profile and
+ * run with `--add-modules jdk.incubator.vector`, one using jdk.incubator.vector is picked instead. It only
+ * has its own mul4x4, which Matrix.mul uses while transforms are built and not once per pixel: C2 already
+ * vectorizes the loops over the arrays that Camera.rays_for_row calls, and lanes written by hand were no
+ * faster than them. Both give bit for bit the same results, as they do the same operations in the same
+ * order. -Draytracer.scalar=true forces the scalar backend.
+ */
+public abstract class VectorKernels {
+    private static final VectorKernels selected = select();
+
+    public static VectorKernels kernels() {
+        return selected;
+    }
+
+    public static VectorKernels scalar() {
+        return ScalarKernels.INSTANCE;
+    }
+
+    private static VectorKernels select() {
+        if (Boolean.getBoolean("raytracer.scalar")) {
+            return scalar();
+        }
+        try {
+            // only there when compiled with the simd profile, and only loads with the incubator module
+            Class<?> simd = Class.forName("ro.scene.hq.raytracer.core.SimdKernels");
+            return (VectorKernels) simd.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return scalar();
+        }
+    }
+
+    public abstract String name();
+
+    // the points (xs[i], ys[i], zs[i]) for i < count replaced by m applied to them
+    public abstract void transformPoints(Affine m, double[] xs, double[] ys, double[] zs, int count);
+
+    // the points (xs[i], ys[i], zs[i]) replaced by the normalized vectors going to them from the origin
+    public abstract void directionsFrom(double ox, double oy, double oz,
+                                        double[] xs, double[] ys, double[] zs, int count);
+
+    // result = a * b for 4x4 matrices; result must be neither of them
+    public abstract void mul4x4(double[][] a, double[][] b, double[][] result);
+}
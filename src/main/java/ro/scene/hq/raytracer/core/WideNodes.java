@@ -0,0 +1,366 @@
+package ro.scene.hq.raytracer.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Bvh nodes with 4 or 8 children each, collapsed from the binary tree the builder produces. The bounds of
+// the children of a node are stored as structure of arrays (all min x, then all min y, ... then all max z)
+// so that one ray gets tested against every child in a single loop without branches per child.
+class WideNodes {
+    // number of children of a lane: leaves have a positive primitive count, inner nodes 0, unused lanes -1
+    static final int INNER = 0;
+    static final int EMPTY = -1;
+
+    final int width;
+    double[] bounds;  // 6 * width per node
+    int[] children;   // width per node: index of the child node, or of its first primitive for leaves
+    int[] counts;     // width per node
+    int nodeCount;
+    int leafCount;
+    int maxDepth;
+
+    private WideNodes(int width, int capacity) {
+        this.width = width;
+        bounds = new double[capacity * 6 * width];
+        children = new int[capacity * width];
+        counts = new int[capacity * width];
+    }
+
+    // brings back nodes stored by BvhCache
+    WideNodes(int width, double[] bounds, int[] children, int[] counts, int nodeCount, int leafCount, int maxDepth) {
+        this.width = width;
+        this.bounds = bounds;
+        this.children = children;
+        this.counts = counts;
+        this.nodeCount = nodeCount;
+        this.leafCount = leafCount;
+        this.maxDepth = maxDepth;
+    }
+
+    static WideNodes collapse(Bvh.Node root, int width, int capacity) {
+        WideNodes result = new WideNodes(width, Math.max(capacity, 1));
+        if (root != null) {
+            result.collapse(root, 1);
+        }
+        result.bounds = Arrays.copyOf(result.bounds, result.nodeCount * 6 * width);
+        result.children = Arrays.copyOf(result.children, result.nodeCount * width);
+        result.counts = Arrays.copyOf(result.counts, result.nodeCount * width);
+        return result;
+    }
+
+    private int collapse(Bvh.Node node, int depth) {
+        int index = nodeCount++;
+        maxDepth = Math.max(maxDepth, depth);
+
+        // keep opening up the biggest inner lane until all lanes are used
+        List<Bvh.Node> lanes = new ArrayList<>(width);
+        if (node.isLeaf()) {
+            lanes.add(node);
+        } else {
+            lanes.add(node.left);
+            lanes.add(node.right);
+        }
+        while (lanes.size() < width) {
+            int biggest = -1;
+            double biggestArea = -1.0;
+            for (int i = 0; i < lanes.size(); i++) {
+                Bvh.Node lane = lanes.get(i);
+                double area = surfaceArea(lane.bounds);
+                if (!lane.isLeaf() && area > biggestArea) {
+                    biggest = i;
+                    biggestArea = area;
+                }
+            }
+            if (biggest < 0) {
+                break;
+            }
+            Bvh.Node opened = lanes.remove(biggest);
+            lanes.add(opened.left);
+            lanes.add(opened.right);
+        }
+
+        int base = index * 6 * width;
+        for (int c = 0; c < width; c++) {
+            int slot = index * width + c;
+            if (c >= lanes.size()) {
+                setLaneBounds(base, c, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                        Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+                counts[slot] = EMPTY;
+                continue;
+            }
+            Bvh.Node lane = lanes.get(c);
+            setLaneBounds(base, c, lane.bounds.min.x, lane.bounds.min.y, lane.bounds.min.z,
+                    lane.bounds.max.x, lane.bounds.max.y, lane.bounds.max.z);
+            if (lane.isLeaf()) {
+                leafCount++;
+                children[slot] = lane.start;
+                counts[slot] = lane.count;
+            } else {
+                counts[slot] = INNER;
+                children[slot] = collapse(lane, depth + 1);
+            }
+        }
+        return index;
+    }
+
+    private void setLaneBounds(int base, int lane, double minX, double minY, double minZ,
+                               double maxX, double maxY, double maxZ) {
+        bounds[base + lane] = minX;
+        bounds[base + width + lane] = minY;
+        bounds[base + 2 * width + lane] = minZ;
+        bounds[base + 3 * width + lane] = maxX;
+        bounds[base + 4 * width + lane] = maxY;
+        bounds[base + 5 * width + lane] = maxZ;
+    }
+
+    // bounds of a whole node: minX, minY, minZ, maxX, maxY, maxZ
+    double[] nodeBounds(int node) {
+        double[] result = BvhBuilder.emptyBounds();
+        int base = node * 6 * width;
+        for (int c = 0; c < width; c++) {
+            for (int axis = 0; axis < 6; axis++) {
+                double value = bounds[base + axis * width + c];
+                result[axis] = axis < 3 ? Math.min(result[axis], value) : Math.max(result[axis], value);
+            }
+        }
+        return result;
+    }
+
+    void intersect(Ray r, Bvh bvh, Bvh.Mailbox mailbox, List<Intersection> xs) {
+        if (nodeCount == 0) {
+            return;
+        }
+        double ox = r.origin.x;
+        double oy = r.origin.y;
+        double oz = r.origin.z;
+        double invX = safeInverse(r.direction.x);
+        double invY = safeInverse(r.direction.y);
+        double invZ = safeInverse(r.direction.z);
+        // offsets of the near and far planes of every axis inside a node, picked once per ray
+        int nearX = invX >= 0 ? 0 : 3 * width;
+        int farX = invX >= 0 ? 3 * width : 0;
+        int nearY = (invY >= 0 ? 1 : 4) * width;
+        int farY = (invY >= 0 ? 4 : 1) * width;
+        int nearZ = (invZ >= 0 ? 2 : 5) * width;
+        int farZ = (invZ >= 0 ? 5 : 2) * width;
+
+        Bvh.TraversalStack stack = Bvh.stacks.get();
+        int stackBase = stack.top;
+        int node = 0;
+        while (true) {
+            int base = node * 6 * width;
+            int hits = 0;
+            for (int c = 0; c < width; c++) {
+                double tmin = Math.max(Math.max(
+                        (bounds[base + nearX + c] - ox) * invX,
+                        (bounds[base + nearY + c] - oy) * invY),
+                        (bounds[base + nearZ + c] - oz) * invZ);
+                double tmax = Math.min(Math.min(
+                        (bounds[base + farX + c] - ox) * invX,
+                        (bounds[base + farY + c] - oy) * invY),
+                        (bounds[base + farZ + c] - oz) * invZ);
+                hits |= (tmin <= tmax ? 1 : 0) << c;
+            }
+
+            for (int c = 0; hits != 0; c++, hits >>>= 1) {
+                if ((hits & 1) == 0) {
+                    continue;
+                }
+                int slot = node * width + c;
+                int count = counts[slot];
+                if (count > 0) {
+                    bvh.intersectLeaf(children[slot], count, r, mailbox, xs);
+                } else if (count == INNER) {
+                    stack.push(children[slot]);
+                }
+            }
+
+            if (stack.top == stackBase) {
+                break;
+            }
+            node = stack.entries[--stack.top];
+        }
+    }
+
+    // intersect for Bvh.closestHit: lanes are clipped to (0, tMax), and tMax shrinks with every hit
+    boolean closestHit(Ray r, Bvh bvh, double tMax, HitRecord record) {
+        if (nodeCount == 0) {
+            return false;
+        }
+        double ox = r.origin.x;
+        double oy = r.origin.y;
+        double oz = r.origin.z;
+        double invX = safeInverse(r.direction.x);
+        double invY = safeInverse(r.direction.y);
+        double invZ = safeInverse(r.direction.z);
+        int nearX = invX >= 0 ? 0 : 3 * width;
+        int farX = invX >= 0 ? 3 * width : 0;
+        int nearY = (invY >= 0 ? 1 : 4) * width;
+        int farY = (invY >= 0 ? 4 : 1) * width;
+        int nearZ = (invZ >= 0 ? 2 : 5) * width;
+        int farZ = (invZ >= 0 ? 5 : 2) * width;
+
+        boolean found = false;
+        Bvh.TraversalStack stack = Bvh.stacks.get();
+        int stackBase = stack.top;
+        int node = 0;
+        while (true) {
+            int base = node * 6 * width;
+            int hits = 0;
+            for (int c = 0; c < width; c++) {
+                double tmin = Math.max(Math.max(Math.max(
+                        (bounds[base + nearX + c] - ox) * invX,
+                        (bounds[base + nearY + c] - oy) * invY),
+                        (bounds[base + nearZ + c] - oz) * invZ), 0.0);
+                double tmax = Math.min(Math.min(Math.min(
+                        (bounds[base + farX + c] - ox) * invX,
+                        (bounds[base + farY + c] - oy) * invY),
+                        (bounds[base + farZ + c] - oz) * invZ), tMax);
+                hits |= (tmin <= tmax ? 1 : 0) << c;
+            }
+
+            for (int c = 0; hits != 0; c++, hits >>>= 1) {
+                if ((hits & 1) == 0) {
+                    continue;
+                }
+                int slot = node * width + c;
+                int count = counts[slot];
+                if (count > 0) {
+                    if (bvh.closestHitLeaf(children[slot], count, r, tMax, record)) {
+                        tMax = record.t;
+                        found = true;
+                    }
+                } else if (count == INNER) {
+                    stack.push(children[slot]);
+                }
+            }
+
+            if (stack.top == stackBase) {
+                break;
+            }
+            node = stack.entries[--stack.top];
+        }
+        return found;
+    }
+
+    // the lanes of closestHit with a fixed tMax, ending at the first hit
+    Shape anyHit(Ray r, Bvh bvh, double tMin, double tMax) {
+        if (nodeCount == 0) {
+            return null;
+        }
+        double ox = r.origin.x;
+        double oy = r.origin.y;
+        double oz = r.origin.z;
+        double invX = safeInverse(r.direction.x);
+        double invY = safeInverse(r.direction.y);
+        double invZ = safeInverse(r.direction.z);
+        int nearX = invX >= 0 ? 0 : 3 * width;
+        int farX = invX >= 0 ? 3 * width : 0;
+        int nearY = (invY >= 0 ? 1 : 4) * width;
+        int farY = (invY >= 0 ? 4 : 1) * width;
+        int nearZ = (invZ >= 0 ? 2 : 5) * width;
+        int farZ = (invZ >= 0 ? 5 : 2) * width;
+
+        Bvh.TraversalStack stack = Bvh.stacks.get();
+        int stackBase = stack.top;
+        int node = 0;
+        while (true) {
+            int base = node * 6 * width;
+            for (int c = 0; c < width; c++) {
+                double tmin = Math.max(Math.max(Math.max(
+                        (bounds[base + nearX + c] - ox) * invX,
+                        (bounds[base + nearY + c] - oy) * invY),
+                        (bounds[base + nearZ + c] - oz) * invZ), 0.0);
+                double tmax = Math.min(Math.min(Math.min(
+                        (bounds[base + farX + c] - ox) * invX,
+                        (bounds[base + farY + c] - oy) * invY),
+                        (bounds[base + farZ + c] - oz) * invZ), tMax);
+                if (tmin > tmax) {
+                    continue;
+                }
+                int slot = node * width + c;
+                int count = counts[slot];
+                if (count > 0) {
+                    Shape occluder = bvh.anyHitLeaf(children[slot], count, r, tMin, tMax);
+                    if (occluder != null) {
+                        stack.top = stackBase;
+                        return occluder;
+                    }
+                } else if (count == INNER) {
+                    stack.push(children[slot]);
+                }
+            }
+
+            if (stack.top == stackBase) {
+                return null;
+            }
+            node = stack.entries[--stack.top];
+        }
+    }
+
+    // a zero direction would give 0 * infinity = NaN for a ray starting right on a slab; a huge but finite
+    // inverse keeps the products well defined and still pushes the slab out to infinity
+    private static double safeInverse(double d) {
+        if (d == 0.0) {
+            return Math.copySign(Double.MAX_VALUE, d);
+        }
+        return 1.0 / d;
+    }
+
+    void refit(double[] boxes) {
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            int base = node * 6 * width;
+            for (int c = 0; c < width; c++) {
+                int slot = node * width + c;
+                int count = counts[slot];
+                if (count == EMPTY) {
+                    continue;
+                }
+                double[] lane;
+                if (count > 0) {
+                    lane = BvhBuilder.emptyBounds();
+                    for (int i = children[slot]; i < children[slot] + count; i++) {
+                        BvhBuilder.growBounds(lane, 0, boxes, i * 6);
+                    }
+                } else {
+                    lane = nodeBounds(children[slot]);
+                }
+                setLaneBounds(base, c, lane[0], lane[1], lane[2], lane[3], lane[4], lane[5]);
+            }
+        }
+    }
+
+    double cost(BvhSettings settings) {
+        if (nodeCount == 0) {
+            return 0.0;
+        }
+        double rootArea = BvhBuilder.surfaceArea(nodeBounds(0), 0);
+        if (rootArea <= 0.0) {
+            rootArea = 1.0;
+        }
+        double result = 0.0;
+        double[] lane = new double[6];
+        for (int node = 0; node < nodeCount; node++) {
+            result += BvhBuilder.surfaceArea(nodeBounds(node), 0) / rootArea * settings.traversalCost;
+            int base = node * 6 * width;
+            for (int c = 0; c < width; c++) {
+                int count = counts[node * width + c];
+                if (count > 0) {
+                    for (int axis = 0; axis < 6; axis++) {
+                        lane[axis] = bounds[base + axis * width + c];
+                    }
+                    result += BvhBuilder.surfaceArea(lane, 0) / rootArea * count * settings.intersectionCost;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static double surfaceArea(BoundingBox box) {
+        double dx = box.max.x - box.min.x;
+        double dy = box.max.y - box.min.y;
+        double dz = box.max.z - box.min.z;
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+}
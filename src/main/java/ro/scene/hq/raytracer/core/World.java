@@ -4,6 +4,7 @@ import java.util.*;
 
 import static ro.scene.hq.raytracer.core.Computations.prepare_computations;
 import static ro.scene.hq.raytracer.core.Intersection.hit;
+import static ro.scene.hq.raytracer.core.Intersection.intersections;
 import static ro.scene.hq.raytracer.core.Light.lighting;
 import static ro.scene.hq.raytracer.core.Light.point_light;
 import static ro.scene.hq.raytracer.core.Matrix.scaling;
@@ -15,6 +16,10 @@ import static ro.scene.hq.raytracer.core.Tuple.*;
 public class World {
     public List<Shape> objects = new LinkedList<>();
     public Light light;
+    // Bvh or Grid over the objects, tested instead of all of them one by one when set
+    public Accelerator accelerator;
+    public final ShadowCache shadowCache = new ShadowCache();
+    private boolean frozen;
 
     public static World world() {
         return new World();
@@ -24,6 +29,71 @@ public class World {
         return objects.contains(s);
     }
 
+    // needs to be called again whenever objects are added, removed or moved
+    public void buildBvh() {
+        buildBvh(BvhSettings.bvh_settings());
+    }
+
+    public void buildBvh(BvhSettings settings) {
+        for (Shape o : objects) {
+            if (o instanceof Group) {
+                ((Group) o).buildBvh(settings);
+            }
+        }
+        accelerator = Bvh.bvh(objects, settings);
+    }
+
+    // a grid suits lots of similarly sized objects better than a Bvh; groups among the objects keep
+    // whatever accelerator they have
+    public void buildGrid() {
+        buildGrid(GridSettings.grid_settings());
+    }
+
+    public void buildGrid(GridSettings settings) {
+        accelerator = Grid.grid(objects, settings);
+    }
+
+    // see Shape.freeze; done by Camera.render before every frame
+    public void freeze() {
+        for (Shape o : objects) {
+            o.freeze();
+        }
+        frozen = true;
+        shadowCache.forget();
+    }
+
+    public void unfreeze() {
+        for (Shape o : objects) {
+            o.unfreeze();
+        }
+        frozen = false;
+        shadowCache.forget();
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    // cheaper than buildBvh when objects only moved; returns true if a hierarchy had to be rebuilt anyway
+    public boolean refitBvh() {
+        // a refitted accelerator stays the same, but the transforms the occluders were cached with don't
+        shadowCache.forget();
+        boolean rebuilt = false;
+        for (Shape o : objects) {
+            if (o instanceof Group) {
+                rebuilt |= ((Group) o).refitBvh();
+            }
+        }
+        if (accelerator == null) {
+            accelerator = Bvh.bvh(objects);
+            return true;
+        }
+        Accelerator refitted = accelerator.refitOrRebuild(objects);
+        rebuilt |= refitted != accelerator;
+        accelerator = refitted;
+        return rebuilt;
+    }
+
     public static World default_world() {
         World w = new World();
         w.light = point_light(point(-10, 10, -10), color(1, 1, 1));
@@ -43,8 +113,12 @@ public class World {
 
     public static List<Intersection> intersect_world(World w, Ray r) {
         List<Intersection> result = new LinkedList<>();
-        for (Shape o : w.objects) {
-            result.addAll(intersect(o, r));
+        if (w.accelerator != null) {
+            w.accelerator.intersect(r, result);
+        } else {
+            for (Shape o : w.objects) {
+                result.addAll(intersect(o, r));
+            }
         }
         result.sort(Comparator.comparingDouble(a -> a.t));
         return result;
@@ -63,16 +137,46 @@ public class World {
         Tuple reflectedColor = reflected_color(w, comps, remaining);
         Tuple refractedColor = refracted_color(w, comps, remaining);
 
+        // all three are fresh colors, so the sum goes into the surface one
         Material material = comps.object.material;
         if (material.reflective > 0 && material.transparency > 0) {
             double reflectance = schlick(comps);
-            return surface.add(reflectedColor.mul(reflectance)).add(refractedColor.mul(1.0 - reflectance));
+            surface.addScaledInto(reflectedColor, reflectance, surface);
+            return surface.addScaledInto(refractedColor, 1.0 - reflectance, surface);
         } else {
-            return surface.add(reflectedColor).add(refractedColor);
+            return surface.addInto(reflectedColor, surface).addInto(refractedColor, surface);
+        }
+    }
+
+    // The nearest hit in front of the ray, found without listing and sorting every intersection like
+    // intersect_world does; false when the ray hits nothing.
+    public static boolean closest_hit(World w, Ray r, HitRecord record) {
+        double tMax = Double.POSITIVE_INFINITY;
+        if (w.accelerator != null) {
+            return w.accelerator.closestHit(r, tMax, record);
+        }
+        boolean found = false;
+        for (Shape o : w.objects) {
+            if (Shape.closest_hit(o, r, tMax, record)) {
+                tMax = record.t;
+                found = true;
+            }
         }
+        return found;
     }
 
     public static Tuple color_at(World w, Ray r, int remaining) {
+        HitRecord record = new HitRecord();
+        if (!closest_hit(w, r, record)) {
+            return color(0, 0, 0);
+        }
+        Intersection nearest = record.toIntersection();
+        if (nearest.object.material.transparency <= 0.0) {
+            // n1 and n2 only matter for refraction, so the hit alone will do for them
+            Computations comps = prepare_computations(nearest, r, intersections(nearest));
+            return shade_hit(w, comps, remaining);
+        }
+        // the refractive indices on both sides depend on every object the ray went in and out of
         List<Intersection> intersections = intersect_world(w, r);
         Optional<Intersection> hitIntersection = hit(intersections);
         if (hitIntersection.isPresent()) {
@@ -93,7 +197,7 @@ public class World {
         }
         Ray reflectRay = ray(comps.over_point, comps.reflectv);
         Tuple color = color_at(w, reflectRay, remaining - 1);
-        return color.mul(comps.object.material.reflective);
+        return color.scaleInto(comps.object.material.reflective, color);
     }
 
     public static Tuple refracted_color(World w, Computations comps, int remaining) {
@@ -119,14 +223,16 @@ public class World {
         double cos_t = Math.sqrt(1.0 - sin2_t);
 
         // Compute the direction of the refracted ray
-        Tuple direction = comps.normalv.mul(n_ratio * cos_i - cos_t).sub(comps.eyev.mul(n_ratio));
+        Tuple direction = comps.normalv.scaleInto(n_ratio * cos_i - cos_t, vector(0, 0, 0));
+        direction.addScaledInto(comps.eyev, -n_ratio, direction);
 
         // Create the refracted ray
         Ray refractedRay = ray(comps.under_point, direction);
 
         // Find the color of the refracted ray, making sure to multiply
         // by the transparency value to account for any opacity
-        return color_at(w, refractedRay, remaining - 1).mul(comps.object.material.transparency);
+        Tuple color = color_at(w, refractedRay, remaining - 1);
+        return color.scaleInto(comps.object.material.transparency, color);
     }
 
     public static double schlick(Computations comps) {
@@ -149,15 +255,76 @@ public class World {
         return r0 + (1 - r0) * Math.pow((1 - cos), 5);
     }
 
+    // whether any shape that casts shadows crosses the ray between tMin and tMax, stopping at the first one
+    public static boolean any_hit(World w, Ray r, double tMin, double tMax) {
+        return occluder(w, r, tMin, tMax) != null;
+    }
+
+    // the object any_hit stopped at, or null
+    public static Shape occluder(World w, Ray r, double tMin, double tMax) {
+        if (w.accelerator != null) {
+            return w.accelerator.anyHit(r, tMin, tMax);
+        }
+        for (Shape o : w.objects) {
+            if (Shape.any_hit(o, r, tMin, tMax)) {
+                return o;
+            }
+        }
+        return null;
+    }
+
+    // the primitive that shadowed the previous point of this thread goes first, see ShadowCache
     public static boolean is_shadowed(World w, Tuple point) {
-        Tuple v = w.light.position.sub(point);
+        Tuple v = w.light.position.subInto(point, vector(0, 0, 0));
         double distance = mag(v);
-        Tuple direction = normalize(v);
+        Tuple direction = v.normalizeInto(v);
 
         Ray r = ray(point, direction);
-        List<Intersection> intersections = intersect_world(w, r);
+        ShadowCache.Entry cached = w.shadowCache.entry();
+        if (cached.occluder != null && !holds(w, cached)) {
+            cached.forget();
+        }
+        if (cached.occluder != null) {
+            Ray toOccluder = cached.toOccluder != null ? Ray.transform(r, cached.toOccluder) : r;
+            if (Shape.any_hit(cached.occluder, toOccluder, EPSILON, distance)) {
+                cached.hits++;
+                return true;
+            }
+            if (cached.skippable) {
+                r = new Ray(point, direction, cached.occluder);
+            }
+        }
+        cached.misses++;
+        Shape object = occluder(w, r, EPSILON, distance);
+        if (object != null) {
+            if (w.frozen) {
+                ShadowCache.Blocker blocker = ShadowCache.blocker();
+                blocker.passUp(object);
+                cached.occluder = blocker.primitive;
+                cached.toOccluder = blocker.toPrimitive;
+                cached.skippable = !blocker.throughInstance;
+            } else {
+                cached.occluder = object;
+                cached.toOccluder = null;
+                cached.skippable = true;
+            }
+            cached.accelerator = w.accelerator;
+            cached.object = object;
+        }
+        return object != null;
+    }
 
-        Optional<Intersection> h = hit(intersections);
-        return h.isPresent() && h.get().t < distance;
+    // Whether the world still holds the object the cached occluder was found in. Nothing below the top level
+    // objects changes in a frozen world, and otherwise the occluder is the top level object itself.
+    private static boolean holds(World w, ShadowCache.Entry cached) {
+        if (w.accelerator != null || cached.accelerator != null) {
+            return cached.accelerator == w.accelerator;
+        }
+        for (Shape o : w.objects) {
+            if (o == cached.object) {
+                return true;
+            }
+        }
+        return false;
     }
 }
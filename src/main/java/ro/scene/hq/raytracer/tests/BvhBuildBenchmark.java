@@ -0,0 +1,70 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.Bvh;
+import ro.scene.hq.raytracer.core.BvhSettings;
+import ro.scene.hq.raytracer.core.Shape;
+import ro.scene.hq.raytracer.core.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static ro.scene.hq.raytracer.core.Bvh.bvh;
+import static ro.scene.hq.raytracer.core.BvhSettings.bvh_settings;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
+import static ro.scene.hq.raytracer.core.Tuple.point;
+import static ro.scene.hq.raytracer.core.Tuple.vector;
+
+// Times the Bvh build over a random triangle soup with an increasing number of cores.
+// Usage: BvhBuildBenchmark [triangles] [runs] [MEDIAN|SAH|LBVH]
+public class BvhBuildBenchmark {
+    public static void main(String[] args) {
+        int triangleCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        BvhSettings.Split split = args.length > 2 ? BvhSettings.Split.valueOf(args[2]) : BvhSettings.Split.SAH;
+
+        Random rnd = new Random(42);
+        List<Shape> triangles = new ArrayList<>(triangleCount);
+        for (int i = 0; i < triangleCount; i++) {
+            Tuple p = point(rnd.nextDouble() * 100, rnd.nextDouble() * 100, rnd.nextDouble() * 100);
+            triangles.add(triangle(p,
+                    p.add(vector(rnd.nextDouble(), rnd.nextDouble(), 0)),
+                    p.add(vector(0, rnd.nextDouble(), rnd.nextDouble()))));
+        }
+        System.out.println("Building " + split + " over " + triangleCount + " triangles, best of " + runs + " runs");
+
+        long sequentialTime = 0;
+        List<Integer> coreCounts = new ArrayList<>();
+        int maxCores = Runtime.getRuntime().availableProcessors();
+        for (int cores = 1; cores < maxCores; cores *= 2) {
+            coreCounts.add(cores);
+        }
+        coreCounts.add(maxCores);
+
+        for (int cores : coreCounts) {
+            ForkJoinPool pool = new ForkJoinPool(cores);
+            BvhSettings settings = bvh_settings();
+            settings.pool = pool;
+            settings.split = split;
+            if (cores == 1) {
+                settings.parallelThreshold = Integer.MAX_VALUE;
+            }
+
+            long best = Long.MAX_VALUE;
+            Bvh result = null;
+            for (int run = 0; run < runs; run++) {
+                long startTime = System.nanoTime();
+                result = bvh(triangles, settings);
+                best = Math.min(best, System.nanoTime() - startTime);
+            }
+            pool.shutdown();
+
+            if (cores == 1) {
+                sequentialTime = best;
+            }
+            System.out.printf("%2d cores: %8.1f ms, speedup %.2fx, %s%n",
+                    cores, best / 1e6, sequentialTime / (double) best, result.stats);
+        }
+    }
+}
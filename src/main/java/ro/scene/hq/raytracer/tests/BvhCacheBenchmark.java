@@ -0,0 +1,30 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.BvhCache;
+import ro.scene.hq.raytracer.core.Group;
+import ro.scene.hq.raytracer.core.ObjParser;
+
+import java.io.IOException;
+
+import static ro.scene.hq.raytracer.core.BvhCache.bvh_cache;
+
+// Compares parsing and building an OBJ file with loading it back from the cache.
+// Usage: BvhCacheBenchmark <file.obj> [cache directory]
+public class BvhCacheBenchmark {
+    public static void main(String[] args) throws IOException {
+        String filename = args[0];
+        BvhCache cache = bvh_cache(args.length > 1 ? args[1] : "bvh-cache");
+
+        long startTime = System.nanoTime();
+        Group g = ObjParser.parse(filename).toGroup();
+        g.buildBvh();
+        System.out.printf("parse and build: %8.1f ms%n", (System.nanoTime() - startTime) / 1e6);
+
+        for (int run = 0; run < 3; run++) {
+            startTime = System.nanoTime();
+            cache.load(filename);
+            System.out.printf("cache load:      %8.1f ms (%d hits, %d misses)%n",
+                    (System.nanoTime() - startTime) / 1e6, cache.hits, cache.misses);
+        }
+    }
+}
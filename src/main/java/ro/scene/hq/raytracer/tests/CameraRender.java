@@ -25,7 +25,27 @@ import static ro.scene.hq.raytracer.core.World.world;
 
 public class CameraRender {
     public static void main(String[] args) throws IOException {
+        World w = scene();
+        Camera c = sceneCamera(200, 200);
 
+        long startTime = System.currentTimeMillis();
+        Canvas canvas = render(c, w);
+        System.out.println("Render took " + (System.currentTimeMillis() - startTime) + " ms");
+        System.out.printf("Shadow rays: %d answered by the last occluder, %d searched (%.1f%% hits)%n",
+                w.shadowCache.hits(), w.shadowCache.misses(), w.shadowCache.hitRate() * 100);
+
+        List<String> ppm = canvas.toPPM();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream("camera-plane.ppm"));
+        for (String line : ppm) {
+            out.write(line.getBytes(StandardCharsets.ISO_8859_1));
+            out.write('\n');
+        }
+        out.close();
+
+        System.out.println("Canvas dumped to file");
+    }
+
+    static World scene() {
         Plane bottom = plane();
         bottom.material.pattern = checkers_pattern(color(1, 1, 1), color(0, 0, 0));
         bottom.material.specular = 0.5;
@@ -90,22 +110,12 @@ public class CameraRender {
         World w = world();
         w.objects.addAll(Arrays.asList(bottom, top, back, front, left, right, middle, middle2));
         w.light = point_light(point(-4, 8, -4.8), color(1, 1, 1));
+        return w;
+    }
 
-        Camera c = camera(200, 200, Math.PI / 2.0);
+    static Camera sceneCamera(int hsize, int vsize) {
+        Camera c = camera(hsize, vsize, Math.PI / 2.0);
         c.transform = view_transform(point(0, 1.5, -4.9), point(0, 1, 0), vector(0, 1, 0));
-
-        long startTime = System.currentTimeMillis();
-        Canvas canvas = render(c, w);
-        System.out.println("Render took " + (System.currentTimeMillis() - startTime) + " ms");
-
-        List<String> ppm = canvas.toPPM();
-        OutputStream out = new BufferedOutputStream(new FileOutputStream("camera-plane.ppm"));
-        for (String line : ppm) {
-            out.write(line.getBytes(StandardCharsets.ISO_8859_1));
-            out.write('\n');
-        }
-        out.close();
-
-        System.out.println("Canvas dumped to file");
+        return c;
     }
 }
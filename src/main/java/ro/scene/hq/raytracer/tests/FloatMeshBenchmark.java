@@ -0,0 +1,81 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.FloatMesh;
+import ro.scene.hq.raytracer.core.HitRecord;
+import ro.scene.hq.raytracer.core.Mesh;
+import ro.scene.hq.raytracer.core.ObjParser;
+import ro.scene.hq.raytracer.core.Ray;
+import ro.scene.hq.raytracer.core.Tuple;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.function.BiPredicate;
+
+import static ro.scene.hq.raytracer.core.FloatMesh.float_mesh;
+import static ro.scene.hq.raytracer.core.Mesh.mesh;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+// Compares the memory taken by double and float meshes, and the time to find the closest hit of the same
+// rays on each, for a terrain, a triangle soup and optionally an OBJ file.
+// Usage: FloatMeshBenchmark [file.obj]
+public class FloatMeshBenchmark {
+    public static void main(String[] args) throws IOException {
+        run("terrain", OffHeapMeshBenchmark.terrain(700, new Random(42)));
+        run("triangle soup", soup(500_000, new Random(42)));
+        if (args.length > 0) {
+            run(args[0], ObjParser.parse_mesh(args[0]));
+        }
+    }
+
+    private static Mesh soup(int count, Random rnd) {
+        double[] vertices = new double[count * 9];
+        int[] indices = new int[count * 3];
+        for (int f = 0; f < count; f++) {
+            double x = rnd.nextDouble() * 100, y = rnd.nextDouble() * 100, z = rnd.nextDouble() * 100;
+            for (int c = 0; c < 3; c++) {
+                vertices[f * 9 + c * 3] = x + (c > 0 ? rnd.nextDouble() : 0);
+                vertices[f * 9 + c * 3 + 1] = y + (c > 0 ? rnd.nextDouble() : 0);
+                vertices[f * 9 + c * 3 + 2] = z + (c > 0 ? rnd.nextDouble() : 0);
+                indices[f * 3 + c] = f * 3 + c;
+            }
+        }
+        return mesh(vertices, indices);
+    }
+
+    private static void run(String name, Mesh m) {
+        FloatMesh f = float_mesh(m);
+        Tuple min = m.bounds().min;
+        Tuple max = m.bounds().max;
+        Random rnd = new Random(7);
+        Ray[] rays = new Ray[500_000];
+        for (int i = 0; i < rays.length; i++) {
+            // from above the mesh, looking down into it
+            rays[i] = ray(point(min.x + rnd.nextDouble() * (max.x - min.x), max.y + 1,
+                    min.z + rnd.nextDouble() * (max.z - min.z)),
+                    normalize(vector(rnd.nextDouble() - 0.5, -1, rnd.nextDouble() - 0.5)));
+        }
+
+        System.out.printf("%s: %d faces%n", name, m.faceCount());
+        trace("double", m.sizeInBytes(), m::closestHit, rays);
+        trace("float", f.sizeInBytes(), f::closestHit, rays);
+    }
+
+    private static void trace(String name, long bytes, BiPredicate<Ray, HitRecord> closestHit, Ray[] rays) {
+        HitRecord record = HitRecord.hit_record();
+        // the first pass warms up the JIT
+        long best = Long.MAX_VALUE;
+        int found = 0;
+        for (int pass = 0; pass < 4; pass++) {
+            long startTime = System.nanoTime();
+            found = 0;
+            for (Ray r : rays) {
+                if (closestHit.test(r, record)) {
+                    found++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - startTime);
+        }
+        System.out.printf("  %-7s %8.1f MB %8.1f ms (%d rays hit)%n", name, bytes / 1e6, best / 1e6, found);
+    }
+}
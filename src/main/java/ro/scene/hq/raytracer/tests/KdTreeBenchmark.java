@@ -0,0 +1,80 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.Accelerator;
+import ro.scene.hq.raytracer.core.HitRecord;
+import ro.scene.hq.raytracer.core.Intersection;
+import ro.scene.hq.raytracer.core.Ray;
+import ro.scene.hq.raytracer.core.Shape;
+import ro.scene.hq.raytracer.core.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static ro.scene.hq.raytracer.core.Bvh.bvh;
+import static ro.scene.hq.raytracer.core.BvhSettings.sbvh;
+import static ro.scene.hq.raytracer.core.BvhSettings.wide;
+import static ro.scene.hq.raytracer.core.KdTree.kd_tree;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+// Builds a SAH k-d tree and several Bvh flavours over the same triangle soup and traces the same rays
+// through each, both for all intersections and for the closest hit only.
+// Usage: KdTreeBenchmark [triangles] [rays]
+public class KdTreeBenchmark {
+    public static void main(String[] args) {
+        int triangleCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rayCount = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+
+        Random rnd = new Random(42);
+        List<Shape> triangles = new ArrayList<>(triangleCount);
+        for (int i = 0; i < triangleCount; i++) {
+            Tuple p = point(rnd.nextDouble() * 100, rnd.nextDouble() * 100, rnd.nextDouble() * 100);
+            triangles.add(triangle(p,
+                    p.add(vector(rnd.nextDouble(), rnd.nextDouble(), 0)),
+                    p.add(vector(0, rnd.nextDouble(), rnd.nextDouble()))));
+        }
+        Ray[] rays = new Ray[rayCount];
+        for (int i = 0; i < rayCount; i++) {
+            rays[i] = ray(point(rnd.nextDouble() * 100, rnd.nextDouble() * 100, -10),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1)));
+        }
+
+        run("bvh (SAH)", () -> bvh(triangles), rays);
+        run("bvh (4 wide)", () -> bvh(triangles, wide(4)), rays);
+        run("bvh (spatial splits)", () -> bvh(triangles, sbvh()), rays);
+        run("k-d tree (SAH)", () -> kd_tree(triangles), rays);
+    }
+
+    private static void run(String name, Supplier<Accelerator> builder, Ray[] rays) {
+        long startTime = System.nanoTime();
+        Accelerator accelerator = builder.get();
+        long buildTime = System.nanoTime() - startTime;
+
+        // the first pass warms up the JIT
+        long allHits = Long.MAX_VALUE;
+        long closestHit = Long.MAX_VALUE;
+        int found = 0;
+        for (int pass = 0; pass < 3; pass++) {
+            startTime = System.nanoTime();
+            List<Intersection> xs = new ArrayList<>();
+            for (Ray r : rays) {
+                xs.clear();
+                accelerator.intersect(r, xs);
+            }
+            allHits = Math.min(allHits, System.nanoTime() - startTime);
+
+            startTime = System.nanoTime();
+            found = 0;
+            HitRecord record = new HitRecord();
+            for (Ray r : rays) {
+                found += accelerator.closestHit(r, Double.POSITIVE_INFINITY, record) ? 1 : 0;
+            }
+            closestHit = Math.min(closestHit, System.nanoTime() - startTime);
+        }
+        System.out.printf("%-22s build %8.1f ms, all hits %8.1f ms, closest hit %8.1f ms (%d rays hit)%n",
+                name, buildTime / 1e6, allHits / 1e6, closestHit / 1e6, found);
+    }
+}
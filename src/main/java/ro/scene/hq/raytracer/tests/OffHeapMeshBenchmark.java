@@ -0,0 +1,105 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.Intersection;
+import ro.scene.hq.raytracer.core.Mesh;
+import ro.scene.hq.raytracer.core.OffHeapMesh;
+import ro.scene.hq.raytracer.core.Ray;
+import ro.scene.hq.raytracer.core.Shape;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static ro.scene.hq.raytracer.core.Mesh.mesh;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+// Writes a terrain mesh to a file, maps it back off heap and compares the heap it takes, and the time to
+// trace the same rays, with the same mesh on the heap.
+// Usage: OffHeapMeshBenchmark [cells per side] [mesh file]
+public class OffHeapMeshBenchmark {
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 0 ? Integer.parseInt(args[0]) : 700;
+        Path file = args.length > 1 ? Paths.get(args[1]) : Files.createTempFile("terrain", ".mesh");
+
+        long before = usedHeap();
+        Mesh heapMesh = terrain(side, new Random(42));
+        long heapMeshBytes = usedHeap() - before;
+        OffHeapMesh.write(heapMesh, file);
+
+        before = usedHeap();
+        OffHeapMesh offHeapMesh = OffHeapMesh.load(file);
+        long offHeapMeshBytes = usedHeap() - before;
+
+        System.out.printf("%d faces, mesh file %.1f MB%n", heapMesh.faceCount(), Files.size(file) / 1e6);
+        System.out.printf("heap taken by the heap mesh     %10.1f MB%n", heapMeshBytes / 1e6);
+        System.out.printf("heap taken by the mapped mesh   %10.1f MB%n", offHeapMeshBytes / 1e6);
+
+        Random rnd = new Random(7);
+        Ray[] rays = new Ray[200_000];
+        for (int i = 0; i < rays.length; i++) {
+            rays[i] = ray(point(rnd.nextDouble() * side, 50, rnd.nextDouble() * side),
+                    normalize(vector(rnd.nextDouble() - 0.5, -1, rnd.nextDouble() - 0.5)));
+        }
+        trace("heap mesh", heapMesh, rays);
+        trace("mapped mesh", offHeapMesh, rays);
+        if (args.length < 2) {
+            Files.delete(file);
+        }
+    }
+
+    // side x side cells, two faces each, over a bumpy height field
+    static Mesh terrain(int side, Random rnd) {
+        int row = side + 1;
+        double[] vertices = new double[row * row * 3];
+        for (int z = 0; z < row; z++) {
+            for (int x = 0; x < row; x++) {
+                int v = (z * row + x) * 3;
+                vertices[v] = x;
+                vertices[v + 1] = 5 * Math.sin(x * 0.05) * Math.cos(z * 0.05) + rnd.nextDouble() * 0.5;
+                vertices[v + 2] = z;
+            }
+        }
+        int[] indices = new int[side * side * 6];
+        int i = 0;
+        for (int z = 0; z < side; z++) {
+            for (int x = 0; x < side; x++) {
+                int a = z * row + x;
+                indices[i++] = a;
+                indices[i++] = a + 1;
+                indices[i++] = a + row;
+                indices[i++] = a + 1;
+                indices[i++] = a + row + 1;
+                indices[i++] = a + row;
+            }
+        }
+        return mesh(vertices, indices);
+    }
+
+    private static void trace(String name, Shape mesh, Ray[] rays) {
+        // the first pass warms up the JIT
+        long best = Long.MAX_VALUE;
+        int found = 0;
+        for (int pass = 0; pass < 3; pass++) {
+            long startTime = System.nanoTime();
+            found = 0;
+            for (Ray r : rays) {
+                if (Intersection.hit(Shape.intersect(mesh, r)).isPresent()) {
+                    found++;
+                }
+            }
+            best = Math.min(best, System.nanoTime() - startTime);
+        }
+        System.out.printf("%-12s %8.1f ms (%d rays hit)%n", name, best / 1e6, found);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,64 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.Camera;
+import ro.scene.hq.raytracer.core.World;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static ro.scene.hq.raytracer.core.Camera.render;
+
+// Renders CameraRender's scene a few times and reports, for each frame, the time, the bytes allocated by
+// all threads per pixel and the collections (and their time) the garbage collector needed.
+// Usage: ShadingAllocationBenchmark [size] [frames]
+public class ShadingAllocationBenchmark {
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        World w = CameraRender.scene();
+        Camera c = CameraRender.sceneCamera(size, size);
+        long pixels = (long) size * size;
+
+        for (int frame = 0; frame < frames; frame++) {
+            long startBytes = allocatedBytes();
+            long startCollections = collections();
+            long startGcTime = gcTime();
+            long startTime = System.nanoTime();
+            render(c, w);
+            long time = System.nanoTime() - startTime;
+            System.out.printf("frame %d: %7.1f ms, %8.0f bytes/pixel, %3d collections taking %4d ms%n",
+                    frame, time / 1e6, (double) (allocatedBytes() - startBytes) / pixels,
+                    collections() - startCollections, gcTime() - startGcTime);
+        }
+    }
+
+    // bytes allocated so far by the threads alive now, on JVMs that keep count
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+
+    private static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionCount(), 0);
+        }
+        return total;
+    }
+
+    private static long gcTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gc.getCollectionTime(), 0);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,87 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.HitRecord;
+import ro.scene.hq.raytracer.core.Intersection;
+import ro.scene.hq.raytracer.core.Ray;
+import ro.scene.hq.raytracer.core.Shape;
+import ro.scene.hq.raytracer.core.Triangle;
+import ro.scene.hq.raytracer.core.Tuple;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import static ro.scene.hq.raytracer.core.HitRecord.hit_record;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+// Runs the same ray-triangle tests through Shape.intersect and through the hit record path, and reports
+// the time and the bytes allocated by the current thread per test for each.
+// Usage: TriangleAllocationBenchmark [triangles] [rays]
+public class TriangleAllocationBenchmark {
+    public static void main(String[] args) {
+        int triangleCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rayCount = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+
+        Random rnd = new Random(42);
+        Triangle[] triangles = new Triangle[triangleCount];
+        for (int i = 0; i < triangleCount; i++) {
+            Tuple p = point(rnd.nextDouble() * 10, rnd.nextDouble() * 10, rnd.nextDouble() * 10);
+            triangles[i] = triangle(p,
+                    p.add(vector(rnd.nextDouble() * 3, rnd.nextDouble() * 3, 0)),
+                    p.add(vector(0, rnd.nextDouble() * 3, rnd.nextDouble() * 3)));
+        }
+        Ray[] rays = new Ray[rayCount];
+        for (int i = 0; i < rayCount; i++) {
+            rays[i] = ray(point(rnd.nextDouble() * 10, rnd.nextDouble() * 10, -10),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1)));
+        }
+        long tests = (long) triangleCount * rayCount;
+
+        // the first passes warm up the JIT
+        for (int pass = 0; pass < 3; pass++) {
+            long startBytes = allocatedBytes();
+            long startTime = System.nanoTime();
+            int hits = 0;
+            for (Ray r : rays) {
+                for (Shape t : triangles) {
+                    List<Intersection> xs = Shape.intersect(t, r);
+                    hits += xs.size();
+                }
+            }
+            report(pass, "Shape.intersect", startTime, startBytes, tests, hits);
+
+            HitRecord record = hit_record();
+            startBytes = allocatedBytes();
+            startTime = System.nanoTime();
+            hits = 0;
+            for (Ray r : rays) {
+                double ox = r.origin.x, oy = r.origin.y, oz = r.origin.z;
+                double dx = r.direction.x, dy = r.direction.y, dz = r.direction.z;
+                for (Triangle t : triangles) {
+                    if (t.intersect(ox, oy, oz, dx, dy, dz, record)) {
+                        hits++;
+                    }
+                }
+            }
+            report(pass, "hit record", startTime, startBytes, tests, hits);
+        }
+    }
+
+    private static void report(int pass, String name, long startTime, long startBytes, long tests, int hits) {
+        long time = System.nanoTime() - startTime;
+        long bytes = allocatedBytes() - startBytes;
+        System.out.printf("pass %d %-16s %8.1f ms, %7.2f ns/test, %8.2f bytes/test (%d hits)%n",
+                pass, name, time / 1e6, (double) time / tests, (double) bytes / tests, hits);
+    }
+
+    // bytes allocated so far by the current thread, on JVMs that keep count
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
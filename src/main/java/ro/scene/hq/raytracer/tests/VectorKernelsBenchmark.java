@@ -0,0 +1,83 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.Affine;
+import ro.scene.hq.raytracer.core.VectorKernels;
+
+import java.util.Random;
+
+import static ro.scene.hq.raytracer.core.Affine.affine;
+import static ro.scene.hq.raytracer.core.Matrix.*;
+
+// Times the backend of VectorKernels picked for this JVM, which is the simd one when running with
+// --add-modules jdk.incubator.vector on a machine with 256 bit vectors; run it again with
+// -Draytracer.scalar=true for the scalar one. A renderer only ever uses one of them, so each is timed
+// alone, without the other one's calls in the profile of the loops that call them.
+// Usage: VectorKernelsBenchmark [count] [rounds]
+public class VectorKernelsBenchmark {
+    private static double sink;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        VectorKernels picked = VectorKernels.kernels();
+        System.out.println("picked backend: " + picked.name());
+
+        // the first passes warm it up
+        for (int pass = 0; pass < 3; pass++) {
+            System.out.println("pass " + pass);
+            run(picked, count, rounds);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static void run(VectorKernels kernels, int count, int rounds) {
+        Random rnd = new Random(42);
+        double[] xs = new double[count];
+        double[] ys = new double[count];
+        double[] zs = new double[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = rnd.nextDouble();
+            ys[i] = rnd.nextDouble();
+            zs[i] = -1;
+        }
+        Affine m = affine(rotation_y(0.3).mul(translation(1, 2, 3)));
+        Affine back = m.inverse();
+
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            kernels.transformPoints((r & 1) == 0 ? m : back, xs, ys, zs, count);
+        }
+        report(kernels, "transformPoints", System.nanoTime() - start, (long) rounds * count, "point");
+
+        double[] dx = new double[count];
+        double[] dy = new double[count];
+        double[] dz = new double[count];
+        start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            System.arraycopy(xs, 0, dx, 0, count);
+            System.arraycopy(ys, 0, dy, 0, count);
+            System.arraycopy(zs, 0, dz, 0, count);
+            kernels.directionsFrom(0.5, 0.5, 1, dx, dy, dz, count);
+        }
+        report(kernels, "directionsFrom", System.nanoTime() - start, (long) rounds * count, "point");
+        sink += dx[0];
+
+        double[][] a = rotation_x(0.2).mul(scaling(1, 2, 3)).data;
+        double[][] b = translation(1, 2, 3).data;
+        double[][] result = new double[4][4];
+        int multiplications = rounds * 50;
+        start = System.nanoTime();
+        for (int r = 0; r < multiplications; r++) {
+            kernels.mul4x4(a, b, result);
+            b[0][3] = result[0][3] * 1e-9;
+        }
+        report(kernels, "mul4x4", System.nanoTime() - start, multiplications, "matrix");
+        sink += result[0][0];
+    }
+
+    private static void report(VectorKernels kernels, String kernel, long nanos, long items, String item) {
+        System.out.printf("  %-24s %-16s %7.3f ns/%s%n", kernels.name(), kernel, (double) nanos / items, item);
+    }
+}
@@ -0,0 +1,60 @@
+package ro.scene.hq.raytracer.tests;
+
+import ro.scene.hq.raytracer.core.Bvh;
+import ro.scene.hq.raytracer.core.Intersection;
+import ro.scene.hq.raytracer.core.Ray;
+import ro.scene.hq.raytracer.core.Shape;
+import ro.scene.hq.raytracer.core.Tuple;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static ro.scene.hq.raytracer.core.Bvh.bvh;
+import static ro.scene.hq.raytracer.core.BvhSettings.wide;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+// Traces the same random rays through a binary, a 4 wide and an 8 wide Bvh over a triangle soup.
+// Usage: WideBvhBenchmark [triangles] [rays]
+public class WideBvhBenchmark {
+    public static void main(String[] args) {
+        int triangleCount = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int rayCount = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        Random rnd = new Random(42);
+        List<Shape> triangles = new ArrayList<>(triangleCount);
+        for (int i = 0; i < triangleCount; i++) {
+            Tuple p = point(rnd.nextDouble() * 100, rnd.nextDouble() * 100, rnd.nextDouble() * 100);
+            triangles.add(triangle(p,
+                    p.add(vector(rnd.nextDouble(), rnd.nextDouble(), 0)),
+                    p.add(vector(0, rnd.nextDouble(), rnd.nextDouble()))));
+        }
+        Ray[] rays = new Ray[rayCount];
+        for (int i = 0; i < rayCount; i++) {
+            rays[i] = ray(point(rnd.nextDouble() * 100, rnd.nextDouble() * 100, -10),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1)));
+        }
+
+        for (int width : new int[]{2, 4, 8}) {
+            Bvh b = bvh(triangles, wide(width));
+            // the first pass warms up the JIT
+            long hits = 0;
+            long best = Long.MAX_VALUE;
+            for (int pass = 0; pass < 3; pass++) {
+                long startTime = System.nanoTime();
+                hits = 0;
+                List<Intersection> xs = new ArrayList<>();
+                for (Ray r : rays) {
+                    xs.clear();
+                    b.intersect(r, xs);
+                    hits += xs.size();
+                }
+                best = Math.min(best, System.nanoTime() - startTime);
+            }
+            System.out.printf("width %d: %8.1f ms for %d rays (%d hits), %s%n",
+                    width, best / 1e6, rayCount, hits, b.stats);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.Affine.affine;
+import static ro.scene.hq.raytracer.core.Matrix.*;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class AffineTest {
+
+    @Test
+    public void convertingToAndFromAMatrix() {
+        Matrix m = translation(1, 2, 3).mul(rotation_y(0.3)).mul(scaling(2, 3, 4));
+
+        assertThat(affine(m).toMatrix(), is(equalTo(m)));
+        assertThat(affine(identity(4)), is(equalTo(Affine.IDENTITY)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void projectiveMatricesAreRejected() {
+        Matrix m = identity(4);
+        m.set(3, 2, 1);
+        affine(m);
+    }
+
+    @Test
+    public void multiplyingMatchesTheGenericMatrices() {
+        Random rnd = new Random(19);
+        for (int i = 0; i < 20; i++) {
+            Matrix a = randomTransform(rnd);
+            Matrix b = randomTransform(rnd);
+
+            assertMatricesEqual(affine(a).mul(affine(b)).toMatrix(), a.mul(b));
+        }
+    }
+
+    @Test
+    public void theClosedFormInverseMatchesTheGenericOne() {
+        Random rnd = new Random(91);
+        for (int i = 0; i < 20; i++) {
+            Matrix m = randomTransform(rnd);
+
+            assertMatricesEqual(affine(m).inverse().toMatrix(), inverse(m));
+            assertMatricesEqual(affine(m).inverse().mul(affine(m)).toMatrix(), identity(4));
+        }
+    }
+
+    @Test
+    public void theInverseOfATranslation() {
+        Affine inverse = affine(translation(5, -3, 2)).inverse();
+
+        assertThat(inverse.transformPoint(point(-3, 4, 5)), is(equalTo(point(-8, 7, 3))));
+    }
+
+    @Test
+    public void transformingPointsAndVectors() {
+        Affine a = affine(translation(5, -3, 2).mul(scaling(2, 3, 4)));
+
+        assertThat(a.transformPoint(point(-4, 6, 8)), is(equalTo(point(-3, 15, 34))));
+        assertThat(a.transformVector(vector(-4, 6, 8)), is(equalTo(vector(-8, 18, 32))));
+        assertThat(a.mul(point(-4, 6, 8)), is(equalTo(point(-3, 15, 34))));
+        assertThat(a.mul(vector(-4, 6, 8)), is(equalTo(vector(-8, 18, 32))));
+    }
+
+    @Test
+    public void theTransposedLinearPartCarriesNormals() {
+        Matrix m = translation(3, 0, 0).mul(scaling(1, 2, 1));
+        Affine normals = affine(m).inverse().transposeLinear();
+
+        assertThat(normals.transformVector(vector(1, 1, 0)), is(equalTo(vector(1, 0.5, 0))));
+        assertMatricesEqual(normals.toMatrix(), transpose(inverse(scaling(1, 2, 1))));
+    }
+
+    private static Matrix randomTransform(Random rnd) {
+        return translation(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5)
+                .mul(rotation_x(rnd.nextDouble() * 6))
+                .mul(rotation_y(rnd.nextDouble() * 6))
+                .mul(shearing(rnd.nextDouble(), 0, 0, rnd.nextDouble(), 0, 0))
+                .mul(scaling(rnd.nextDouble() + 0.5, rnd.nextDouble() + 0.5, rnd.nextDouble() + 0.5));
+    }
+
+    private static void assertMatricesEqual(Matrix a, Matrix b) {
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < 4; col++) {
+                assertThat(areEqual(a.get(row, col), b.get(row, col)), is(true));
+            }
+        }
+    }
+}
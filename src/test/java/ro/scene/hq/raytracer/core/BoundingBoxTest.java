@@ -0,0 +1,116 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.BoundingBox.*;
+import static ro.scene.hq.raytracer.core.Matrix.rotation_x;
+import static ro.scene.hq.raytracer.core.Matrix.rotation_y;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class BoundingBoxTest {
+
+    @Test
+    public void creatingAnEmptyBoundingBox() {
+        BoundingBox box = bounding_box();
+        assertThat(box.isEmpty(), is(true));
+        assertThat(box.min.x, is(Double.POSITIVE_INFINITY));
+        assertThat(box.max.x, is(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void addingPointsToAnEmptyBoundingBox() {
+        BoundingBox box = bounding_box();
+        box.add(point(-5, 2, 0));
+        box.add(point(7, 0, -3));
+        assertEqualTuples(box.min, point(-5, 0, -3));
+        assertEqualTuples(box.max, point(7, 2, 0));
+    }
+
+    @Test
+    public void addingOneBoundingBoxToAnother() {
+        BoundingBox box1 = bounding_box(point(-5, -2, 0), point(7, 4, 4));
+        BoundingBox box2 = bounding_box(point(8, -7, -2), point(14, 2, 8));
+        box1.add(box2);
+        assertEqualTuples(box1.min, point(-5, -7, -2));
+        assertEqualTuples(box1.max, point(14, 4, 8));
+    }
+
+    @Test
+    public void checkingToSeeIfABoxContainsAGivenPoint() {
+        BoundingBox box = bounding_box(point(5, -2, 0), point(11, 4, 7));
+        assertThat(box.contains(point(5, -2, 0)), is(true));
+        assertThat(box.contains(point(11, 4, 7)), is(true));
+        assertThat(box.contains(point(8, 1, 3)), is(true));
+        assertThat(box.contains(point(3, 0, 3)), is(false));
+        assertThat(box.contains(point(8, -4, 3)), is(false));
+        assertThat(box.contains(point(8, 1, 8)), is(false));
+    }
+
+    @Test
+    public void transformingABoundingBox() {
+        BoundingBox box = bounding_box(point(-1, -1, -1), point(1, 1, 1));
+        BoundingBox box2 = box.transform(rotation_x(Math.PI / 4).mul(rotation_y(Math.PI / 4)));
+        assertEqualTuples(box2.min, point(-1.4142, -1.7071, -1.7071));
+        assertEqualTuples(box2.max, point(1.4142, 1.7071, 1.7071));
+    }
+
+    @Test
+    public void transformingAnInfiniteBoundingBoxKeepsItInfinite() {
+        BoundingBox box = infinite_box().transform(rotation_x(Math.PI / 4));
+        assertThat(box.isFinite(), is(false));
+        assertThat(box.min.x, is(Double.NEGATIVE_INFINITY));
+        assertThat(box.max.y, is(Double.POSITIVE_INFINITY));
+    }
+
+    @Test
+    public void intersectingARayWithABoundingBoxAtTheOrigin() {
+        BoundingBox box = bounding_box(point(-1, -1, -1), point(1, 1, 1));
+        assertThat(intersects(box, ray(point(5, 0.5, 0), vector(-1, 0, 0))), is(true));
+        assertThat(intersects(box, ray(point(-5, 0.5, 0), vector(1, 0, 0))), is(true));
+        assertThat(intersects(box, ray(point(0.5, 5, 0), vector(0, -1, 0))), is(true));
+        assertThat(intersects(box, ray(point(0.5, -5, 0), vector(0, 1, 0))), is(true));
+        assertThat(intersects(box, ray(point(0.5, 0, 5), vector(0, 0, -1))), is(true));
+        assertThat(intersects(box, ray(point(0.5, 0, -5), vector(0, 0, 1))), is(true));
+        assertThat(intersects(box, ray(point(0, 0.5, 0), vector(0, 0, 1))), is(true));
+        assertThat(intersects(box, ray(point(-2, 0, 0), vector(2, 4, 6))), is(false));
+        assertThat(intersects(box, ray(point(0, -2, 0), vector(6, 2, 4))), is(false));
+        assertThat(intersects(box, ray(point(0, 0, -2), vector(4, 6, 2))), is(false));
+        assertThat(intersects(box, ray(point(2, 0, 2), vector(0, 0, -1))), is(false));
+        assertThat(intersects(box, ray(point(0, 2, 2), vector(0, -1, 0))), is(false));
+        assertThat(intersects(box, ray(point(2, 2, 0), vector(-1, 0, 0))), is(false));
+    }
+
+    @Test
+    public void intersectingARayWithANonCubicBoundingBox() {
+        BoundingBox box = bounding_box(point(5, -2, 0), point(11, 4, 7));
+        assertThat(intersects(box, ray(point(15, 1, 2), vector(-1, 0, 0))), is(true));
+        assertThat(intersects(box, ray(point(-5, -1, 4), vector(1, 0, 0))), is(true));
+        assertThat(intersects(box, ray(point(7, 6, 5), vector(0, -1, 0))), is(true));
+        assertThat(intersects(box, ray(point(9, -5, 6), vector(0, 1, 0))), is(true));
+        assertThat(intersects(box, ray(point(8, 2, 12), vector(0, 0, -1))), is(true));
+        assertThat(intersects(box, ray(point(6, 0, -5), vector(0, 0, 1))), is(true));
+        assertThat(intersects(box, ray(point(8, 1, 3.5), vector(0, 0, 1))), is(true));
+        assertThat(intersects(box, ray(point(9, -1, -8), vector(2, 4, 6))), is(false));
+        assertThat(intersects(box, ray(point(8, 3, -4), vector(6, 2, 4))), is(false));
+        assertThat(intersects(box, ray(point(9, -1, -2), vector(4, 6, 2))), is(false));
+        assertThat(intersects(box, ray(point(4, 0, 9), vector(0, 0, -1))), is(false));
+        assertThat(intersects(box, ray(point(8, 6, -1), vector(0, -1, 0))), is(false));
+        assertThat(intersects(box, ray(point(12, 5, 4), vector(-1, 0, 0))), is(false));
+    }
+
+    @Test
+    public void aBoxBehindTheRayOriginIsStillIntersected() {
+        BoundingBox box = bounding_box(point(-1, -1, -1), point(1, 1, 1));
+        assertThat(intersects(box, ray(point(0, 0, 5), vector(0, 0, 1))), is(true));
+    }
+
+    private void assertEqualTuples(Tuple a, Tuple b) {
+        assertThat(areEqual(a.x, b.x), is(true));
+        assertThat(areEqual(a.y, b.y), is(true));
+        assertThat(areEqual(a.z, b.z), is(true));
+        assertThat(areEqual(a.w, b.w), is(true));
+    }
+}
@@ -0,0 +1,127 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.BvhSettings.*;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Shape.intersect;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class BvhCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadingAFileTheSecondTimeComesFromTheCache() throws IOException {
+        String obj = objFile(200, 1);
+        BvhCache cache = new BvhCache(folder.newFolder("cache").toPath());
+
+        Group built = cache.load(obj);
+        Group cached = cache.load(obj);
+
+        assertThat(cache.misses, is(1));
+        assertThat(cache.hits, is(1));
+        assertThat(cache.directory.toFile().list().length, is(1));
+        assertSameGroups(cached, built);
+    }
+
+    @Test
+    public void differentSettingsOrContentGetTheirOwnCacheFiles() throws IOException {
+        String obj = objFile(50, 2);
+        BvhCache cache = new BvhCache(folder.newFolder("cache").toPath());
+
+        cache.load(obj);
+        cache.load(obj, median_split());
+        Files.write(new File(obj).toPath(), "v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n".getBytes(StandardCharsets.UTF_8));
+        Group changed = cache.load(obj);
+
+        assertThat(cache.misses, is(3));
+        assertThat(cache.directory.toFile().list().length, is(3));
+        assertThat(changed.shapes.size(), is(1));
+    }
+
+    @Test
+    public void wideAndSplitHierarchiesSurviveTheCache() throws IOException {
+        String obj = objFile(300, 3);
+        BvhCache cache = new BvhCache(folder.newFolder("cache").toPath());
+        for (BvhSettings settings : new BvhSettings[]{wide(4), sbvh(2.0), lbvh()}) {
+            Group built = cache.load(obj, settings);
+            Group cached = cache.load(obj, settings);
+            assertSameGroups(cached, built);
+            Bvh bvh = (Bvh) cached.accelerator;
+            assertThat(bvh.stats.toString(), is(((Bvh) built.accelerator).stats.toString()));
+        }
+        assertThat(cache.hits, is(3));
+    }
+
+    @Test
+    public void aDamagedCacheFileIsRebuilt() throws IOException {
+        String obj = objFile(50, 4);
+        BvhCache cache = new BvhCache(folder.newFolder("cache").toPath());
+        cache.load(obj);
+        File cacheFile = cache.directory.toFile().listFiles()[0];
+        byte[] content = Files.readAllBytes(cacheFile.toPath());
+        Files.write(cacheFile.toPath(), Arrays.copyOf(content, content.length / 2));
+
+        Group g = cache.load(obj);
+        assertThat(cache.misses, is(2));
+        assertThat(cache.load(obj).shapes.size(), is(g.shapes.size()));
+        assertThat(cache.hits, is(1));
+    }
+
+    // a soup of triangles, with some of them in named groups
+    private String objFile(int triangles, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        StringBuilder obj = new StringBuilder();
+        for (int i = 0; i < triangles; i++) {
+            double x = rnd.nextDouble() * 10 - 5;
+            double y = rnd.nextDouble() * 10 - 5;
+            double z = rnd.nextDouble() * 10 - 5;
+            obj.append("v ").append(x).append(' ').append(y).append(' ').append(z).append('\n');
+            obj.append("v ").append(x + rnd.nextDouble()).append(' ').append(y).append(' ').append(z).append('\n');
+            obj.append("v ").append(x).append(' ').append(y + rnd.nextDouble()).append(' ').append(z).append('\n');
+            if (i == triangles / 3) {
+                obj.append("g First\n");
+            } else if (i == 2 * triangles / 3) {
+                obj.append("g Second\n");
+            }
+            obj.append("f ").append(i * 3 + 1).append(' ').append(i * 3 + 2).append(' ').append(i * 3 + 3).append('\n');
+        }
+        File file = folder.newFile("mesh" + seed + ".obj");
+        Files.write(file.toPath(), obj.toString().getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    private static void assertSameGroups(Group actual, Group expected) {
+        assertThat(actual.shapes.size(), is(expected.shapes.size()));
+        assertThat(actual.bounds(), is(equalTo(expected.bounds())));
+        Random rnd = new Random(5);
+        for (int i = 0; i < 50; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, -10),
+                    vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1));
+            List<Tuple> actualHits = new ArrayList<>();
+            for (Intersection x : intersect(actual, r)) {
+                actualHits.add(((Triangle) x.object).p1);
+            }
+            List<Tuple> expectedHits = new ArrayList<>();
+            for (Intersection x : intersect(expected, r)) {
+                expectedHits.add(((Triangle) x.object).p1);
+            }
+            assertThat(actualHits, is(equalTo(expectedHits)));
+        }
+    }
+}
@@ -0,0 +1,441 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.Bvh.bvh;
+import static ro.scene.hq.raytracer.core.Group.group;
+import static ro.scene.hq.raytracer.core.BvhSettings.*;
+import static ro.scene.hq.raytracer.core.Matrix.scaling;
+import static ro.scene.hq.raytracer.core.Matrix.translation;
+import static ro.scene.hq.raytracer.core.Plane.plane;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Sphere.sphere;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class BvhTest {
+
+    @Test
+    public void aBvhOverNoShapesHasNoNodes() {
+        Bvh b = bvh(new ArrayList<>());
+        assertThat(b.nodes.length, is(0));
+        assertThat(b.bounds().isEmpty(), is(true));
+    }
+
+    @Test
+    public void unboundedShapesAreKeptOutsideTheHierarchy() {
+        List<Shape> shapes = new ArrayList<>();
+        Plane p = plane();
+        shapes.add(p);
+        shapes.add(sphere());
+        Bvh b = bvh(shapes);
+        assertThat(b.unbounded.size(), is(1));
+        assertThat(b.unbounded.get(0), is(p));
+        assertThat(b.bounds().isFinite(), is(false));
+    }
+
+    @Test
+    public void medianSplitLeavesHoldAtMostMaxLeafSizeShapes() {
+        List<Shape> shapes = randomTriangles(100, new Random(1));
+        BvhSettings settings = median_split();
+        settings.maxLeafSize = 3;
+        Bvh b = bvh(shapes, settings);
+        assertThat(countLeafShapes(b, 3), is(100));
+        assertThat(b.primitives.length, is(100));
+    }
+
+    @Test
+    public void sahLeavesHoldAtMostMaxLeafSizeShapes() {
+        List<Shape> shapes = randomTriangles(100, new Random(1));
+        Bvh b = bvh(shapes, sah(8, 2));
+        assertThat(countLeafShapes(b, 2), is(100));
+    }
+
+    @Test
+    public void buildStatisticsDescribeTheTree() {
+        List<Shape> shapes = randomTriangles(64, new Random(3));
+        Bvh b = bvh(shapes, median_split());
+        assertThat(b.stats.primitives, is(64));
+        assertThat(b.stats.leafCount, is(16));
+        assertThat(b.stats.nodeCount, is(31));
+        assertThat(b.stats.maxDepth, is(5));
+        assertThat(b.stats.estimatedCost > 0, is(true));
+    }
+
+    @Test
+    public void sahBuildIsCheaperThanAMedianSplitOnUnevenTriangles() {
+        Random rnd = new Random(11);
+        List<Shape> shapes = new ArrayList<>();
+        // a few huge triangles surrounded by lots of tiny ones, as in architectural meshes
+        for (int i = 0; i < 10; i++) {
+            Tuple p = point(rnd.nextDouble() * 100 - 50, rnd.nextDouble() * 100 - 50, 0);
+            shapes.add(triangle(p, p.add(vector(60, 0, 1)), p.add(vector(0, 60, 2))));
+        }
+        for (int i = 0; i < 2000; i++) {
+            Tuple p = point(rnd.nextDouble() * 100 - 50, rnd.nextDouble() * 100 - 50, rnd.nextDouble() * 100 - 50);
+            shapes.add(triangle(p, p.add(vector(0.1, 0, 0)), p.add(vector(0, 0.1, 0))));
+        }
+
+        BvhStats median = bvh(shapes, median_split()).stats;
+        BvhStats sah = bvh(shapes, sah(16, 4)).stats;
+        assertThat(sah.estimatedCost < median.estimatedCost, is(true));
+    }
+
+    @Test
+    public void intersectingABvhGivesTheSameIntersectionsAsTheShapes() {
+        Random rnd = new Random(7);
+        List<Shape> shapes = randomTriangles(500, rnd);
+        for (int i = 0; i < 50; i++) {
+            Sphere s = sphere();
+            s.transform = translation(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5)
+                    .mul(scaling(0.3, 0.3, 0.3));
+            shapes.add(s);
+        }
+        Bvh sahBvh = bvh(shapes);
+        Bvh medianBvh = bvh(shapes, median_split());
+        Bvh linearBvh = bvh(shapes, lbvh());
+        Bvh linear63Bvh = bvh(shapes, lbvh(63));
+        Bvh wide4Bvh = bvh(shapes, wide(4));
+        Bvh wide8Bvh = bvh(shapes, wide(8));
+        Bvh splitBvh = bvh(shapes, sbvh(2.0));
+
+        for (int i = 0; i < 50; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 2 - 1, rnd.nextDouble() * 2 - 1, -10),
+                    vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1));
+            List<Intersection> expected = new ArrayList<>();
+            for (Shape s : shapes) {
+                expected.addAll(Shape.intersect(s, r));
+            }
+            expected.sort(Comparator.comparingDouble(a -> a.t));
+            for (Bvh b : Arrays.asList(sahBvh, medianBvh, linearBvh, linear63Bvh, wide4Bvh, wide8Bvh, splitBvh)) {
+                List<Intersection> xs = new ArrayList<>();
+                b.intersect(r, xs);
+                xs.sort(Comparator.comparingDouble(a -> a.t));
+                assertThat(xs, is(equalTo(expected)));
+            }
+        }
+    }
+
+    @Test
+    public void theClosestHitOfABvhIsItsNearestIntersection() {
+        Random rnd = new Random(11);
+        List<Shape> shapes = randomTriangles(500, rnd);
+        shapes.add(plane());
+        Bvh[] bvhs = {bvh(shapes), bvh(shapes, median_split()), bvh(shapes, wide(4)), bvh(shapes, sbvh(2.0))};
+
+        for (int i = 0; i < 50; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 2 - 1, rnd.nextDouble() * 2 - 1, -10),
+                    vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1));
+            List<Intersection> xs = new ArrayList<>();
+            for (Shape s : shapes) {
+                xs.addAll(Shape.intersect(s, r));
+            }
+            Intersection expected = Intersection.hit(xs).orElse(null);
+            for (Bvh b : bvhs) {
+                HitRecord record = HitRecord.hit_record();
+                assertThat(b.closestHit(r, Double.POSITIVE_INFINITY, record), is(expected != null));
+                if (expected != null) {
+                    assertThat(record.toIntersection(), is(equalTo(expected)));
+                    // nothing is closer than the nearest hit
+                    assertThat(b.closestHit(r, expected.t, HitRecord.hit_record()), is(false));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void spatialSplitsReferenceSliversFromSeveralLeaves() {
+        List<Shape> shapes = slivers(300, new Random(23));
+        Bvh plain = bvh(shapes);
+        Bvh split = bvh(shapes, sbvh(1.5));
+
+        assertThat(split.stats.primitives, is(300));
+        assertThat(split.stats.references > 300, is(true));
+        assertThat(split.stats.references <= 450, is(true));
+        assertThat(split.primitives.length, is(split.stats.references));
+        assertThat(split.stats.estimatedCost < plain.stats.estimatedCost, is(true));
+    }
+
+    @Test
+    public void aSplitPrimitiveIsReportedOnce() {
+        List<Shape> shapes = slivers(300, new Random(29));
+        Bvh split = bvh(shapes, sbvh(2.0));
+        Random rnd = new Random(31);
+        for (int i = 0; i < 50; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 20 - 10, -10), vector(0, 0, 1));
+            List<Intersection> expected = new ArrayList<>();
+            for (Shape s : shapes) {
+                expected.addAll(Shape.intersect(s, r));
+            }
+            expected.sort(Comparator.comparingDouble(a -> a.t));
+            List<Intersection> xs = new ArrayList<>();
+            split.intersect(r, xs);
+            xs.sort(Comparator.comparingDouble(a -> a.t));
+            assertThat(xs, is(equalTo(expected)));
+        }
+    }
+
+    @Test
+    public void noReferenceGrowthMeansNoSpatialSplits() {
+        List<Shape> shapes = slivers(300, new Random(23));
+        Bvh b = bvh(shapes, sbvh(1.0));
+        assertThat(b.stats.references, is(300));
+        assertThat(countLeafShapes(b, 4), is(300));
+    }
+
+    @Test
+    public void aParallelBuildProducesTheSameTreeAsASequentialOne() {
+        List<Shape> shapes = randomTriangles(5000, new Random(5));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BvhSettings parallel = bvh_settings();
+        parallel.parallelThreshold = 64;
+        parallel.pool = pool;
+
+        Bvh expected = bvh(shapes, sequential());
+        Bvh b = bvh(shapes, parallel);
+        pool.shutdown();
+
+        assertThat(b.stats.nodeCount, is(expected.stats.nodeCount));
+        assertThat(b.stats.maxDepth, is(expected.stats.maxDepth));
+        assertThat(b.stats.estimatedCost, is(expected.stats.estimatedCost));
+        for (int i = 0; i < expected.primitives.length; i++) {
+            assertThat(b.primitives[i], is(sameInstance(expected.primitives[i])));
+        }
+    }
+
+    @Test
+    public void nodesAreFlattenedInDepthFirstOrder() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        BvhSettings settings = median_split();
+        settings.maxLeafSize = 1;
+        Bvh b = bvh(shapes, settings);
+
+        // root, left, left.left, left.right, right, right.left, right.right
+        assertThat(b.nodes.length, is(7 * Bvh.NODE_SIZE));
+        assertThat(b.nodes[Bvh.COUNT], is(-1.0));
+        assertThat(b.nodes[Bvh.OFFSET], is(4.0));
+        assertThat(b.nodes[Bvh.NODE_SIZE + Bvh.OFFSET], is(3.0));
+        assertThat(b.nodes[2 * Bvh.NODE_SIZE + Bvh.COUNT], is(1.0));
+        assertThat(b.nodes[3], is(10.0));
+        assertEqualTuples(b.bounds().min, point(-1, -1, -1));
+        assertEqualTuples(b.bounds().max, point(10, 1, 1));
+    }
+
+    @Test
+    public void nestedHierarchiesShareTheTraversalStack() {
+        Group inner = group();
+        for (int i = 0; i < 10; i++) {
+            Sphere s = sphere();
+            s.transform = translation(0, 0, i * 3);
+            inner.add(s);
+        }
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(inner);
+        for (int i = 0; i < 10; i++) {
+            Sphere s = sphere();
+            s.transform = translation(0, 0, -3 - i * 3);
+            shapes.add(s);
+        }
+        inner.buildBvh();
+        Bvh b = bvh(shapes);
+
+        List<Intersection> xs = new ArrayList<>();
+        b.intersect(ray(point(0, 0, -100), vector(0, 0, 1)), xs);
+        assertThat(xs.size(), is(40));
+        assertThat(Bvh.stacks.get().top, is(0));
+    }
+
+    @Test
+    public void refittingFollowsShapesThatMoved() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        Bvh b = bvh(shapes);
+        for (int i = 0; i < 50; i++) {
+            shapes.get(i).transform = translation(i * 3, 0.5, 1);
+        }
+        b.refit();
+
+        Ray r = ray(point(-5, 0.5, 1.8), vector(1, 0, 0));
+        List<Intersection> xs = new ArrayList<>();
+        b.intersect(r, xs);
+        assertThat(xs.size(), is(100));
+        assertEqualTuples(b.bounds().min, point(-1, -0.5, 0));
+        assertEqualTuples(b.bounds().max, point(148, 1.5, 2));
+        assertThat(areEqual(b.degradation(), 1.0), is(true));
+    }
+
+    @Test
+    public void aDegradedTreeIsRebuilt() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        Bvh b = bvh(shapes);
+        Bvh same = b.refitOrRebuild(shapes);
+        assertThat(same, is(sameInstance(b)));
+
+        // shuffle the positions so that every leaf ends up spanning the whole row
+        Random rnd = new Random(17);
+        for (Shape s : shapes) {
+            s.transform = translation(rnd.nextInt(200) * 3, 0, 0);
+        }
+        Bvh rebuilt = b.refitOrRebuild(shapes);
+        assertThat(b.degradation() > b.settings.rebuildThreshold, is(true));
+        assertThat(rebuilt, is(not(sameInstance(b))));
+        assertThat(rebuilt.degradation(), is(1.0));
+    }
+
+    @Test
+    public void aWideBvhCollapsesTheBinaryTree() {
+        List<Shape> shapes = randomTriangles(1000, new Random(19));
+        Bvh binary = bvh(shapes, median_split());
+        BvhSettings settings = median_split();
+        settings.width = 4;
+        Bvh wide = bvh(shapes, settings);
+
+        assertThat(wide.nodes.length, is(0));
+        assertThat(wide.stats.leafCount, is(binary.stats.leafCount));
+        assertThat(wide.stats.nodeCount < binary.stats.nodeCount / 2, is(true));
+        assertThat(wide.stats.maxDepth < binary.stats.maxDepth, is(true));
+        assertThat(wide.bounds(), is(equalTo(binary.bounds())));
+    }
+
+    @Test
+    public void refittingAWideBvh() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        Bvh b = bvh(shapes, wide(8));
+        for (int i = 0; i < 50; i++) {
+            shapes.get(i).transform = translation(i * 3, 5, 0);
+        }
+        b.refit();
+
+        List<Intersection> xs = new ArrayList<>();
+        b.intersect(ray(point(-5, 5, 0), vector(1, 0, 0)), xs);
+        assertThat(xs.size(), is(100));
+        assertEqualTuples(b.bounds().min, point(-1, 4, -1));
+        assertThat(areEqual(b.degradation(), 1.0), is(true));
+    }
+
+    @Test
+    public void spreadingBitsForMortonCodes() {
+        assertThat(BvhBuilder.spreadBits(0b1L), is(0b1L));
+        assertThat(BvhBuilder.spreadBits(0b11L), is(0b1001L));
+        assertThat(BvhBuilder.spreadBits(0b101L), is(0b1000001L));
+        assertThat(BvhBuilder.spreadBits(0x1fffffL), is(0x1249249249249249L));
+    }
+
+    @Test
+    public void radixSortingKeysCarriesTheValuesAlong() {
+        Random rnd = new Random(13);
+        int n = 100000;
+        long[] keys = new long[n];
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = rnd.nextLong() >>> 1;
+            values[i] = i;
+        }
+        long[] original = keys.clone();
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        BvhSettings settings = bvh_settings();
+        settings.parallelThreshold = 1000;
+        settings.pool = pool;
+        RadixSort.sort(keys, values, 63, settings);
+        pool.shutdown();
+
+        for (int i = 0; i < n; i++) {
+            assertThat(keys[i], is(original[values[i]]));
+            if (i > 0) {
+                assertThat(keys[i - 1] <= keys[i], is(true));
+            }
+        }
+    }
+
+    @Test
+    public void linearBuildSortsPrimitivesAlongTheMortonCurve() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Sphere s = sphere();
+            s.transform = translation(7 - i, 0, 0);
+            shapes.add(s);
+        }
+        BvhSettings settings = lbvh();
+        settings.maxLeafSize = 1;
+        Bvh b = bvh(shapes, settings);
+
+        for (int i = 0; i < 8; i++) {
+            assertThat(b.primitives[i], is(sameInstance(shapes.get(7 - i))));
+        }
+        assertThat(b.stats.leafCount, is(8));
+        assertThat(b.stats.maxDepth, is(4));
+    }
+
+    static List<Shape> randomTriangles(int count, Random rnd) {
+        List<Shape> shapes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Tuple p = point(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5);
+            shapes.add(triangle(p,
+                    p.add(vector(rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble())),
+                    p.add(vector(rnd.nextDouble(), rnd.nextDouble(), rnd.nextDouble()))));
+        }
+        return shapes;
+    }
+
+    // long thin diagonal triangles, whose boxes are mostly empty and overlap each other a lot
+    private static List<Shape> slivers(int count, Random rnd) {
+        List<Shape> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Tuple p = point(rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 20 - 10);
+            Tuple along = vector(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5);
+            result.add(triangle(p, p.add(along), p.add(along).add(vector(0.05, 0.05, 0))));
+        }
+        return result;
+    }
+
+    private static int countLeafShapes(Bvh b, int maxLeafSize) {
+        int total = 0;
+        for (int offset = 0; offset < b.nodes.length; offset += Bvh.NODE_SIZE) {
+            int count = (int) b.nodes[offset + Bvh.COUNT];
+            if (count > 0) {
+                assertThat(count <= maxLeafSize, is(true));
+                total += count;
+            }
+        }
+        return total;
+    }
+
+    private void assertEqualTuples(Tuple a, Tuple b) {
+        assertThat(areEqual(a.x, b.x), is(true));
+        assertThat(areEqual(a.y, b.y), is(true));
+        assertThat(areEqual(a.z, b.z), is(true));
+        assertThat(areEqual(a.w, b.w), is(true));
+    }
+}
@@ -65,6 +65,21 @@ public class CameraTest {
         assertEqualTuples(r.direction, vector(Math.sqrt(2) / 2.0, 0, -Math.sqrt(2) / 2.0));
     }
 
+    @Test
+    public void aRowOfRaysIsTheSameAsRaysForEachPixel() {
+        Camera c = camera(201, 101, Math.PI / 2.0);
+        c.transform = rotation_y(Math.PI / 4.0).mul(translation(0, -2, 5));
+        for (int py : new int[]{0, 50, 100}) {
+            Ray[] rays = rays_for_row(c, py);
+            assertThat(rays.length, is(201));
+            for (int px = 0; px < rays.length; px++) {
+                Ray expected = ray_for_pixel(c, px, py);
+                assertThat(rays[px].origin, is(expected.origin));
+                assertThat(rays[px].direction, is(expected.direction));
+            }
+        }
+    }
+
     @Test
     public void renderingAWorldWithACamera() {
         World w = default_world();
@@ -77,6 +92,33 @@ public class CameraTest {
         assertEqualTuples(image.pixelAt(5, 5), color(0.38066, 0.47583, 0.2855));
     }
 
+    @Test
+    public void theWorldCanBeChangedAgainAfterARender() {
+        World w = default_world();
+        Camera c = camera(11, 11, Math.PI / 2.0);
+        c.transform = view_transform(point(0, 0, -5), point(0, 0, 0), vector(0, 1, 0));
+        render(c, w);
+        for (Shape s : w.objects) {
+            assertThat(s.isFrozen(), is(false));
+        }
+
+        // moved out of the way, the inner sphere is what the center ray meets now
+        w.objects.get(0).transform = translation(10, 0, 0);
+        assertEqualTuples(render(c, w).pixelAt(5, 5), World.color_at(w, ray_for_pixel(c, 5, 5), 5));
+    }
+
+    @Test
+    public void aWorldFrozenBeforeARenderStaysFrozen() {
+        World w = default_world();
+        w.freeze();
+        Camera c = camera(11, 11, Math.PI / 2.0);
+        render(c, w);
+        assertThat(w.isFrozen(), is(true));
+        for (Shape s : w.objects) {
+            assertThat(s.isFrozen(), is(true));
+        }
+    }
+
     private void assertEqualTuples(Tuple a, Tuple b) {
         assertThat(areEqual(a.x, b.x), is(true));
         assertThat(areEqual(a.y, b.y), is(true));
@@ -71,4 +71,22 @@ public class ConeTest {
         assertThat(areEqual(a.z, b.z), is(true));
         assertThat(areEqual(a.w, b.w), is(true));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void anUnboundedConeHasAnInfiniteBoundingBox() {
+        BoundingBox box = cone().bounds();
+        assertThat(box.min.x, is(Double.NEGATIVE_INFINITY));
+        assertThat(box.max.y, is(Double.POSITIVE_INFINITY));
+        assertThat(box.isFinite(), is(false));
+    }
+
+    @Test
+    public void aBoundedConeHasABoundingBox() {
+        Cone shape = cone();
+        shape.minimum = -5;
+        shape.maximum = 3;
+        BoundingBox box = shape.bounds();
+        assertThat(box.min, is(point(-5, -5, -5)));
+        assertThat(box.max, is(point(5, 3, 5)));
+    }
+}
@@ -115,4 +115,25 @@ public class CylinderTest {
         assertThat(areEqual(a.z, b.z), is(true));
         assertThat(areEqual(a.w, b.w), is(true));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void anUnboundedCylinderHasAnInfiniteBoundingBox() {
+        Cylinder cyl = cylinder();
+        BoundingBox box = cyl.bounds();
+        assertThat(box.min.x, is(-1.0));
+        assertThat(box.max.z, is(1.0));
+        assertThat(box.min.y, is(Double.NEGATIVE_INFINITY));
+        assertThat(box.max.y, is(Double.POSITIVE_INFINITY));
+        assertThat(box.isFinite(), is(false));
+    }
+
+    @Test
+    public void aBoundedCylinderHasABoundingBox() {
+        Cylinder cyl = cylinder();
+        cyl.minimum = -5;
+        cyl.maximum = 3;
+        BoundingBox box = cyl.bounds();
+        assertThat(box.min, is(equalTo(point(-1, -5, -1))));
+        assertThat(box.max, is(equalTo(point(1, 3, 1))));
+    }
+}
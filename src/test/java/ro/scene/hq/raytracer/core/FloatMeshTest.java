@@ -0,0 +1,96 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static ro.scene.hq.raytracer.core.FloatMesh.float_mesh;
+import static ro.scene.hq.raytracer.core.Mesh.mesh;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Shape.intersect;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class FloatMeshTest {
+
+    @Test
+    public void boundsAreRoundedOutwards() {
+        double value = 0.1; // not a float
+        assertTrue(FloatMesh.roundDown(value) < value);
+        assertTrue(FloatMesh.roundUp(value) > value);
+        assertTrue(FloatMesh.roundDown(-value) < -value);
+        assertTrue(FloatMesh.roundUp(-value) > -value);
+        assertThat(FloatMesh.roundDown(0.5), is(0.5f));
+        assertThat(FloatMesh.roundUp(0.5), is(0.5f));
+    }
+
+    @Test
+    public void everyNodeHoldsTheRoundedFacesBelowIt() {
+        Mesh m = MeshTest.toMesh(BvhTest.randomTriangles(500, new Random(17)));
+        FloatMesh f = float_mesh(m);
+
+        for (int node = 0; node < f.links.length / 2; node++) {
+            int count = f.links[node * 2 + 1];
+            if (count <= 0) {
+                continue;
+            }
+            for (int i = f.links[node * 2]; i < f.links[node * 2] + count; i++) {
+                for (int corner = 0; corner < 3; corner++) {
+                    int v = f.indices[f.faces[i] * 3 + corner] * 3;
+                    for (int axis = 0; axis < 3; axis++) {
+                        assertTrue(f.bounds[node * 6 + axis] <= f.vertices[v + axis]);
+                        assertTrue(f.bounds[node * 6 + axis + 3] >= f.vertices[v + axis]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void theRoundedMeshFindsTheSameHits() {
+        Random rnd = new Random(71);
+        Mesh m = MeshTest.toMesh(BvhTest.randomTriangles(300, rnd));
+        FloatMesh f = float_mesh(m);
+        HitRecord record = HitRecord.hit_record();
+
+        for (int i = 0; i < 300; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, -10),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1)));
+            Intersection expected = Intersection.hit(new ArrayList<>(intersect(m, r))).orElse(null);
+            List<Intersection> xs = new ArrayList<>(intersect(f, r));
+            Intersection actual = Intersection.hit(xs).orElse(null);
+
+            // only rays grazing an edge could tell the two apart, and random ones practically never do
+            assertThat(actual != null, is(expected != null));
+            assertThat(f.closestHit(r, record), is(expected != null));
+            if (expected != null) {
+                assertTrue(areEqual(actual.t, expected.t));
+                assertThat(actual.face, is(expected.face));
+                assertTrue(areEqual(record.t, expected.t));
+                assertThat(record.face, is(expected.face));
+            }
+        }
+    }
+
+    @Test
+    public void floatsTakeLessMemory() {
+        Mesh m = MeshTest.toMesh(BvhTest.randomTriangles(1000, new Random(3)));
+        FloatMesh f = float_mesh(m);
+
+        assertThat(f.faceCount(), is(m.faceCount()));
+        assertThat(f.vertexCount(), is(m.vertexCount()));
+        assertTrue(f.sizeInBytes() < m.sizeInBytes() * 0.6);
+    }
+
+    @Test
+    public void anEmptyMeshStaysEmpty() {
+        FloatMesh f = float_mesh(mesh(new double[0], new int[0]));
+
+        assertThat(intersect(f, ray(point(0, 0, -5), vector(0, 0, 1))).isEmpty(), is(true));
+        assertThat(f.closestHit(ray(point(0, 0, -5), vector(0, 0, 1)), HitRecord.hit_record()), is(false));
+    }
+}
@@ -0,0 +1,207 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.Grid.grid;
+import static ro.scene.hq.raytracer.core.GridSettings.grid_settings;
+import static ro.scene.hq.raytracer.core.GridSettings.two_level;
+import static ro.scene.hq.raytracer.core.Matrix.scaling;
+import static ro.scene.hq.raytracer.core.Matrix.translation;
+import static ro.scene.hq.raytracer.core.Plane.plane;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Sphere.sphere;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class GridTest {
+
+    @Test
+    public void aGridOverNoShapesHasNoCells() {
+        Grid g = grid(new ArrayList<>());
+        assertThat(g.bounds().isEmpty(), is(true));
+        List<Intersection> xs = new ArrayList<>();
+        g.intersect(ray(point(0, 0, -5), vector(0, 0, 1)), xs);
+        assertThat(xs.isEmpty(), is(true));
+    }
+
+    @Test
+    public void unboundedShapesAreKeptOutsideTheGrid() {
+        List<Shape> shapes = new ArrayList<>();
+        Plane p = plane();
+        shapes.add(p);
+        shapes.add(sphere());
+        Grid g = grid(shapes);
+        assertThat(g.unbounded.size(), is(1));
+        assertThat(g.bounds().isFinite(), is(false));
+
+        List<Intersection> xs = new ArrayList<>();
+        g.intersect(ray(point(0, 5, 0), vector(0, -1, 0)), xs);
+        assertThat(xs.size(), is(3));
+    }
+
+    @Test
+    public void theResolutionFollowsTheObjectCountAndBounds() {
+        GridSettings settings = grid_settings();
+        settings.density = 1.0;
+        assertThat(Grid.resolution(new double[]{0, 0, 0, 10, 10, 10}, 1000, settings), is(new int[]{10, 10, 10}));
+        assertThat(Grid.resolution(new double[]{0, 0, 0, 40, 10, 10}, 4000, settings), is(new int[]{40, 10, 10}));
+        assertThat(Grid.resolution(new double[]{0, 0, 0, 10, 10, 10}, 1, settings), is(new int[]{1, 1, 1}));
+        // flat bounds get a single layer of cells
+        assertThat(Grid.resolution(new double[]{0, 0, 0, 10, 0, 10}, 1000, settings)[1], is(1));
+
+        settings.maxResolution = 16;
+        assertThat(Grid.resolution(new double[]{0, 0, 0, 100, 1, 1}, 100000, settings)[0], is(16));
+    }
+
+    @Test
+    public void intersectingAGridGivesTheSameIntersectionsAsTheShapes() {
+        Random rnd = new Random(13);
+        List<Shape> shapes = particles(400, rnd);
+        Grid g = grid(shapes);
+        assertThat(g.root.cellCount() > 400, is(true));
+
+        for (int i = 0; i < 100; i++) {
+            // origins inside and outside of the grid, and some rays along the axes
+            Ray r = i % 10 == 0
+                    ? ray(point(rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 20 - 10, -20), vector(0, 0, 1))
+                    : ray(point(rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 40 - 20),
+                    vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5));
+            assertThat(intersect(g, r), is(equalTo(bruteForce(shapes, r))));
+        }
+    }
+
+    @Test
+    public void crowdedCellsGetAGridOfTheirOwn() {
+        Random rnd = new Random(17);
+        List<Shape> shapes = particles(200, rnd);
+        // a dense cluster of tiny particles in one corner
+        for (int i = 0; i < 200; i++) {
+            Sphere s = sphere();
+            s.transform = translation(9 + rnd.nextDouble(), 9 + rnd.nextDouble(), 9 + rnd.nextDouble())
+                    .mul(scaling(0.02, 0.02, 0.02));
+            shapes.add(s);
+        }
+        Grid flat = grid(shapes);
+        Grid g = grid(shapes, two_level());
+        assertThat(flat.root.subgrids == null, is(true));
+        assertThat(g.root.subgrids, is(notNullValue()));
+
+        for (int i = 0; i < 100; i++) {
+            Ray r = ray(point(9 + rnd.nextDouble(), 9 + rnd.nextDouble(), -20),
+                    vector(rnd.nextDouble() * 0.1, rnd.nextDouble() * 0.1, 1));
+            List<Intersection> expected = bruteForce(shapes, r);
+            assertThat(intersect(g, r), is(equalTo(expected)));
+            assertThat(intersect(flat, r), is(equalTo(expected)));
+        }
+    }
+
+    @Test
+    public void aSphereSpanningManyCellsIsReportedOnce() {
+        Random rnd = new Random(19);
+        List<Shape> shapes = particles(100, rnd);
+        Sphere big = sphere();
+        big.transform = scaling(8, 8, 8);
+        shapes.add(big);
+        Grid g = grid(shapes);
+
+        Ray r = ray(point(0, 0, -20), vector(0, 0, 1));
+        assertThat(intersect(g, r), is(equalTo(bruteForce(shapes, r))));
+    }
+
+    @Test
+    public void theClosestHitStopsInTheCellHoldingIt() {
+        int[] tests = new int[1];
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Sphere s = new Sphere() {
+                @Override
+                protected boolean localClosestHit(Ray r, double tMax, HitRecord record) {
+                    tests[0]++;
+                    return super.localClosestHit(r, tMax, record);
+                }
+            };
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        Grid g = grid(shapes);
+
+        HitRecord record = new HitRecord();
+        assertThat(g.closestHit(ray(point(-5, 0, 0), vector(1, 0, 0)), Double.POSITIVE_INFINITY, record), is(true));
+        assertThat(record.object, is(shapes.get(0)));
+        assertThat(record.t, is(4.0));
+        assertThat(tests[0] < 5, is(true));
+    }
+
+    @Test
+    public void anyHitOnlyWalksTheCellsWithinItsRange() {
+        int[] tests = new int[1];
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Sphere s = new Sphere() {
+                @Override
+                protected boolean localAnyHit(Ray r, double tMin, double tMax) {
+                    tests[0]++;
+                    return super.localAnyHit(r, tMin, tMax);
+                }
+            };
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        Grid g = grid(shapes);
+        Ray r = ray(point(-5, 0, 0), vector(1, 0, 0));
+
+        assertThat(g.anyHit(r, 0, 3), is(nullValue()));
+        assertThat(tests[0], is(0));
+
+        assertThat(g.anyHit(r, 30.2, 30.8), is(nullValue()));
+        assertThat(tests[0] < 5, is(true));
+    }
+
+    @Test
+    public void aGridIsRebuiltInsteadOfRefitted() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(sphere());
+        Grid g = grid(shapes);
+        shapes.get(0).transform = translation(0, 5, 0);
+        Grid rebuilt = g.refitOrRebuild(shapes);
+
+        assertThat(rebuilt == g, is(false));
+        assertThat(rebuilt.bounds().min.y, is(4.0));
+    }
+
+    static List<Shape> particles(int count, Random rnd) {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Sphere s = sphere();
+            s.transform = translation(rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 20 - 10, rnd.nextDouble() * 20 - 10)
+                    .mul(scaling(0.3, 0.3, 0.3));
+            shapes.add(s);
+        }
+        return shapes;
+    }
+
+    private static List<Intersection> intersect(Grid g, Ray r) {
+        List<Intersection> xs = new ArrayList<>();
+        g.intersect(r, xs);
+        xs.sort(Comparator.comparingDouble(a -> a.t));
+        return xs;
+    }
+
+    private static List<Intersection> bruteForce(List<Shape> shapes, Ray r) {
+        List<Intersection> xs = new ArrayList<>();
+        for (Shape s : shapes) {
+            xs.addAll(Shape.intersect(s, r));
+        }
+        xs.sort(Comparator.comparingDouble(a -> a.t));
+        return xs;
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import java.util.List;
 
+import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
@@ -13,10 +14,13 @@ import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.*;
 import static ro.scene.hq.raytracer.core.Group.group;
 import static ro.scene.hq.raytracer.core.Matrix.*;
+import static ro.scene.hq.raytracer.core.Plane.plane;
 import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Shape.intersect;
 import static ro.scene.hq.raytracer.core.Shape.normal_at;
 import static ro.scene.hq.raytracer.core.ShapesTest.TestShape.test_shape;
 import static ro.scene.hq.raytracer.core.Sphere.sphere;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
 import static ro.scene.hq.raytracer.core.Tuple.*;
 
 public class GroupTest {
@@ -81,10 +85,127 @@ public class GroupTest {
         g.add(s);
 
         Ray r = ray(point(10, 0, -10), vector(0, 0, 1));
-        List<Intersection> xs = g.localIntersect(r);
+        List<Intersection> xs = intersect(g, r);
         assertThat(xs.size(), is(2));
     }
 
+    @Test
+    public void aGroupHasABoundingBoxThatContainsItsChildren() {
+        Group g = group();
+        Sphere s = sphere();
+        s.transform = translation(2, 5, -3).mul(scaling(2, 2, 2));
+        g.add(s);
+        g.add(triangle(point(-3, 0, 0), point(0, 7, 0), point(0, 0, 4)));
+
+        BoundingBox box = g.bounds();
+        assertEqualTuples(box.min, point(-3, 0, -5));
+        assertEqualTuples(box.max, point(4, 7, 4));
+    }
+
+    @Test
+    public void intersectingAGroupWithABvhGivesTheSameIntersections() {
+        Group g = group();
+        for (int i = 0; i < 20; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i - 10, (i % 3) * 0.5, 0).mul(scaling(0.75, 0.75, 0.75));
+            g.add(s);
+        }
+        g.add(plane());
+
+        Ray r = ray(point(-12, 0.2, 0.1), vector(1, 0.01, 0));
+        List<Intersection> expected = intersect(g, r);
+        g.buildBvh();
+        List<Intersection> xs = intersect(g, r);
+
+        assertThat(g.accelerator, is(notNullValue()));
+        assertThat(xs, is(equalTo(expected)));
+    }
+
+    @Test
+    public void refittingAGroupAfterItsChildrenMoved() {
+        Group g = group();
+        Group inner = group();
+        Sphere s1 = sphere();
+        Sphere s2 = sphere();
+        inner.add(s1);
+        g.add(inner);
+        g.add(s2);
+        g.buildBvh();
+
+        s1.transform = translation(0, 10, 0);
+        s2.transform = translation(0, -10, 0);
+        assertThat(g.refitBvh(), is(false));
+
+        BoundingBox box = g.bounds();
+        assertEqualTuples(box.min, point(-1, -11, -1));
+        assertEqualTuples(box.max, point(1, 11, 1));
+        assertThat(intersect(g, ray(point(0, 10, -5), vector(0, 0, 1))).size(), is(2));
+    }
+
+    @Test
+    public void aGroupSkipsItsChildrenWhenTheRayMissesItsBounds() {
+        int[] tests = new int[1];
+        Sphere s = new Sphere() {
+            @Override
+            protected List<Intersection> localIntersect(Ray r) {
+                tests[0]++;
+                return super.localIntersect(r);
+            }
+        };
+        Group g = group();
+        g.add(s);
+        g.freeze();
+
+        assertThat(intersect(g, ray(point(0, 5, -5), vector(0, 0, 1))).isEmpty(), is(true));
+        assertThat(tests[0], is(0));
+        assertThat(intersect(g, ray(point(0, 0, -5), vector(0, 0, 1))).size(), is(2));
+        assertThat(tests[0], is(1));
+    }
+
+    @Test
+    public void childrenMovedAfterAnIntersectionAreStillHit() {
+        Sphere s = sphere();
+        Group g = group();
+        g.add(s);
+        assertThat(intersect(g, ray(point(0, 0, -5), vector(0, 0, 1))).size(), is(2));
+
+        s.transform = translation(5, 0, 0);
+        assertThat(intersect(g, ray(point(5, 0, -5), vector(0, 0, 1))).size(), is(2));
+    }
+
+    @Test
+    public void intersectingAGroupThroughAKdTree() {
+        Group g = group();
+        Group inner = group();
+        for (int i = 0; i < 20; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i - 10, (i % 3) * 0.5, 0).mul(scaling(0.75, 0.75, 0.75));
+            (i % 2 == 0 ? g : inner).add(s);
+        }
+        g.add(inner);
+        g.add(plane());
+
+        Ray r = ray(point(-12, 0.2, 0.1), vector(1, 0.01, 0));
+        List<Intersection> expected = intersect(g, r);
+        g.buildKdTree();
+        List<Intersection> xs = intersect(g, r);
+
+        assertThat(g.accelerator instanceof KdTree, is(true));
+        assertThat(inner.accelerator instanceof KdTree, is(true));
+        assertThat(xs, is(equalTo(expected)));
+        assertThat(g.refitBvh(), is(true));
+        assertThat(g.accelerator instanceof KdTree, is(true));
+    }
+
+    @Test
+    public void addingAChildDiscardsTheBvh() {
+        Group g = group();
+        g.add(sphere());
+        g.buildBvh();
+        g.add(sphere());
+        assertThat(g.accelerator, is(nullValue()));
+    }
+
     @Test
     public void convertingAPointFromWorldToObjectSpace() {
         Group g1 = group();
@@ -139,6 +260,44 @@ public class GroupTest {
         assertEqualTuples(n, vector(0.2857, 0.4286, -0.8571));
     }
 
+    @Test
+    public void aFrozenHierarchyGivesTheSameAnswers() {
+        Group g1 = group();
+        g1.transform = rotation_y(Math.PI / 2.0);
+        Group g2 = group();
+        g2.transform = scaling(1, 2, 3);
+        g1.add(g2);
+        Sphere s = sphere();
+        s.transform = translation(5, 0, 0);
+        g2.add(s);
+
+        Tuple expected = s.worldToObject(point(-2, 0, -10));
+
+        g1.freeze();
+        assertThat(s.isFrozen(), is(true));
+        assertEqualTuples(s.worldToObject(point(-2, 0, -10)), expected);
+        assertEqualTuples(normal_at(s, point(1.7321, 1.1547, -5.5774)), vector(0.2857, 0.4286, -0.8571));
+    }
+
+    @Test
+    public void aFrozenShapeIgnoresChangesUntilFrozenAgain() {
+        Group g = group();
+        g.transform = scaling(2, 2, 2);
+        Sphere s = sphere();
+        s.transform = translation(5, 0, 0);
+        g.add(s);
+        g.freeze();
+
+        g.transform = identity(4);
+        assertEqualTuples(s.worldToObject(point(12, 0, 0)), point(1, 0, 0));
+        g.freeze();
+        assertEqualTuples(s.worldToObject(point(12, 0, 0)), point(7, 0, 0));
+        g.unfreeze();
+        assertThat(s.isFrozen(), is(false));
+        g.transform = scaling(2, 2, 2);
+        assertEqualTuples(s.worldToObject(point(12, 0, 0)), point(1, 0, 0));
+    }
+
     private void assertEqualTuples(Tuple a, Tuple b) {
         assertThat(areEqual(a.x, b.x), is(true));
         assertThat(areEqual(a.y, b.y), is(true));
@@ -0,0 +1,200 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.Computations.prepare_computations;
+import static ro.scene.hq.raytracer.core.Group.group;
+import static ro.scene.hq.raytracer.core.Instance.instance;
+import static ro.scene.hq.raytracer.core.Intersection.hit;
+import static ro.scene.hq.raytracer.core.Matrix.*;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Shape.intersect;
+import static ro.scene.hq.raytracer.core.Shape.normal_at;
+import static ro.scene.hq.raytracer.core.Sphere.sphere;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+import static ro.scene.hq.raytracer.core.World.intersect_world;
+import static ro.scene.hq.raytracer.core.World.world;
+
+public class InstanceTest {
+
+    private static Group mesh() {
+        ObjParser parser = ObjParser.parse(Arrays.asList(
+                "v -1 1 0",
+                "v -1 -1 0",
+                "v 1 -1 0",
+                "v 1 1 0",
+                "f 1 2 3 4"
+        ));
+        Group g = parser.toGroup();
+        g.buildBvh();
+        return g;
+    }
+
+    @Test
+    public void intersectingAnInstanceReportsTheHitShapeAndTheInstance() {
+        Group mesh = mesh();
+        Instance i = instance(mesh);
+        i.transform = translation(0, 0, 5);
+
+        List<Intersection> xs = intersect(i, ray(point(0.5, 0.5, -5), vector(0, 0, 1)));
+        assertThat(xs.size(), is(1));
+        assertThat(areEqual(xs.get(0).t, 10), is(true));
+        assertThat(xs.get(0).object instanceof Triangle, is(true));
+        assertThat(xs.get(0).object.parent, is(sameInstance(mesh)));
+        assertThat(xs.get(0).instance, is(i));
+    }
+
+    @Test
+    public void thePrototypeIsNotReparented() {
+        Group mesh = mesh();
+        Instance i1 = instance(mesh);
+        Instance i2 = instance(mesh);
+        Group g = group();
+        g.add(i1);
+        g.add(i2);
+        assertThat(mesh.parent, is(nullValue()));
+        assertThat(i1.parent, is(g));
+    }
+
+    @Test
+    public void theBoundsOfAnInstanceAreThoseOfItsPrototype() {
+        Group mesh = mesh();
+        mesh.transform = scaling(2, 2, 2);
+        Instance i = instance(mesh);
+        i.transform = translation(10, 0, 0);
+
+        BoundingBox box = i.parentSpaceBounds();
+        assertEqualTuples(box.min, point(8, -2, 0));
+        assertEqualTuples(box.max, point(12, 2, 0));
+    }
+
+    @Test
+    public void theNormalOnAnInstancedShapeGoesThroughTheInstanceTransform() {
+        Sphere s = sphere();
+        s.transform = translation(0, 1, 0);
+        Group prototype = group();
+        prototype.transform = scaling(1, 2, 1);
+        prototype.add(s);
+
+        Instance i = instance(prototype);
+        i.transform = rotation_z(Math.PI / 2.0);
+
+        // the same arrangement, copied by hand
+        Sphere copy = sphere();
+        copy.transform = translation(0, 1, 0);
+        Group inner = group();
+        inner.transform = scaling(1, 2, 1);
+        inner.add(copy);
+        Group outer = group();
+        outer.transform = rotation_z(Math.PI / 2.0);
+        outer.add(inner);
+
+        Ray r = ray(point(-10, 0.3, 0.2), vector(1, 0, 0));
+        Intersection h1 = hit(intersect(i, r)).get();
+        Intersection h2 = hit(intersect(outer, r)).get();
+        assertThat(areEqual(h1.t, h2.t), is(true));
+
+        Tuple point = Ray.position(r, h1.t);
+        assertEqualTuples(normal_at(h1.object, point, h1), normal_at(h2.object, point, h2));
+        assertEqualTuples(prepare_computations(h1, r, Arrays.asList(h1)).normalv,
+                prepare_computations(h2, r, Arrays.asList(h2)).normalv);
+    }
+
+    @Test
+    public void theNormalOnANestedInstanceGoesThroughEveryInstanceTransform() {
+        Sphere s = sphere();
+        s.transform = translation(0, 1, 0);
+        Group leaf = group();
+        leaf.transform = scaling(1, 2, 1);
+        leaf.add(s);
+        Instance inner = instance(leaf);
+        inner.transform = rotation_x(Math.PI / 3.0);
+        Group middle = group();
+        middle.transform = scaling(2, 1, 1);
+        middle.add(inner);
+        Instance outer = instance(middle);
+        outer.transform = rotation_z(Math.PI / 2.0);
+
+        // the same arrangement, copied by hand
+        Sphere copy = sphere();
+        copy.transform = translation(0, 1, 0);
+        Group g1 = group();
+        g1.transform = scaling(1, 2, 1);
+        g1.add(copy);
+        Group g2 = group();
+        g2.transform = rotation_x(Math.PI / 3.0);
+        g2.add(g1);
+        Group g3 = group();
+        g3.transform = scaling(2, 1, 1);
+        g3.add(g2);
+        Group g4 = group();
+        g4.transform = rotation_z(Math.PI / 2.0);
+        g4.add(g3);
+
+        Ray r = ray(point(-10, 0.3, 0.2), vector(1, 0, 0));
+        Intersection h1 = hit(intersect(outer, r)).get();
+        Intersection h2 = hit(intersect(g4, r)).get();
+        assertThat(areEqual(h1.t, h2.t), is(true));
+        assertThat(h1.instance, is(outer));
+        assertThat(h1.inner[0], is(inner));
+
+        Tuple point = Ray.position(r, h1.t);
+        assertEqualTuples(normal_at(h1.object, point, h1), normal_at(h2.object, point, h2));
+
+        // the same through closest_hit
+        HitRecord record = new HitRecord();
+        assertThat(Shape.closest_hit(outer, r, Double.POSITIVE_INFINITY, record), is(true));
+        assertThat(record.toIntersection(), is(h1));
+    }
+
+    @Test
+    public void freezingAnInstanceFreezesTheHierarchiesBehindIt() {
+        Sphere s = sphere();
+        Group leaf = group();
+        leaf.add(s);
+        Instance inner = instance(leaf);
+        Group middle = group();
+        middle.add(inner);
+        Instance outer = instance(middle);
+
+        outer.freeze();
+        assertThat(middle.isFrozen(), is(true));
+        assertThat(inner.isFrozen(), is(true));
+        assertThat(leaf.isFrozen(), is(true));
+        assertThat(s.isFrozen(), is(true));
+        outer.unfreeze();
+        assertThat(s.isFrozen(), is(false));
+    }
+
+    @Test
+    public void aWorldOfInstancesSharesOneMesh() {
+        Group mesh = mesh();
+        World w = world();
+        for (int i = 0; i < 100; i++) {
+            Instance copy = instance(mesh);
+            copy.transform = translation(i * 3, 0, 0);
+            w.objects.add(copy);
+        }
+        w.buildBvh();
+
+        List<Intersection> xs = intersect_world(w, ray(point(150.5, 0, -5), vector(0, 0, 1)));
+        assertThat(xs.size(), is(1));
+        assertThat(xs.get(0).instance, is(sameInstance(w.objects.get(50))));
+        assertThat(mesh.shapes.size(), is(2));
+    }
+
+    private void assertEqualTuples(Tuple a, Tuple b) {
+        assertThat(areEqual(a.x, b.x), is(true));
+        assertThat(areEqual(a.y, b.y), is(true));
+        assertThat(areEqual(a.z, b.z), is(true));
+        assertThat(areEqual(a.w, b.w), is(true));
+    }
+}
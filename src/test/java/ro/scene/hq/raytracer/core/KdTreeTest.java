@@ -0,0 +1,186 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.BvhTest.randomTriangles;
+import static ro.scene.hq.raytracer.core.KdTree.kd_tree;
+import static ro.scene.hq.raytracer.core.Matrix.scaling;
+import static ro.scene.hq.raytracer.core.Matrix.translation;
+import static ro.scene.hq.raytracer.core.Plane.plane;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Sphere.sphere;
+import static ro.scene.hq.raytracer.core.Triangle.triangle;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class KdTreeTest {
+
+    @Test
+    public void aKdTreeOverNoShapesHasNoNodes() {
+        KdTree tree = kd_tree(new ArrayList<>());
+        assertThat(tree.nodeCount, is(0));
+        assertThat(tree.bounds().isEmpty(), is(true));
+        assertThat(hit(tree, ray(point(0, 0, -5), vector(0, 0, 1))), is(nullValue()));
+    }
+
+    @Test
+    public void unboundedShapesAreKeptOutsideTheTree() {
+        List<Shape> shapes = new ArrayList<>();
+        Plane p = plane();
+        shapes.add(p);
+        shapes.add(sphere());
+        KdTree tree = kd_tree(shapes);
+        assertThat(tree.unbounded.size(), is(1));
+        assertThat(tree.bounds().isFinite(), is(false));
+
+        Intersection hit = hit(tree, ray(point(0, 5, 0), vector(0, -1, 0)));
+        assertThat(hit.object, is(p));
+    }
+
+    @Test
+    public void aKdTreeSplitsSpreadOutShapes() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        KdTree tree = kd_tree(shapes);
+        assertThat(tree.axes[0], is(0));
+        assertThat(tree.nodeCount > 20, is(true));
+        assertThat(tree.referenceCount, is(20));
+    }
+
+    @Test
+    public void intersectingAKdTreeGivesTheSameIntersectionsAsTheShapes() {
+        Random rnd = new Random(7);
+        List<Shape> shapes = randomTriangles(500, rnd);
+        for (int i = 0; i < 50; i++) {
+            Sphere s = sphere();
+            s.transform = translation(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5)
+                    .mul(scaling(0.3, 0.3, 0.3));
+            shapes.add(s);
+        }
+        KdTree tree = kd_tree(shapes);
+
+        for (int i = 0; i < 50; i++) {
+            // origins inside the tree too, since the intersections behind them have to be there as well
+            Ray r = ray(point(rnd.nextDouble() * 2 - 1, rnd.nextDouble() * 2 - 1, rnd.nextDouble() * 10 - 10),
+                    vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1));
+            List<Intersection> expected = new ArrayList<>();
+            for (Shape s : shapes) {
+                expected.addAll(Shape.intersect(s, r));
+            }
+            expected.sort(Comparator.comparingDouble(a -> a.t));
+            List<Intersection> xs = new ArrayList<>();
+            tree.intersect(r, xs);
+            xs.sort(Comparator.comparingDouble(a -> a.t));
+            assertThat(xs, is(equalTo(expected)));
+
+            Optional<Intersection> hit = Intersection.hit(expected);
+            assertThat(Optional.ofNullable(hit(tree, r)), is(equalTo(hit)));
+        }
+    }
+
+    @Test
+    public void flatShapesLyingInASplitPlaneAreFound() {
+        // the faces of a box made of triangles, all lying in the planes the tree is likely to split at
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            shapes.add(triangle(point(i, 0, 0), point(i, 1, 0), point(i, 0, 1)));
+            shapes.add(triangle(point(0, i, 0), point(1, i, 0), point(0, i, 1)));
+        }
+        KdTree tree = kd_tree(shapes);
+
+        for (int i = 0; i < 10; i++) {
+            List<Intersection> xs = new ArrayList<>();
+            tree.intersect(ray(point(-1, 0.25, 0.25), vector(1, 0, 0)), xs);
+            assertThat(xs.size(), is(10));
+            xs.clear();
+            tree.intersect(ray(point(0.25, -1, 0.25), vector(0, 1, 0)), xs);
+            assertThat(xs.size(), is(10));
+        }
+        assertThat(hit(tree, ray(point(4.5, 0.25, 0.25), vector(1, 0, 0))).t, is(0.5));
+        assertThat(hit(tree, ray(point(4.5, 0.25, 0.25), vector(-1, 0, 0))).t, is(0.5));
+    }
+
+    @Test
+    public void aShapeStraddlingSplitsIsReportedOnce() {
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Sphere s = sphere();
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        Sphere big = sphere();
+        big.transform = translation(30, 0, 0).mul(scaling(40, 0.5, 0.5));
+        shapes.add(big);
+        KdTree tree = kd_tree(shapes);
+
+        List<Intersection> xs = new ArrayList<>();
+        tree.intersect(ray(point(-20, 0, 0), vector(1, 0, 0)), xs);
+        assertThat(xs.size(), is(42));
+    }
+
+    @Test
+    public void theClosestHitStopsAtTheFirstCellWithAHit() {
+        int[] tests = new int[1];
+        List<Shape> shapes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Sphere s = new Sphere() {
+                @Override
+                protected List<Intersection> localIntersect(Ray r) {
+                    tests[0]++;
+                    return super.localIntersect(r);
+                }
+
+                @Override
+                protected boolean localClosestHit(Ray r, double tMax, HitRecord record) {
+                    tests[0]++;
+                    return super.localClosestHit(r, tMax, record);
+                }
+            };
+            s.transform = translation(i * 3, 0, 0);
+            shapes.add(s);
+        }
+        KdTree tree = kd_tree(shapes);
+
+        HitRecord record = new HitRecord();
+        assertThat(tree.closestHit(ray(point(-5, 0, 0), vector(1, 0, 0)), Double.POSITIVE_INFINITY, record), is(true));
+        assertThat(record.object, is(shapes.get(0)));
+        assertThat(record.t, is(4.0));
+        assertThat(tests[0] < 5, is(true));
+
+        tests[0] = 0;
+        List<Intersection> xs = new ArrayList<>();
+        tree.intersect(ray(point(-5, 0, 0), vector(1, 0, 0)), xs);
+        assertThat(xs.size(), is(100));
+        assertThat(tests[0], is(50));
+    }
+
+    @Test
+    public void aKdTreeIsRebuiltInsteadOfRefitted() {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(sphere());
+        KdTree tree = kd_tree(shapes);
+        shapes.get(0).transform = translation(0, 5, 0);
+        KdTree rebuilt = tree.refitOrRebuild(shapes);
+
+        assertThat(rebuilt == tree, is(false));
+        assertThat(rebuilt.bounds().min.y, is(4.0));
+    }
+
+    private static Intersection hit(KdTree tree, Ray r) {
+        HitRecord record = new HitRecord();
+        return tree.closestHit(r, Double.POSITIVE_INFINITY, record) ? record.toIntersection() : null;
+    }
+}
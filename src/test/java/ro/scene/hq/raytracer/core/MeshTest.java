@@ -0,0 +1,212 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static ro.scene.hq.raytracer.core.Instance.instance;
+import static ro.scene.hq.raytracer.core.Matrix.translation;
+import static ro.scene.hq.raytracer.core.Mesh.mesh;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Shape.intersect;
+import static ro.scene.hq.raytracer.core.Shape.normal_at;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class MeshTest {
+
+    // a square in the z = 0 plane, made of two faces sharing the diagonal
+    private static Mesh square() {
+        return mesh(new double[]{
+                -1, 1, 0,
+                -1, -1, 0,
+                1, -1, 0,
+                1, 1, 0
+        }, new int[]{0, 1, 2, 0, 2, 3});
+    }
+
+    @Test
+    public void facesShareTheirVertices() {
+        Mesh m = square();
+
+        assertThat(m.vertexCount(), is(4));
+        assertThat(m.faceCount(), is(2));
+        assertEqualTuples(m.vertex(2), point(1, -1, 0));
+        BoundingBox box = m.bounds();
+        assertEqualTuples(box.min, point(-1, -1, 0));
+        assertEqualTuples(box.max, point(1, 1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void facesNeedThreeIndices() {
+        mesh(new double[]{0, 0, 0, 1, 0, 0}, new int[]{0, 1});
+    }
+
+    @Test
+    public void aRayStrikesAFaceOfTheMesh() {
+        Mesh m = square();
+
+        List<Intersection> xs = intersect(m, ray(point(0.5, 0.5, -2), vector(0, 0, 1)));
+        assertThat(xs.size(), is(1));
+        assertTrue(areEqual(xs.get(0).t, 2));
+        assertThat(xs.get(0).face, is(1));
+
+        xs = intersect(m, ray(point(-0.5, -0.5, -2), vector(0, 0, 1)));
+        assertThat(xs.size(), is(1));
+        assertThat(xs.get(0).face, is(0));
+    }
+
+    @Test
+    public void aRayMissesTheMesh() {
+        Mesh m = square();
+
+        assertThat(intersect(m, ray(point(2, 0, -2), vector(0, 0, 1))).isEmpty(), is(true));
+        assertThat(intersect(m, ray(point(0, 0, -2), vector(0, 1, 0))).isEmpty(), is(true));
+    }
+
+    @Test
+    public void theNormalComesFromTheFaceThatWasHit() {
+        Mesh m = mesh(new double[]{
+                0, 1, 0,
+                -1, 0, 0,
+                1, 0, 0,
+                0, 0, 1
+        }, new int[]{0, 1, 2, 0, 1, 3});
+        Ray r = ray(point(0, 0.5, -2), vector(0, 0, 1));
+        Intersection hit = Intersection.hit(intersect(m, r)).get();
+
+        assertThat(hit.face, is(0));
+        assertEqualTuples(normal_at(m, Ray.position(r, hit.t), hit), vector(0, 0, -1));
+    }
+
+    @Test
+    public void theFaceIsKeptThroughAnInstance() {
+        Instance i = instance(square());
+        i.transform = translation(0, 0, 5);
+
+        List<Intersection> xs = intersect(i, ray(point(0.5, 0.5, 0), vector(0, 0, 1)));
+        assertThat(xs.size(), is(1));
+        assertTrue(areEqual(xs.get(0).t, 5));
+        assertThat(xs.get(0).face, is(1));
+    }
+
+    @Test
+    public void aFaceFurtherAwayLeavesTheClosestHitAlone() {
+        // a slanted face crossed by the same ray behind the square, though its box reaches in front of it
+        double[] behind = {
+                -3, -3, -2,
+                3, -3, -2,
+                0, 3, 4
+        };
+        Shape[][] pairs = {
+                {square(), mesh(behind, new int[]{0, 1, 2})},
+                {FloatMesh.float_mesh(square()), FloatMesh.float_mesh(mesh(behind, new int[]{0, 1, 2}))}
+        };
+        for (Shape[] pair : pairs) {
+            World w = World.world();
+            w.objects.add(pair[0]);
+            w.objects.add(pair[1]);
+
+            HitRecord record = new HitRecord();
+            assertTrue(World.closest_hit(w, ray(point(0.5, 0.5, -5), vector(0, 0, 1)), record));
+            assertTrue(areEqual(record.t, 5));
+            assertThat(record.object, is(pair[0]));
+            assertThat(record.face, is(1));
+        }
+    }
+
+    @Test
+    public void aMeshFindsTheSameHitsAsItsTriangles() {
+        Random rnd = new Random(15);
+        List<Shape> triangles = BvhTest.randomTriangles(300, rnd);
+        Mesh m = toMesh(triangles);
+
+        for (int i = 0; i < 200; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, -10),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1)));
+            List<Intersection> expected = new ArrayList<>();
+            for (Shape t : triangles) {
+                expected.addAll(intersect(t, r));
+            }
+            List<Intersection> actual = new ArrayList<>(intersect(m, r));
+            expected.sort(Comparator.comparingDouble(x -> x.t));
+            actual.sort(Comparator.comparingDouble(x -> x.t));
+
+            assertThat(actual.size(), is(expected.size()));
+            for (int x = 0; x < actual.size(); x++) {
+                assertTrue(areEqual(actual.get(x).t, expected.get(x).t));
+                assertThat(triangles.get(actual.get(x).face), is(expected.get(x).object));
+            }
+        }
+    }
+
+    @Test
+    public void theClosestHitIsTheFirstOneInFrontOfTheRay() {
+        Random rnd = new Random(51);
+        Mesh m = toMesh(BvhTest.randomTriangles(300, rnd));
+        HitRecord record = HitRecord.hit_record();
+
+        for (int i = 0; i < 200; i++) {
+            // starting inside the soup, so that some hits are behind the origin
+            Ray r = ray(point(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5)));
+            Intersection expected = Intersection.hit(new ArrayList<>(intersect(m, r))).orElse(null);
+
+            assertThat(m.closestHit(r, record), is(expected != null));
+            if (expected != null) {
+                assertTrue(areEqual(record.t, expected.t));
+                assertThat(record.face, is(expected.face));
+                assertThat(record.object, is((Shape) m));
+            }
+        }
+    }
+
+    @Test
+    public void anyHitLooksForAFaceInsideTheRange() {
+        Random rnd = new Random(52);
+        Mesh m = toMesh(BvhTest.randomTriangles(300, rnd));
+
+        for (int i = 0; i < 200; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5)));
+            double tMin = rnd.nextDouble();
+            double tMax = tMin + rnd.nextDouble() * 3;
+            boolean expected = false;
+            for (Intersection x : intersect(m, r)) {
+                expected |= x.t > tMin && x.t < tMax;
+            }
+
+            assertThat(m.anyHit(r, tMin, tMax), is(expected));
+            assertThat(Shape.any_hit(m, r, tMin, tMax), is(expected));
+        }
+    }
+
+    // one face per triangle, with vertices of their own
+    static Mesh toMesh(List<Shape> triangles) {
+        double[] vertices = new double[triangles.size() * 9];
+        int[] indices = new int[triangles.size() * 3];
+        for (int f = 0; f < triangles.size(); f++) {
+            Triangle t = (Triangle) triangles.get(f);
+            Tuple[] corners = {t.p1, t.p2, t.p3};
+            for (int c = 0; c < 3; c++) {
+                vertices[f * 9 + c * 3] = corners[c].x;
+                vertices[f * 9 + c * 3 + 1] = corners[c].y;
+                vertices[f * 9 + c * 3 + 2] = corners[c].z;
+                indices[f * 3 + c] = f * 3 + c;
+            }
+        }
+        return mesh(vertices, indices);
+    }
+
+    private void assertEqualTuples(Tuple a, Tuple b) {
+        assertThat(areEqual(a.x, b.x), is(true));
+        assertThat(areEqual(a.y, b.y), is(true));
+        assertThat(areEqual(a.z, b.z), is(true));
+        assertThat(areEqual(a.w, b.w), is(true));
+    }
+}
@@ -126,6 +126,27 @@ public class ObjParserTest {
         assertThat(g.shapes.contains(parser.groupByName("SecondGroup")), is(true));
     }
 
+    @Test
+    public void parsingAnObjFileStraightIntoAMesh() {
+        List<String> lines = Arrays.asList(
+                "v -1 1 0",
+                "v -1 0 0",
+                "v 1 0 0",
+                "g FirstGroup",
+                "v 1 1 0",
+                "v 0 2 0",
+                "",
+                "f 1 2 3",
+                "f 1 3 4 5"
+        );
+        Mesh m = ObjParser.parse_mesh(lines);
+
+        assertThat(m.vertexCount(), is(5));
+        assertThat(m.faceCount(), is(3));
+        assertThat(m.indices, equalTo(new int[]{0, 1, 2, 0, 2, 3, 0, 3, 4}));
+        assertEqualTuples(m.vertex(4), point(0, 2, 0));
+    }
+
     private void assertEqualTuples(Tuple a, Tuple b) {
         assertThat(areEqual(a.x, b.x), is(true));
         assertThat(areEqual(a.y, b.y), is(true));
@@ -0,0 +1,139 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static ro.scene.hq.raytracer.core.Mesh.mesh;
+import static ro.scene.hq.raytracer.core.OffHeapMesh.off_heap_mesh;
+import static ro.scene.hq.raytracer.core.Ray.ray;
+import static ro.scene.hq.raytracer.core.Shape.intersect;
+import static ro.scene.hq.raytracer.core.Shape.normal_at;
+import static ro.scene.hq.raytracer.core.Tuple.*;
+
+public class OffHeapMeshTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void aCopiedMeshFindsTheSameHits() {
+        Random rnd = new Random(16);
+        Mesh m = MeshTest.toMesh(BvhTest.randomTriangles(300, rnd));
+
+        assertSameHits(off_heap_mesh(m), m, rnd);
+    }
+
+    @Test
+    public void aMeshIsMappedBackFromItsFile() throws IOException {
+        Random rnd = new Random(61);
+        Mesh m = MeshTest.toMesh(BvhTest.randomTriangles(300, rnd));
+        Path file = folder.newFile("random.mesh").toPath();
+        OffHeapMesh.write(m, file);
+
+        OffHeapMesh loaded = OffHeapMesh.load(file);
+        assertThat(loaded.vertexCount, is(m.vertexCount()));
+        assertThat(loaded.faceCount, is(m.faceCount()));
+        assertEqualTuples(loaded.bounds().min, m.bounds().min);
+        assertEqualTuples(loaded.bounds().max, m.bounds().max);
+        assertSameHits(loaded, m, rnd);
+    }
+
+    @Test
+    public void anObjFileIsConvertedWithoutGoingThroughTriangles() throws IOException {
+        Path obj = folder.newFile("square.obj").toPath();
+        Files.write(obj, Arrays.asList(
+                "v -1 1 0",
+                "v -1 -1 0",
+                "v 1 -1 0",
+                "v 1 1 0",
+                "f 1 2 3 4"));
+        Path file = folder.newFile("square.mesh").toPath();
+        OffHeapMesh.convert(obj.toString(), file);
+
+        OffHeapMesh loaded = OffHeapMesh.load(file);
+        assertThat(loaded.vertexCount, is(4));
+        assertThat(loaded.faceCount, is(2));
+        assertThat(intersect(loaded, ray(point(0.5, 0.5, -5), vector(0, 0, 1))).size(), is(1));
+    }
+
+    @Test
+    public void theNormalComesFromTheFaceThatWasHit() throws IOException {
+        Mesh m = mesh(new double[]{
+                0, 1, 0,
+                -1, 0, 0,
+                1, 0, 0,
+                0, 0, 1
+        }, new int[]{0, 1, 2, 0, 1, 3});
+        Path file = folder.newFile("two.mesh").toPath();
+        OffHeapMesh.write(m, file);
+        OffHeapMesh loaded = OffHeapMesh.load(file);
+        Ray r = ray(point(0, 0.5, -2), vector(0, 0, 1));
+        Intersection hit = Intersection.hit(intersect(loaded, r)).get();
+
+        assertThat(hit.face, is(0));
+        assertEqualTuples(normal_at(loaded, Ray.position(r, hit.t), hit), vector(0, 0, -1));
+    }
+
+    @Test
+    public void anEmptyMeshHasNothingToHit() throws IOException {
+        Path file = folder.newFile("empty.mesh").toPath();
+        OffHeapMesh.write(mesh(new double[0], new int[0]), file);
+
+        OffHeapMesh loaded = OffHeapMesh.load(file);
+        assertThat(loaded.faceCount, is(0));
+        assertThat(intersect(loaded, ray(point(0, 0, -5), vector(0, 0, 1))).isEmpty(), is(true));
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Path file = folder.newFile("other.mesh").toPath();
+        Files.write(file, "v 0 0 0".getBytes());
+
+        OffHeapMesh.load(file);
+    }
+
+    private static void assertSameHits(Shape actualMesh, Mesh expectedMesh, Random rnd) {
+        for (int i = 0; i < 200; i++) {
+            Ray r = ray(point(rnd.nextDouble() * 10 - 5, rnd.nextDouble() * 10 - 5, -10),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 1)));
+            List<Intersection> expected = new ArrayList<>(intersect(expectedMesh, r));
+            List<Intersection> actual = new ArrayList<>(intersect(actualMesh, r));
+            expected.sort(Comparator.comparingDouble(x -> x.t));
+            actual.sort(Comparator.comparingDouble(x -> x.t));
+
+            assertThat(actual.size(), is(expected.size()));
+            for (int x = 0; x < actual.size(); x++) {
+                assertTrue(areEqual(actual.get(x).t, expected.get(x).t));
+                assertThat(actual.get(x).face, is(expected.get(x).face));
+            }
+
+            HitRecord expectedHit = new HitRecord();
+            HitRecord actualHit = new HitRecord();
+            assertThat(Shape.closest_hit(actualMesh, r, 100, actualHit),
+                    is(Shape.closest_hit(expectedMesh, r, 100, expectedHit)));
+            assertTrue(areEqual(actualHit.t, expectedHit.t));
+            assertThat(actualHit.face, is(expectedHit.face));
+            assertThat(Shape.any_hit(actualMesh, r, 0, 10), is(Shape.any_hit(expectedMesh, r, 0, 10)));
+            assertThat(Shape.any_hit(actualMesh, r, 10, 100), is(Shape.any_hit(expectedMesh, r, 10, 100)));
+        }
+    }
+
+    private void assertEqualTuples(Tuple a, Tuple b) {
+        assertThat(areEqual(a.x, b.x), is(true));
+        assertThat(areEqual(a.y, b.y), is(true));
+        assertThat(areEqual(a.z, b.z), is(true));
+        assertThat(areEqual(a.w, b.w), is(true));
+    }
+}
@@ -109,6 +109,18 @@ public class PatternsTest {
         assertEqualTuples(c, color(1, 1.5, 2));
     }
 
+    @Test
+    public void aReplacedPatternTransformationIsTakenIntoAccount() {
+        Shape shape = sphere();
+        Pattern pattern = test_pattern();
+        pattern.transform = scaling(2, 2, 2);
+        pattern.colorAtObject(shape, point(2, 3, 4));
+
+        pattern.transform = translation(0.5, 1, 1.5);
+        Tuple c = pattern.colorAtObject(shape, point(2.5, 3, 3.5));
+        assertThat(c, is(equalTo(color(2, 2, 2))));
+    }
+
     @Test
     public void aPatternWithBothAnObjectAndAPatternTransformation() {
         Shape shape = sphere();
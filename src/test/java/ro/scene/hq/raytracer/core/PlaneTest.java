@@ -73,4 +73,14 @@ public class PlaneTest {
         assertThat(areEqual(a.z, b.z), is(true));
         assertThat(areEqual(a.w, b.w), is(true));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void aPlaneHasABoundingBoxThatIsFlatAndInfinite() {
+        BoundingBox box = plane().bounds();
+        assertThat(box.min.x, is(Double.NEGATIVE_INFINITY));
+        assertThat(box.min.y, is(0.0));
+        assertThat(box.max.y, is(0.0));
+        assertThat(box.max.z, is(Double.POSITIVE_INFINITY));
+        assertThat(box.isFinite(), is(false));
+    }
+}
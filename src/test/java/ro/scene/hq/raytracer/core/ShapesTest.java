@@ -88,6 +88,46 @@ public class ShapesTest {
         assertEqualTuples(n, vector(0, 0.97014, -0.24254));
     }
 
+    @Test
+    public void theInverseIsKeptUntilTheTransformChanges() {
+        TestShape s = test_shape();
+        set_transform(s, translation(1, 2, 3));
+        Affine inverse = s.inverseTransform();
+
+        assertThat(s.inverseTransform() == inverse, is(true));
+        assertThat(s.inverseTransform().toMatrix(), is(equalTo(inverse(translation(1, 2, 3)))));
+        // translations don't change normals
+        assertThat(s.inverseTransposeTransform(), is(equalTo(Affine.IDENTITY)));
+
+        set_transform(s, scaling(2, 2, 2));
+        assertThat(s.inverseTransform().toMatrix(), is(equalTo(inverse(scaling(2, 2, 2)))));
+        Ray r = ray(point(0, 0, -5), vector(0, 0, 1));
+        intersect(s, r);
+        assertThat(s.savedRay.direction, is(equalTo(vector(0, 0, 0.5))));
+    }
+
+    @Test
+    public void aShapeHasWorldSpaceBounds() {
+        Group outer = Group.group();
+        outer.transform = translation(10, 0, 0);
+        Group inner = Group.group();
+        inner.transform = scaling(2, 2, 2);
+        Sphere s = Sphere.sphere();
+        s.transform = translation(0, 1, 0);
+        outer.add(inner);
+        inner.add(s);
+
+        BoundingBox box = s.worldBounds();
+        assertEqualTuples(box.min, point(8, 0, -2));
+        assertEqualTuples(box.max, point(12, 4, 2));
+        assertEqualTuples(s.parentSpaceBounds().min, point(-1, 0, -1));
+    }
+
+    @Test
+    public void aShapeWithoutBoundsIsUnbounded() {
+        assertThat(test_shape().bounds().isFinite(), is(false));
+    }
+
     private void assertEqualTuples(Tuple a, Tuple b) {
         assertThat(areEqual(a.x, b.x), is(true));
         assertThat(areEqual(a.y, b.y), is(true));
@@ -86,6 +86,55 @@ public class TriangleTest {
         assertTrue(areEqual(xs.get(0).t, 2));
     }
 
+    @Test
+    public void aRayStrikesATriangleThroughAHitRecord() {
+        Triangle t = triangle(point(0, 1, 0), point(-1, 0, 0), point(1, 0, 0));
+        HitRecord record = HitRecord.hit_record();
+
+        assertThat(t.intersect(0, 0.5, -2, 0, 0, 1, record), is(true));
+        assertTrue(areEqual(record.t, 2));
+        assertTrue(areEqual(record.u, 0.25));
+        assertTrue(areEqual(record.v, 0.25));
+        assertThat(record.object, is(t));
+    }
+
+    @Test
+    public void aMissLeavesTheHitRecordAlone() {
+        Triangle t = triangle(point(0, 1, 0), point(-1, 0, 0), point(1, 0, 0));
+        HitRecord record = HitRecord.hit_record();
+        t.intersect(0, 0.5, -2, 0, 0, 1, record);
+
+        // parallel ray, then a miss past the p1-p3 edge
+        assertThat(t.intersect(0, -1, -2, 0, 1, 0, record), is(false));
+        assertThat(t.intersect(1, 1, -2, 0, 0, 1, record), is(false));
+        assertTrue(areEqual(record.t, 2));
+    }
+
+    @Test
+    public void aClosestHitBeyondTMaxLeavesTheHitRecordAlone() {
+        Triangle t = triangle(point(0, 1, 0), point(-1, 0, 0), point(1, 0, 0));
+        HitRecord record = HitRecord.hit_record();
+        Ray r = ray(point(0, 0.5, -2), vector(0, 0, 1));
+
+        assertThat(Shape.closest_hit(t, r, 1.5, record), is(false));
+        assertThat(record.object == null && record.t == 0 && record.u == 0, is(true));
+        assertThat(Shape.closest_hit(t, r, 3, record), is(true));
+        assertTrue(areEqual(record.t, 2));
+        assertTrue(areEqual(record.u, 0.25));
+        assertThat(record.object, is(t));
+    }
+
+    @Test
+    public void anyHitOnlyCountsAHitInsideTheRange() {
+        Triangle t = triangle(point(0, 1, 0), point(-1, 0, 0), point(1, 0, 0));
+        Ray r = ray(point(0, 0.5, -2), vector(0, 0, 1));
+
+        assertThat(Shape.any_hit(t, r, 0, 3), is(true));
+        assertThat(Shape.any_hit(t, r, 0, 1.5), is(false));
+        assertThat(Shape.any_hit(t, r, 2.5, 3), is(false));
+        assertThat(Shape.any_hit(t, ray(point(1, 1, -2), vector(0, 0, 1)), 0, 3), is(false));
+    }
+
     private void assertEqualTuples(Tuple a, Tuple b) {
         assertThat(areEqual(a.x, b.x), is(true));
         assertThat(areEqual(a.y, b.y), is(true));
@@ -208,6 +208,50 @@ public class TupleTest {
         assertEqualTuples(r, vector(1, 0, 0));
     }
 
+    @Test
+    public void intoMethodsMatchTheAllocatingOnes() {
+        Tuple a = new Tuple(3, -2, 5, 1);
+        Tuple b = new Tuple(-2, 3, 1, 0);
+        Tuple result = new Tuple(0, 0, 0, 0);
+
+        assertThat(a.addInto(b, result), is(a.add(b)));
+        assertThat(a.subInto(b, result), is(a.sub(b)));
+        assertThat(a.negInto(result), is(a.neg()));
+        assertThat(a.scaleInto(3.5, result), is(a.mul(3.5)));
+        assertThat(a.mulInto(b, result), is(a.mul(b)));
+        assertThat(a.addScaledInto(b, 0.5, result), is(a.add(b.mul(0.5))));
+        assertThat(b.normalizeInto(result), is(normalize(b)));
+        assertThat(crossInto(b, vector(1, 2, 3), result), is(cross(b, vector(1, 2, 3))));
+        assertThat(reflectInto(b, vector(0, 1, 0), result), is(reflect(b, vector(0, 1, 0))));
+        assertThat(result, is(reflect(b, vector(0, 1, 0))));
+    }
+
+    @Test
+    public void intoMethodsWorkInPlace() {
+        Tuple a = vector(1, 2, 3);
+        Tuple b = vector(2, 3, 4);
+        Tuple expected = cross(a, b);
+
+        assertThat(crossInto(a, b, a), is(expected));
+        assertThat(a, is(expected));
+
+        Tuple v = vector(4, 0, 3);
+        assertThat(v.normalizeInto(v), is(vector(0.8, 0, 0.6)));
+        assertThat(v.scaleInto(10, v).addInto(v, v), is(vector(16, 0, 12)));
+    }
+
+    @Test
+    public void scratchVectorsBelongToTheirThread() throws InterruptedException {
+        Tuple[] mine = scratch();
+        assertThat(scratch() == mine, is(true));
+
+        Tuple[][] other = new Tuple[1][];
+        Thread t = new Thread(() -> other[0] = scratch());
+        t.start();
+        t.join();
+        assertThat(other[0] == mine, is(false));
+    }
+
     private void assertEqualTuples(Tuple a, Tuple b) {
         assertThat(areEqual(a.x, b.x), is(true));
         assertThat(areEqual(a.y, b.y), is(true));
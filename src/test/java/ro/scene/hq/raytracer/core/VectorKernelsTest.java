@@ -0,0 +1,85 @@
+package ro.scene.hq.raytracer.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static ro.scene.hq.raytracer.core.Affine.affine;
+import static ro.scene.hq.raytracer.core.Matrix.*;
+import static ro.scene.hq.raytracer.core.VectorKernels.kernels;
+import static ro.scene.hq.raytracer.core.VectorKernels.scalar;
+
+// whichever backend got picked has to give exactly what the scalar one gives; counts that are not a
+// multiple of four go through the tail loops too
+public class VectorKernelsTest {
+    private final Random rnd = new Random(7);
+
+    @Test
+    public void transformingPointsMatchesTheScalarBackend() {
+        Affine m = affine(translation(1, -2, 3).mul(rotation_x(0.3)).mul(scaling(2, 0.5, 3)));
+        for (int count : new int[]{0, 3, 4, 13}) {
+            double[] xs = values(count);
+            double[] ys = values(count);
+            double[] zs = values(count);
+            double[] xs2 = xs.clone();
+            double[] ys2 = ys.clone();
+            double[] zs2 = zs.clone();
+
+            kernels().transformPoints(m, xs, ys, zs, count);
+            scalar().transformPoints(m, xs2, ys2, zs2, count);
+            assertThat(Arrays.equals(xs, xs2) && Arrays.equals(ys, ys2) && Arrays.equals(zs, zs2), is(true));
+        }
+    }
+
+    @Test
+    public void scalarTransformIsTheAffineOne() {
+        Affine m = affine(rotation_y(0.7).mul(translation(3, 4, 5)));
+        double[] xs = {1, -2};
+        double[] ys = {0.5, 6};
+        double[] zs = {-3, 0.25};
+
+        scalar().transformPoints(m, xs, ys, zs, 2);
+        assertThat(Tuple.point(xs[0], ys[0], zs[0]), is(m.transformPoint(Tuple.point(1, 0.5, -3))));
+        assertThat(Tuple.point(xs[1], ys[1], zs[1]), is(m.transformPoint(Tuple.point(-2, 6, 0.25))));
+    }
+
+    @Test
+    public void directionsMatchTheScalarBackend() {
+        for (int count : new int[]{1, 8, 11}) {
+            double[] xs = values(count);
+            double[] ys = values(count);
+            double[] zs = values(count);
+            double[] xs2 = xs.clone();
+            double[] ys2 = ys.clone();
+            double[] zs2 = zs.clone();
+
+            kernels().directionsFrom(0.5, -1, 2, xs, ys, zs, count);
+            scalar().directionsFrom(0.5, -1, 2, xs2, ys2, zs2, count);
+            assertThat(Arrays.equals(xs, xs2) && Arrays.equals(ys, ys2) && Arrays.equals(zs, zs2), is(true));
+            assertThat(Tuple.areEqual(Tuple.mag(Tuple.vector(xs[0], ys[0], zs[0])), 1.0), is(true));
+        }
+    }
+
+    @Test
+    public void multiplying4x4MatricesMatchesTheScalarBackend() {
+        double[][] a = {values(4), values(4), values(4), values(4)};
+        double[][] b = {values(4), values(4), values(4), values(4)};
+        Matrix result = new Matrix(4);
+        Matrix expected = new Matrix(4);
+
+        kernels().mul4x4(a, b, result.data);
+        scalar().mul4x4(a, b, expected.data);
+        assertThat(result, is(expected));
+    }
+
+    private double[] values(int count) {
+        double[] result = new double[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = rnd.nextDouble() * 20 - 10;
+        }
+        return result;
+    }
+}
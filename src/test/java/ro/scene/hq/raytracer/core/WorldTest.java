@@ -2,8 +2,10 @@ package ro.scene.hq.raytracer.core;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
@@ -419,6 +421,299 @@ public class WorldTest {
         assertEqualTuples(color, color(0.93391, 0.69643, 0.69243));
     }
 
+    @Test
+    public void intersectingAWorldThroughAGrid() {
+        World w = world();
+        w.objects.addAll(GridTest.particles(300, new Random(3)));
+        w.objects.add(plane());
+        Ray r = ray(point(0.1, 0.2, -20), vector(0.05, 0.02, 1));
+        List<Intersection> expected = intersect_world(w, r);
+
+        w.buildGrid();
+        assertThat(w.accelerator instanceof Grid, is(true));
+        assertThat(intersect_world(w, r), is(equalTo(expected)));
+        assertThat(w.refitBvh(), is(true));
+        assertThat(w.accelerator instanceof Grid, is(true));
+    }
+
+    @Test
+    public void theClosestHitOfAWorldIsTheHitOfAllItsIntersections() {
+        Random rnd = new Random(5);
+        World w = world();
+        w.objects.addAll(GridTest.particles(100, rnd));
+        w.objects.add(plane());
+        Group mesh = Group.group();
+        for (Shape t : BvhTest.randomTriangles(100, rnd)) {
+            mesh.add(t);
+        }
+        Instance copy = Instance.instance(mesh);
+        copy.transform = translation(3, 0, 2).mul(scaling(0.5, 0.5, 0.5));
+        w.objects.add(mesh);
+        w.objects.add(copy);
+        w.objects.add(Cube.cube());
+
+        List<Ray> rays = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rays.add(ray(point(rnd.nextDouble() * 4 - 2, rnd.nextDouble() * 4 - 2, -20),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 2))));
+        }
+        for (int pass = 0; pass < 4; pass++) {
+            if (pass == 1) {
+                w.buildBvh();
+            } else if (pass == 2) {
+                w.buildGrid();
+            } else if (pass == 3) {
+                mesh.buildKdTree();
+                w.accelerator = KdTree.kd_tree(w.objects);
+            }
+            for (Ray r : rays) {
+                Intersection expected = Intersection.hit(intersect_world(w, r)).orElse(null);
+                HitRecord record = HitRecord.hit_record();
+                assertThat(closest_hit(w, r, record), is(expected != null));
+                if (expected != null) {
+                    assertThat(record.toIntersection(), is(equalTo(expected)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void anyHitFindsWhatTheIntersectionsHaveInRange() {
+        Random rnd = new Random(9);
+        World w = world();
+        w.objects.addAll(GridTest.particles(100, rnd));
+        w.objects.add(plane());
+        Group mesh = Group.group();
+        for (Shape t : BvhTest.randomTriangles(100, rnd)) {
+            mesh.add(t);
+        }
+        mesh.buildKdTree();
+        w.objects.add(mesh);
+        w.objects.add(Cube.cube());
+
+        List<Ray> rays = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rays.add(ray(point(rnd.nextDouble() * 4 - 2, rnd.nextDouble() * 4 - 2, -20),
+                    normalize(vector(rnd.nextDouble() - 0.5, rnd.nextDouble() - 0.5, 2))));
+        }
+        for (int pass = 0; pass < 3; pass++) {
+            if (pass == 1) {
+                w.buildBvh(BvhSettings.wide(4));
+            } else if (pass == 2) {
+                w.buildGrid();
+            }
+            for (Ray r : rays) {
+                double tMax = 10 + rnd.nextDouble() * 20;
+                boolean expected = false;
+                for (Intersection x : intersect_world(w, r)) {
+                    expected |= x.t > EPSILON && x.t < tMax;
+                }
+                assertThat(any_hit(w, r, EPSILON, tMax), is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void shapesThatCastNoShadowAreSkippedByShadowRays() {
+        World w = default_world();
+        Tuple p = point(10, -10, 10);
+        assertThat(is_shadowed(w, p), is(true));
+
+        w.objects.get(0).castsShadow = false;
+        assertThat(is_shadowed(w, p), is(true));
+        w.objects.get(1).castsShadow = false;
+        assertThat(is_shadowed(w, p), is(false));
+
+        // the whole group goes, whatever its children say
+        Group g = Group.group();
+        g.add(sphere());
+        w.objects.add(g);
+        assertThat(is_shadowed(w, p), is(true));
+        g.castsShadow = false;
+        assertThat(is_shadowed(w, p), is(false));
+    }
+
+    @Test
+    public void theLastOccluderIsTriedFirstByShadowRays() {
+        World w = default_world();
+        assertThat(is_shadowed(w, point(10, -10, 10)), is(true));
+        assertThat(w.shadowCache.hits(), is(0L));
+        assertThat(w.shadowCache.misses(), is(1L));
+
+        assertThat(is_shadowed(w, point(9, -9, 9)), is(true));
+        assertThat(is_shadowed(w, point(0, 10, 0)), is(false));
+        assertThat(w.shadowCache.hits(), is(1L));
+        assertThat(w.shadowCache.misses(), is(2L));
+
+        w.shadowCache.clear();
+        assertThat(w.shadowCache.hits(), is(0L));
+        assertThat(w.shadowCache.misses(), is(0L));
+    }
+
+    @Test
+    public void shadowsDontDependOnTheRememberedOccluder() {
+        Random rnd = new Random(25);
+        World w = world();
+        w.light = point_light(point(0, 0, -30), color(1, 1, 1));
+        w.objects.addAll(GridTest.particles(100, rnd));
+        w.objects.add(sphere());
+        w.buildBvh();
+
+        for (int i = 0; i < 200; i++) {
+            Tuple p = point(rnd.nextDouble() * 3 - 1.5, rnd.nextDouble() * 3 - 1.5, 20);
+            Tuple v = w.light.position.sub(p);
+            Ray r = ray(p, normalize(v));
+            boolean expected = false;
+            for (Intersection x : intersect_world(w, r)) {
+                expected |= x.t > EPSILON && x.t < mag(v);
+            }
+            assertThat(is_shadowed(w, p), is(expected));
+        }
+        assertTrue(w.shadowCache.hits() > 0);
+    }
+
+    @Test
+    public void theOccluderRememberedIsThePrimitiveInsideTheGroups() {
+        World w = default_world();
+        w.objects.clear();
+        Sphere s = sphere();
+        Group inner = Group.group();
+        inner.transform = scaling(2, 2, 2);
+        inner.add(s);
+        Group outer = Group.group();
+        outer.transform = translation(0.5, 0, 0);
+        outer.add(inner);
+        w.objects.add(outer);
+        w.freeze();
+
+        assertThat(is_shadowed(w, point(10, -10, 10)), is(true));
+        assertThat(w.shadowCache.entry().occluder, is((Shape) s));
+        assertThat(w.shadowCache.entry().skippable, is(true));
+        assertThat(is_shadowed(w, point(9, -9, 9)), is(true));
+        assertThat(w.shadowCache.hits(), is(1L));
+
+        w.unfreeze();
+        w.objects.set(0, Instance.instance(outer));
+        w.freeze();
+        assertThat(is_shadowed(w, point(10, -10, 10)), is(true));
+        assertThat(w.shadowCache.entry().occluder, is((Shape) s));
+        assertThat(w.shadowCache.entry().skippable, is(false));
+        assertThat(is_shadowed(w, point(9, -9, 9)), is(true));
+        assertThat(w.shadowCache.hits(), is(2L));
+    }
+
+    @Test
+    public void changesBelowTheTopLevelObjectsOfAWorldThatIsNotFrozenCountForShadows() {
+        World w = world();
+        w.light = point_light(point(0, 0, -10), color(1, 1, 1));
+        Sphere s = sphere();
+        Group g = Group.group();
+        g.add(s);
+        w.objects.add(g);
+        Tuple p = point(0, 0, 10);
+
+        assertThat(is_shadowed(w, p), is(true));
+        assertThat(w.shadowCache.entry().occluder, is((Shape) g));
+        g.transform = translation(5, 0, 0);
+        assertThat(is_shadowed(w, p), is(false));
+
+        g.transform = translation(0, 0, 0);
+        assertThat(is_shadowed(w, p), is(true));
+        g.shapes.remove(s);
+        assertThat(is_shadowed(w, p), is(false));
+    }
+
+    @Test
+    public void aRememberedOccluderThatMissesIsNotTestedAgain() {
+        int[] tests = new int[1];
+        World w = world();
+        w.light = point_light(point(0, 0, -10), color(1, 1, 1));
+        Sphere counted = new Sphere() {
+            @Override
+            protected boolean localAnyHit(Ray r, double tMin, double tMax) {
+                tests[0]++;
+                return super.localAnyHit(r, tMin, tMax);
+            }
+        };
+        Sphere other = sphere();
+        other.transform = translation(3, 0, 5);
+        w.objects.add(counted);
+        w.objects.add(other);
+
+        assertThat(is_shadowed(w, point(0, 0, 10)), is(true));
+        tests[0] = 0;
+        assertThat(is_shadowed(w, point(6, 0, 20)), is(true));
+        assertThat(tests[0], is(1));
+    }
+
+    @Test
+    public void anOccluderTakenOutOfTheWorldIsForgotten() {
+        World w = world();
+        w.light = point_light(point(0, 0, -10), color(1, 1, 1));
+        Sphere s = sphere();
+        w.objects.add(s);
+        Tuple p = point(0, 0, 10);
+
+        assertThat(is_shadowed(w, p), is(true));
+        w.objects.remove(s);
+        assertThat(is_shadowed(w, p), is(false));
+
+        w.objects.add(s);
+        w.buildBvh();
+        assertThat(is_shadowed(w, p), is(true));
+        w.objects.remove(s);
+        w.buildBvh();
+        assertThat(is_shadowed(w, p), is(false));
+    }
+
+    @Test
+    public void shadowsThroughGroupsAndInstancesDontDependOnTheRememberedOccluder() {
+        Random rnd = new Random(7);
+        World w = world();
+        w.light = point_light(point(0, 0, -30), color(1, 1, 1));
+        Group inner = Group.group();
+        for (Shape s : GridTest.particles(60, rnd)) {
+            inner.add(s);
+        }
+        inner.transform = scaling(0.5, 0.5, 0.5);
+        Group outer = Group.group();
+        outer.transform = translation(1, 0, 0);
+        outer.add(inner);
+        Instance copy = Instance.instance(outer);
+        copy.transform = translation(-2, 1, 0);
+        w.objects.add(outer);
+        w.objects.add(copy);
+        w.buildBvh();
+        w.freeze();
+
+        for (int i = 0; i < 300; i++) {
+            Tuple p = point(rnd.nextDouble() * 6 - 3, rnd.nextDouble() * 6 - 3, 20);
+            Tuple v = w.light.position.sub(p);
+            Ray r = ray(p, normalize(v));
+            boolean expected = false;
+            for (Intersection x : intersect_world(w, r)) {
+                expected |= x.t > EPSILON && x.t < mag(v);
+            }
+            assertThat(is_shadowed(w, p), is(expected));
+        }
+        assertTrue(w.shadowCache.hits() > 0);
+    }
+
+    @Test
+    public void theColorBehindATransparentSurfaceStillTakesRefractionIntoAccount() {
+        World w = default_world();
+        Shape floor = plane();
+        floor.transform = translation(0, -1, 0);
+        floor.material.transparency = 0.5;
+        floor.material.refractiveIndex = 1.5;
+        w.objects.add(floor);
+        Ray r = ray(point(0, 0, -3), vector(0, -Math.sqrt(2.0) / 2.0, Math.sqrt(2.0) / 2.0));
+
+        List<Intersection> xs = intersect_world(w, r);
+        Computations comps = prepare_computations(Intersection.hit(xs).get(), r, xs);
+        assertThat(color_at(w, r, 5), is(equalTo(shade_hit(w, comps, 5))));
+    }
+
     private void assertEqualTuples(Tuple a, Tuple b) {
         assertThat(areEqual(a.x, b.x), is(true));
         assertThat(areEqual(a.y, b.y), is(true));